@@ -0,0 +1,28 @@
+package me.nathan.futureclient.framework.auth.phase;
+
+/**
+ * The base URLs of the auth services used by the phases. They can be pointed elsewhere, at a local stand-in for
+ * example, with the {@code yescom.auth.*} system properties, or by setting them directly before logging in.
+ */
+public final class AuthEndpoints {
+
+    /**
+     * Microsoft account login and OAuth tokens, {@code yescom.auth.live}.
+     */
+    public static volatile String LIVE = System.getProperty("yescom.auth.live", "https://login.live.com");
+    /**
+     * Xbox Live user tokens, {@code yescom.auth.xbl}.
+     */
+    public static volatile String XBL = System.getProperty("yescom.auth.xbl", "https://user.auth.xboxlive.com");
+    /**
+     * Xbox Live security tokens, {@code yescom.auth.xsts}.
+     */
+    public static volatile String XSTS = System.getProperty("yescom.auth.xsts", "https://xsts.auth.xboxlive.com");
+    /**
+     * Minecraft tokens and profiles, {@code yescom.auth.minecraft}.
+     */
+    public static volatile String MINECRAFT = System.getProperty("yescom.auth.minecraft", "https://api.minecraftservices.com");
+
+    private AuthEndpoints() {
+    }
+}
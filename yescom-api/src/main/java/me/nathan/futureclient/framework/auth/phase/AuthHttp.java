@@ -0,0 +1,59 @@
+package me.nathan.futureclient.framework.auth.phase;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * The HTTP client shared by all the auth phases, so that connections to the Microsoft, Xbox and Minecraft endpoints are
+ * pooled across logins, rather than opened for every request. Cookies are not stored, as logins for different accounts
+ * run concurrently, so they must be passed explicitly.
+ */
+public final class AuthHttp {
+
+    public static final HttpClient CLIENT = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private AuthHttp() {
+    }
+
+    /**
+     * @param headers Extra headers, as name and value pairs.
+     */
+    public static HttpResponse<String> get(String url, String... headers) throws IOException {
+        return send(newRequest(url, headers).GET().build());
+    }
+
+    /**
+     * @param headers Extra headers, as name and value pairs.
+     */
+    public static HttpResponse<String> post(String url, String contentType, String body, String... headers) throws IOException {
+        return send(newRequest(url, headers)
+                .header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build());
+    }
+
+    private static HttpRequest.Builder newRequest(String url, String... headers) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).timeout(REQUEST_TIMEOUT);
+        if (headers.length > 0) builder.headers(headers);
+        return builder;
+    }
+
+    private static HttpResponse<String> send(HttpRequest request) throws IOException {
+        try {
+            return CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during request to " + request.uri().getHost() + ".");
+        }
+    }
+}
@@ -3,10 +3,9 @@ package me.nathan.futureclient.framework.auth.phase;
 import me.nathan.futureclient.client.altmanager.AccountException;
 
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
@@ -22,24 +21,24 @@ public class Code {
         String urlPost = "";
 
         try {
-            HttpURLConnection connection = (HttpURLConnection) new URL("https://login.live.com/oauth20_authorize.srf?redirect_uri=https://login.live.com/oauth20_desktop.srf&scope=service::user.auth.xboxlive.com::MBI_SSL&display=touch&response_type=code&locale=en&client_id=00000000402b5328").openConnection();
-            connection.setDoInput(true);
-            try (InputStream in = connection.getResponseCode() == 200 ? connection.getInputStream() : connection.getErrorStream()) {
-                cookie = connection.getHeaderField("set-cookie");
-                String body = new BufferedReader(new InputStreamReader(in)).lines().collect(Collectors.joining());
-                Matcher m = Pattern.compile("sFTTag:[ ]?'.*value=\"(.*)\"/>'").matcher(body);
-                if (m.find()) {
-                    PPFT = m.group(1);
-                } else {
-                    throw new AccountException("U/P Auth error: Unable to parse response! [1]");
-                }
+            HttpResponse<String> response = AuthHttp.get(AuthEndpoints.LIVE + "/oauth20_authorize.srf?redirect_uri=https://login.live.com/oauth20_desktop.srf&scope=service::user.auth.xboxlive.com::MBI_SSL&display=touch&response_type=code&locale=en&client_id=00000000402b5328");
+            // Only the name=value part of each cookie, the client doesn't keep them for us
+            cookie = response.headers().allValues("set-cookie").stream()
+                    .map(value -> value.split(";", 2)[0])
+                    .collect(Collectors.joining("; "));
+            String body = response.body();
+            Matcher m = Pattern.compile("sFTTag:[ ]?'.*value=\"(.*)\"/>'").matcher(body);
+            if (m.find()) {
+                PPFT = m.group(1);
+            } else {
+                throw new AccountException("U/P Auth error: Unable to parse response! [1]");
+            }
 
-                m = Pattern.compile("urlPost:[ ]?'(.+?(?='))").matcher(body);
-                if (m.find()) {
-                    urlPost = m.group(1);
-                } else {
-                    throw new AccountException("U/P Auth error: Unable to parse response! [2]");
-                }
+            m = Pattern.compile("urlPost:[ ]?'(.+?(?='))").matcher(body);
+            if (m.find()) {
+                urlPost = m.group(1);
+            } else {
+                throw new AccountException("U/P Auth error: Unable to parse response! [2]");
             }
         } catch (IOException e) {
             throw new AccountException("U/P Auth error: generic IO error");
@@ -60,25 +59,14 @@ public class Code {
         String code;
 
         try {
-            byte[] bytes = postData.getBytes(StandardCharsets.UTF_8);
-
-            HttpURLConnection connection = (HttpURLConnection) new URL(urlPost).openConnection();
-            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=utf-8");
-            connection.setRequestProperty("Content-Length", String.valueOf(bytes.length));
-            connection.setRequestProperty("Cookie", cookie);
-
-            connection.setDoInput(true);
-            connection.setDoOutput(true);
-
-            try(OutputStream out = connection.getOutputStream()) {
-                out.write(bytes);
-            }
+            HttpResponse<String> response = AuthHttp.post(urlPost, "application/x-www-form-urlencoded; charset=utf-8", postData, "Cookie", cookie);
 
-            if (connection.getResponseCode() != 200 || connection.getURL().toString().equals(urlPost)) {
+            // Redirected to the desktop URL with the code if the login was successful
+            if (response.statusCode() != 200 || response.uri().toString().equals(urlPost)) {
                 throw new AccountException("Invalid username and/or password");
             }
 
-            Matcher m = Pattern.compile("[?|&]code=([\\w.-]+)").matcher(URLDecoder.decode(connection.getURL().toString(), StandardCharsets.UTF_8.name()));
+            Matcher m = Pattern.compile("[?|&]code=([\\w.-]+)").matcher(URLDecoder.decode(response.uri().toString(), StandardCharsets.UTF_8.name()));
             if (m.find()) {
                 code = m.group(1);
             } else {
@@ -5,46 +5,18 @@ import com.google.gson.JsonPrimitive;
 import ez.pogdog.yescom.api.Globals;
 import me.nathan.futureclient.client.altmanager.AccountException;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLConnection;
-import java.nio.charset.StandardCharsets;
-import java.util.stream.Collectors;
 
 public class MCToken {
 
     public static MCTokenType getFor(LSToken.LSTokenType lsToken) throws AccountException, IOException {
         try {
-            URL url = new URL("https://api.minecraftservices.com/authentication/login_with_xbox");
-            URLConnection con = url.openConnection();
-            HttpURLConnection http = (HttpURLConnection) con;
-            http.setRequestMethod("POST"); // PUT is another valid option
-            http.setDoOutput(true);
-
             JsonObject request = new JsonObject();
             request.add("identityToken", new JsonPrimitive("XBL3.0 x="+lsToken.uhs+";"+lsToken.token));
 
             String body = request.toString();
 
-            http.setFixedLengthStreamingMode(body.length());
-            http.setRequestProperty("Content-Type", "application/json");
-            http.setRequestProperty("Host","api.minecraftservices.com");
-            http.connect();
-            try (OutputStream os = http.getOutputStream()) {
-                os.write(body.getBytes(StandardCharsets.US_ASCII));
-            }
-
-            BufferedReader reader;
-            if (http.getResponseCode() != 200) {
-                reader = new BufferedReader(new InputStreamReader(http.getErrorStream()));
-            } else {
-                reader = new BufferedReader(new InputStreamReader(http.getInputStream()));
-            }
-            String lines = reader.lines().collect(Collectors.joining());
+            String lines = AuthHttp.post(AuthEndpoints.MINECRAFT + "/authentication/login_with_xbox", "application/json", body).body();
 
             JsonObject json;
             try {
@@ -53,7 +25,8 @@ public class MCToken {
                 throw new AccountException("Error requesting xbox login: " + lines);
             }
 
-            return new MCTokenType(json.get("access_token").getAsString(), json.get("username").getAsString());
+            long expiresIn = json.has("expires_in") ? json.get("expires_in").getAsLong() : 86400;
+            return new MCTokenType(json.get("access_token").getAsString(), json.get("username").getAsString(), expiresIn);
         } catch (IOException e) {
             e.printStackTrace();
             throw e;
@@ -62,22 +35,7 @@ public class MCToken {
 
     public static Profile getProfile(MCTokenType minecraftToken) throws AccountException, IOException {
         try {
-            URL url = new URL("https://api.minecraftservices.com/minecraft/profile");
-            URLConnection con = url.openConnection();
-            HttpURLConnection http = (HttpURLConnection) con;
-            http.setRequestMethod("GET");
-
-            http.setRequestProperty("Authorization", "Bearer "+minecraftToken.accessToken);
-            http.setRequestProperty("Host","api.minecraftservices.com");
-            http.connect();
-
-            BufferedReader reader;
-            if (http.getResponseCode()!=200) {
-                reader = new BufferedReader(new InputStreamReader(http.getErrorStream()));
-            } else {
-                reader = new BufferedReader(new InputStreamReader(http.getInputStream()));
-            }
-            String lines = reader.lines().collect(Collectors.joining());
+            String lines = AuthHttp.get(AuthEndpoints.MINECRAFT + "/minecraft/profile", "Authorization", "Bearer " + minecraftToken.accessToken).body();
 
             JsonObject json;
             try {
@@ -110,9 +68,14 @@ public class MCToken {
     public static class MCTokenType {
         public String accessToken;
         public String username;
+        public long expiresIn; // Seconds
         public MCTokenType(String a, String b) {
+            this(a, b, 86400);
+        }
+        public MCTokenType(String a, String b, long e) {
             accessToken=a;
             username=b;
+            expiresIn=e;
         }
     }
 }
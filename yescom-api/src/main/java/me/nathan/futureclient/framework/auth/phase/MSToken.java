@@ -4,19 +4,11 @@ import com.google.gson.JsonObject;
 import ez.pogdog.yescom.api.Globals;
 import me.nathan.futureclient.client.altmanager.AccountException;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLConnection;
 import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.StringJoiner;
-import java.util.stream.Collectors;
 
 public class MSToken {
     public static TokenPair getFor(String authCode) throws AccountException, IOException {
@@ -31,29 +23,7 @@ public class MSToken {
             for (Map.Entry<String, String> entry : arguments.entrySet())
                 sj.add(URLEncoder.encode(entry.getKey(), "UTF-8") + "="
                         + URLEncoder.encode(entry.getValue(), "UTF-8"));
-            byte[] out = sj.toString().getBytes(StandardCharsets.UTF_8);
-            int length = out.length;
-
-            URL url = new URL("https://login.live.com/oauth20_token.srf");
-            URLConnection con = url.openConnection();
-            HttpURLConnection http = (HttpURLConnection) con;
-            http.setRequestMethod("POST");
-            http.setDoOutput(true);
-
-            http.setFixedLengthStreamingMode(length);
-            http.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-            http.connect();
-            try (OutputStream os = http.getOutputStream()) {
-                os.write(out);
-            }
-
-            BufferedReader reader;
-            if (http.getResponseCode()!=200) {
-                reader = new BufferedReader(new InputStreamReader(http.getErrorStream()));
-            } else {
-                reader = new BufferedReader(new InputStreamReader(http.getInputStream()));
-            }
-            String lines = reader.lines().collect(Collectors.joining());
+            String lines = AuthHttp.post(AuthEndpoints.LIVE + "/oauth20_token.srf", "application/x-www-form-urlencoded", sj.toString()).body();
 
             JsonObject json = Globals.JSON.parse(lines).getAsJsonObject();
             if (json.keySet().contains("error")) {
@@ -67,52 +37,50 @@ public class MSToken {
     }
 
     public static TokenPair getForUserPass(String authCode) throws AccountException, IOException {
-        try {
-            Map<String, String> arguments = new HashMap<>();
-            arguments.put("client_id", "00000000402b5328");
-            arguments.put("code", authCode);
-            arguments.put("grant_type", "authorization_code");
-            arguments.put("redirect_uri", "https://login.live.com/oauth20_desktop.srf");
-            arguments.put("scope","service::user.auth.xboxlive.com::MBI_SSL");
-            StringJoiner sj = new StringJoiner("&");
-            for (Map.Entry<String, String> entry : arguments.entrySet())
-                sj.add(URLEncoder.encode(entry.getKey(), "UTF-8") + "="
-                        + URLEncoder.encode(entry.getValue(), "UTF-8"));
-            byte[] out = sj.toString().getBytes(StandardCharsets.UTF_8);
-            int length = out.length;
-
-            URL url = new URL("https://login.live.com/oauth20_token.srf");
-            URLConnection con = url.openConnection();
-            HttpURLConnection http = (HttpURLConnection) con;
-            http.setRequestMethod("POST"); // PUT is another valid option
-            http.setDoOutput(true);
+        Map<String, String> arguments = new HashMap<>();
+        arguments.put("client_id", "00000000402b5328");
+        arguments.put("code", authCode);
+        arguments.put("grant_type", "authorization_code");
+        arguments.put("redirect_uri", "https://login.live.com/oauth20_desktop.srf");
+        arguments.put("scope","service::user.auth.xboxlive.com::MBI_SSL");
+        StringJoiner sj = new StringJoiner("&");
+        for (Map.Entry<String, String> entry : arguments.entrySet())
+            sj.add(URLEncoder.encode(entry.getKey(), "UTF-8") + "="
+                    + URLEncoder.encode(entry.getValue(), "UTF-8"));
+        String lines = AuthHttp.post(AuthEndpoints.LIVE + "/oauth20_token.srf", "application/x-www-form-urlencoded", sj.toString()).body();
 
+        JsonObject json = Globals.JSON.parse(lines).getAsJsonObject();
+        if (json.has("error")) {
+            throw new AccountException(json.get("error").getAsString() + ": " + json.get("error_description").getAsString());
+        }
+        return new TokenPair(json.get("access_token").getAsString(), json.get("refresh_token").getAsString());
+    }
+    /**
+     * Gets a new token pair from the refresh token of one obtained by {@link #getForUserPass(String)}, without the
+     * username and password.
+     */
+    public static TokenPair refreshUserPass(String refreshToken) throws AccountException, IOException {
+        Map<String, String> arguments = new HashMap<>();
+        arguments.put("client_id", "00000000402b5328");
+        arguments.put("refresh_token", refreshToken);
+        arguments.put("grant_type", "refresh_token");
+        arguments.put("redirect_uri", "https://login.live.com/oauth20_desktop.srf");
+        arguments.put("scope","service::user.auth.xboxlive.com::MBI_SSL");
+        StringJoiner sj = new StringJoiner("&");
+        for (Map.Entry<String, String> entry : arguments.entrySet())
+            sj.add(URLEncoder.encode(entry.getKey(), "UTF-8") + "="
+                    + URLEncoder.encode(entry.getValue(), "UTF-8"));
+        String lines = AuthHttp.post(AuthEndpoints.LIVE + "/oauth20_token.srf", "application/x-www-form-urlencoded", sj.toString()).body();
 
-            http.setFixedLengthStreamingMode(length);
-            http.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-            http.connect();
-            try (OutputStream os = http.getOutputStream()) {
-                os.write(out);
-            }
-
-            BufferedReader reader;
-            if (http.getResponseCode()!=200) {
-                reader = new BufferedReader(new InputStreamReader(http.getErrorStream()));
-            } else {
-                reader = new BufferedReader(new InputStreamReader(http.getInputStream()));
-            }
-            String lines = reader.lines().collect(Collectors.joining());
-
-            JsonObject json = Globals.JSON.parse(lines).getAsJsonObject();
-            if (json.has("error")) {
-                throw new AccountException(json.get("error").getAsString() + ": " + json.get("error_description").getAsString());
-            }
-            return new TokenPair(json.get("access_token").getAsString(), json.get("refresh_token").getAsString());
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw e;
+        JsonObject json = Globals.JSON.parse(lines).getAsJsonObject();
+        if (json.has("error")) {
+            throw new AccountException(json.get("error").getAsString() + ": " + json.get("error_description").getAsString());
         }
+        // The refresh token may or may not be rotated
+        String newRefreshToken = json.has("refresh_token") ? json.get("refresh_token").getAsString() : refreshToken;
+        return new TokenPair(json.get("access_token").getAsString(), newRefreshToken);
     }
+
     public static class TokenPair {
         public String token;
         public String refreshToken;
@@ -5,25 +5,12 @@ import com.google.gson.JsonPrimitive;
 import ez.pogdog.yescom.api.Globals;
 import me.nathan.futureclient.client.altmanager.AccountException;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLConnection;
-import java.nio.charset.StandardCharsets;
-import java.util.stream.Collectors;
 
 public class XBLToken {
 
     public static XBLTokenType getForUserPass(String token) throws AccountException, IOException {
         try {
-            URL url = new URL("https://user.auth.xboxlive.com/user/authenticate");
-            URLConnection con = url.openConnection();
-            HttpURLConnection http = (HttpURLConnection) con;
-            http.setDoOutput(true);
-
             JsonObject request = new JsonObject();
             request.add("RelyingParty", new JsonPrimitive("http://auth.xboxlive.com"));
             request.add("TokenType", new JsonPrimitive("JWT"));
@@ -37,22 +24,7 @@ public class XBLToken {
 
             String body = request.toString();
 
-            http.setFixedLengthStreamingMode(body.length());
-            http.setRequestProperty("Content-Type", "application/json");
-            http.setRequestProperty("Accept","application/json");
-            http.connect();
-            try (OutputStream os = http.getOutputStream()) {
-                os.write(body.getBytes(StandardCharsets.US_ASCII));
-            }
-
-            BufferedReader reader;
-
-            if (http.getResponseCode() != 200) {
-                reader = new BufferedReader(new InputStreamReader(http.getErrorStream()));
-            } else {
-                reader = new BufferedReader(new InputStreamReader(http.getInputStream()));
-            }
-            String lines = reader.lines().collect(Collectors.joining());
+            String lines = AuthHttp.post(AuthEndpoints.XBL + "/user/authenticate", "application/json", body, "Accept", "application/json").body();
 
             JsonObject json = Globals.JSON.parse(lines).getAsJsonObject();
             if (json.has("error")) {
@@ -7,14 +7,41 @@ import com.github.steveice10.opennbt.tag.builtin.CompoundTag;
 import com.github.steveice10.packetlib.io.NetInput;
 import com.github.steveice10.packetlib.io.NetOutput;
 import com.github.steveice10.packetlib.io.stream.StreamNetOutput;
+import com.github.steveice10.packetlib.tcp.BufferedPacket;
+import com.github.steveice10.packetlib.tcp.io.ByteBufNetInput;
+import io.netty.buffer.ByteBuf;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 
 /**
  * Dang x2.
+ *
+ * By default, the column data and the tile entities are not copied or parsed when the packet is read. Retained slices
+ * of the frame are kept instead, and the tile entities are only walked for their IDs and positions when they're asked
+ * for, see {@link #scanTileEntities(Collection, TileEntityVisitor)}. The tags (and the column) are only materialised if
+ * they're actually asked for. The slices are released once the packet has been handled, so anything that's needed
+ * later than that must be read during handling.
  */
-public class ServerChunkDataPacket extends MinecraftPacket {
+public class ServerChunkDataPacket extends MinecraftPacket implements BufferedPacket {
+
+    private static final int TAG_END = 0;
+    private static final int TAG_BYTE = 1;
+    private static final int TAG_SHORT = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_FLOAT = 5;
+    private static final int TAG_DOUBLE = 6;
+    private static final int TAG_BYTE_ARRAY = 7;
+    private static final int TAG_STRING = 8;
+    private static final int TAG_LIST = 9;
+    private static final int TAG_COMPOUND = 10;
+    private static final int TAG_INT_ARRAY = 11;
+    private static final int TAG_LONG_ARRAY = 12;
+
+    private static volatile boolean lazyDecoding = true;
 
     private int x;
     private int z;
@@ -23,8 +50,30 @@ public class ServerChunkDataPacket extends MinecraftPacket {
     private CompoundTag[] tileEntities;
     private byte[] data;
 
+    // Lazily decoded, slices of the frame this packet was read from
+    private boolean sliced;
+    private int tileEntityCount;
+    private ByteBuf dataSlice;
+    private ByteBuf tileEntitySlice; // The raw NBT of every tile entity, back to back
+
+    // Found by the first scan
+    private String[] tileEntityIDs;
+    private int[] tileEntityPositions; // x, y, z for each tile entity
+    private boolean[] tileEntityHasPosition;
+
     private Column column;
 
+    /**
+     * @param lazy Should chunk data packets read from now on be decoded lazily?
+     */
+    public static void setLazyDecoding(boolean lazy) {
+        lazyDecoding = lazy;
+    }
+
+    public static boolean isLazyDecoding() {
+        return lazyDecoding;
+    }
+
     @SuppressWarnings("unused")
     private ServerChunkDataPacket() {
     }
@@ -48,6 +97,178 @@ public class ServerChunkDataPacket extends MinecraftPacket {
         // this.column = NetUtil.readColumn(data, x, z, fullChunk, false, chunkMask, tileEntities);
     }
 
+    @Override
+    public void read(NetInput in, ByteBuf buf) throws IOException {
+        if (!lazyDecoding) {
+            read(in);
+            return;
+        }
+
+        x = in.readInt();
+        z = in.readInt();
+        fullChunk = in.readBoolean();
+        chunkMask = in.readVarInt();
+        int length = in.readVarInt();
+        if (length < 0 || length > buf.readableBytes()) throw new IOException("Invalid chunk data length: " + length);
+        dataSlice = buf.readRetainedSlice(length);
+        sliced = true;
+
+        tileEntityCount = in.readVarInt();
+        if (tileEntityCount < 0 || tileEntityCount > buf.readableBytes()) // At least a byte each
+            throw new IOException("Invalid tile entity count: " + tileEntityCount);
+        // The tile entities are the rest of the packet, so we don't need to walk them to know where they end
+        tileEntitySlice = buf.readRetainedSlice(buf.readableBytes());
+    }
+
+    @Override
+    public void release() {
+        if (dataSlice != null) {
+            dataSlice.release();
+            dataSlice = null;
+        }
+        if (tileEntitySlice != null) {
+            tileEntitySlice.release();
+            tileEntitySlice = null;
+        }
+    }
+
+    /**
+     * Walks the raw NBT of the tile entities, picking out the ID and position of each.
+     */
+    private void scan() throws IOException {
+        String[] tileEntityIDs = new String[tileEntityCount];
+        int[] tileEntityPositions = new int[tileEntityCount * 3];
+        boolean[] tileEntityHasPosition = new boolean[tileEntityCount];
+
+        ByteBuf in = getSlice(tileEntitySlice).duplicate(); // Don't move the slice's own indices
+        try {
+            for (int index = 0; index < tileEntityCount; ++index) {
+                int type = in.readUnsignedByte();
+                if (type == TAG_END) continue; // Null tag
+
+                in.skipBytes(in.readUnsignedShort()); // Root name
+                if (type != TAG_COMPOUND) {
+                    skipPayload(in, type);
+                    continue;
+                }
+
+                boolean hasX = false;
+                boolean hasY = false;
+                boolean hasZ = false;
+                int elementType;
+                while ((elementType = in.readUnsignedByte()) != TAG_END) {
+                    int nameLength = in.readUnsignedShort();
+                    char name = nameLength == 1 ? (char)in.getUnsignedByte(in.readerIndex()) : 0;
+                    boolean isID = nameLength == 2 && in.getUnsignedByte(in.readerIndex()) == 'i' &&
+                            in.getUnsignedByte(in.readerIndex() + 1) == 'd';
+                    in.skipBytes(nameLength);
+
+                    if (elementType == TAG_INT && (name == 'x' || name == 'y' || name == 'z')) {
+                        int value = in.readInt();
+                        switch (name) {
+                            case 'x': {
+                                tileEntityPositions[index * 3] = value;
+                                hasX = true;
+                                break;
+                            }
+                            case 'y': {
+                                tileEntityPositions[index * 3 + 1] = value;
+                                hasY = true;
+                                break;
+                            }
+                            case 'z': {
+                                tileEntityPositions[index * 3 + 2] = value;
+                                hasZ = true;
+                                break;
+                            }
+                        }
+
+                    } else if (elementType == TAG_STRING && isID) {
+                        tileEntityIDs[index] = in.readCharSequence(in.readUnsignedShort(), StandardCharsets.UTF_8).toString();
+
+                    } else {
+                        skipPayload(in, elementType);
+                    }
+                }
+
+                tileEntityHasPosition[index] = hasX && hasY && hasZ;
+            }
+        } catch (IndexOutOfBoundsException error) {
+            throw new IOException("Tile entity NBT ended early.", error);
+        }
+
+        this.tileEntityIDs = tileEntityIDs;
+        this.tileEntityPositions = tileEntityPositions;
+        this.tileEntityHasPosition = tileEntityHasPosition;
+    }
+
+    private void skipPayload(ByteBuf in, int type) throws IOException {
+        switch (type) {
+            case TAG_BYTE: {
+                in.skipBytes(1);
+                break;
+            }
+            case TAG_SHORT: {
+                in.skipBytes(2);
+                break;
+            }
+            case TAG_INT:
+            case TAG_FLOAT: {
+                in.skipBytes(4);
+                break;
+            }
+            case TAG_LONG:
+            case TAG_DOUBLE: {
+                in.skipBytes(8);
+                break;
+            }
+            case TAG_BYTE_ARRAY: {
+                in.skipBytes(readLength(in, 1));
+                break;
+            }
+            case TAG_STRING: {
+                in.skipBytes(in.readUnsignedShort());
+                break;
+            }
+            case TAG_LIST: {
+                int elementType = in.readUnsignedByte();
+                int length = readLength(in, 1);
+                for (int index = 0; index < length; ++index) skipPayload(in, elementType);
+                break;
+            }
+            case TAG_COMPOUND: {
+                int elementType;
+                while ((elementType = in.readUnsignedByte()) != TAG_END) {
+                    in.skipBytes(in.readUnsignedShort());
+                    skipPayload(in, elementType);
+                }
+                break;
+            }
+            case TAG_INT_ARRAY: {
+                in.skipBytes(readLength(in, 4) * 4);
+                break;
+            }
+            case TAG_LONG_ARRAY: {
+                in.skipBytes(readLength(in, 8) * 8);
+                break;
+            }
+            default: {
+                throw new IOException("Invalid NBT tag type: " + type);
+            }
+        }
+    }
+
+    private int readLength(ByteBuf in, int elementSize) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.readableBytes() / elementSize) throw new IOException("Invalid NBT length: " + length);
+        return length;
+    }
+
+    private ByteBuf getSlice(ByteBuf slice) {
+        if (slice == null) throw new IllegalStateException("Chunk data packet has already been released.");
+        return slice;
+    }
+
     @Override
     public void write(NetOutput out) throws IOException {
         ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
@@ -66,6 +287,58 @@ public class ServerChunkDataPacket extends MinecraftPacket {
         }
     }
 
+    /* ------------------------------ Tile entities ------------------------------ */
+
+    /**
+     * Visits the tile entities in this chunk that have an ID and a position, without materialising their tags.
+     * @param ids Only visit tile entities with these IDs, null for all.
+     * @param visitor The visitor.
+     * @throws IOException If the tile entity NBT is malformed.
+     * @throws IllegalStateException If the packet was decoded lazily and has already been released.
+     */
+    public void scanTileEntities(Collection<String> ids, TileEntityVisitor visitor) throws IOException {
+        if (!sliced) { // Decoded eagerly
+            if (tileEntities == null) return;
+            for (CompoundTag tileEntity : tileEntities) {
+                if (tileEntity == null || !tileEntity.contains("id") || !tileEntity.contains("x") ||
+                        !tileEntity.contains("y") || !tileEntity.contains("z")) continue;
+                String id = (String)tileEntity.get("id").getValue();
+                if (ids == null || ids.contains(id))
+                    visitor.visit(
+                            id,
+                            (int)tileEntity.get("x").getValue(),
+                            (int)tileEntity.get("y").getValue(),
+                            (int)tileEntity.get("z").getValue()
+                    );
+            }
+            return;
+        }
+
+        if (tileEntityIDs == null) scan();
+        for (int index = 0; index < tileEntityCount; ++index) {
+            String id = tileEntityIDs[index];
+            if (id == null || !tileEntityHasPosition[index] || (ids != null && !ids.contains(id))) continue;
+            visitor.visit(
+                    id,
+                    tileEntityPositions[index * 3],
+                    tileEntityPositions[index * 3 + 1],
+                    tileEntityPositions[index * 3 + 2]
+            );
+        }
+    }
+
+    public int getTileEntityCount() {
+        return tileEntities != null ? tileEntities.length : tileEntityCount;
+    }
+
+    /**
+     * Visits tile entities, see {@link #scanTileEntities(Collection, TileEntityVisitor)}.
+     */
+    @FunctionalInterface
+    public interface TileEntityVisitor {
+        void visit(String id, int x, int y, int z);
+    }
+
     /* ------------------------------ Getters ------------------------------ */
 
     public int getX() {
@@ -84,21 +357,40 @@ public class ServerChunkDataPacket extends MinecraftPacket {
         return chunkMask;
     }
 
-    public CompoundTag[] getTileEntities() {
+    /**
+     * @return The tile entity tags, these are materialised on the first call if decoded lazily.
+     * @throws IOException If the tile entity NBT is malformed.
+     * @throws IllegalStateException If the packet was decoded lazily and has already been released.
+     */
+    public CompoundTag[] getTileEntities() throws IOException {
+        if (tileEntities == null && sliced) {
+            CompoundTag[] tileEntities = new CompoundTag[tileEntityCount];
+            NetInput in = new ByteBufNetInput(getSlice(tileEntitySlice).duplicate());
+            for (int index = 0; index < tileEntityCount; ++index) tileEntities[index] = NetUtil.readNBT(in);
+            this.tileEntities = tileEntities;
+        }
         return tileEntities;
     }
 
+    /**
+     * @return The column data, this is copied out of the frame on the first call if decoded lazily.
+     * @throws IllegalStateException If the packet was decoded lazily and has already been released.
+     */
     public byte[] getData() {
+        if (data == null && sliced) {
+            ByteBuf slice = getSlice(dataSlice);
+            byte[] data = new byte[slice.readableBytes()];
+            slice.getBytes(slice.readerIndex(), data);
+            this.data = data;
+        }
         return data;
     }
 
-    public Column getColumn() {
-        if (column == null) {
-            try {
-                column = NetUtil.readColumn(data, x, z, fullChunk, false, chunkMask, tileEntities);
-            } catch (IOException ignored) {
-            }
-        }
+    /**
+     * @throws IOException If the column data or the tile entity NBT is malformed.
+     */
+    public Column getColumn() throws IOException {
+        if (column == null) column = NetUtil.readColumn(getData(), x, z, fullChunk, false, chunkMask, getTileEntities());
         return this.column;
     }
 }
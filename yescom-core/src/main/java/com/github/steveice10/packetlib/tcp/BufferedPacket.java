@@ -0,0 +1,26 @@
+package com.github.steveice10.packetlib.tcp;
+
+import com.github.steveice10.packetlib.io.NetInput;
+import com.github.steveice10.packetlib.packet.Packet;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
+/**
+ * A packet that can keep retained slices of the frame it was read from, rather than copying out of it. The packet is
+ * released once its {@link com.github.steveice10.packetlib.event.session.PacketReceivedEvent} has been handled, so
+ * listeners must not hold on to it after that.
+ */
+public interface BufferedPacket extends Packet {
+    /**
+     * Reads the packet, used by {@link TcpPacketCodec} instead of {@link #read(NetInput)}.
+     * @param in The input, reading from the frame.
+     * @param buf The frame, slices of it can be retained until {@link #release()}.
+     */
+    public void read(NetInput in, ByteBuf buf) throws IOException;
+
+    /**
+     * Releases any slices that were retained while reading. Can be called more than once.
+     */
+    public void release();
+}
@@ -0,0 +1,481 @@
+package com.github.steveice10.packetlib.tcp;
+
+import com.github.steveice10.packetlib.event.session.PacketReceivedEvent;
+import com.github.steveice10.packetlib.packet.Packet;
+
+import java.lang.reflect.Method;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands decoded packets from the channel's event loop to the session's listeners. Replaces the blocking queue and
+ * dedicated thread that each session used to have.
+ */
+public abstract class PacketHandoff {
+    private static final Method OF_VIRTUAL;
+    private static final Method UNSTARTED;
+
+    static {
+        Method ofVirtual = null;
+        Method unstarted = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+        } catch(Throwable ignored) { // Not running on a JVM with virtual threads
+        }
+
+        OF_VIRTUAL = ofVirtual;
+        UNSTARTED = unstarted;
+    }
+
+    /**
+     * Creates a handoff for the given session.
+     * @param mode How packets should be handed off.
+     * @param session The session.
+     * @param capacity The capacity of the ring, rounded up to a power of two, unused for {@link Mode#INLINE}.
+     */
+    public static PacketHandoff create(Mode mode, TcpSession session, int capacity) {
+        switch(mode) {
+            case INLINE:
+                return new Inline(session);
+            case VIRTUAL_THREAD:
+                return new Ring(session, capacity, true);
+            case RING:
+            default:
+                return new Ring(session, capacity, false);
+        }
+    }
+
+    /**
+     * @return The mode to use if none is given, virtual threads if the JVM supports them, otherwise inline, so that no
+     *         platform thread is started per session.
+     */
+    public static Mode getDefaultMode() {
+        return isVirtualThreadSupported() ? Mode.VIRTUAL_THREAD : Mode.INLINE;
+    }
+
+    /**
+     * @return Can virtual threads be used on this JVM?
+     */
+    public static boolean isVirtualThreadSupported() {
+        return OF_VIRTUAL != null && UNSTARTED != null;
+    }
+
+    protected final TcpSession session;
+
+    // Only written by the delivering thread
+    private volatile long delivered = 0;
+    private volatile double averageLatency = 0.0;
+    private volatile long maxLatency = 0;
+
+    private volatile int maxDepth = 0;
+
+    protected PacketHandoff(TcpSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Starts delivering packets, called once the channel is active.
+     */
+    public abstract void start();
+
+    /**
+     * Stops delivering packets, any that haven't been delivered yet are dropped (and released).
+     */
+    public abstract void stop();
+
+    /**
+     * Offers a decoded packet, called on the channel's event loop.
+     */
+    public abstract void offer(Packet packet);
+
+    /**
+     * @return The strategy used by this handoff.
+     */
+    public abstract Mode getMode();
+
+    /**
+     * @return The number of packets waiting to be delivered.
+     */
+    public abstract int getDepth();
+
+    /**
+     * @return The highest number of packets that have been waiting to be delivered at once.
+     */
+    public int getMaxDepth() {
+        return this.maxDepth;
+    }
+
+    /**
+     * @return The total number of packets delivered to the listeners.
+     */
+    public long getDelivered() {
+        return this.delivered;
+    }
+
+    /**
+     * @return The average time between a packet being offered and it being delivered, in nanoseconds.
+     */
+    public double getAverageLatency() {
+        return this.averageLatency;
+    }
+
+    /**
+     * @return The longest time between a packet being offered and it being delivered, in nanoseconds.
+     */
+    public long getMaxLatency() {
+        return this.maxLatency;
+    }
+
+    /**
+     * @return The number of packets that didn't fit in the ring, and had to be queued while reading was paused.
+     */
+    public long getOverflowed() {
+        return 0;
+    }
+
+    /**
+     * @return Are the packets being delivered on a virtual thread?
+     */
+    public boolean isOnVirtualThread() {
+        return false;
+    }
+
+    protected void updateDepth(int depth) {
+        if(depth > this.maxDepth) {
+            this.maxDepth = depth;
+        }
+    }
+
+    protected void deliver(Packet packet, long offerTime) {
+        long latency = System.nanoTime() - offerTime;
+        this.averageLatency = this.averageLatency * 0.99 + latency * 0.01;
+        if(latency > this.maxLatency) {
+            this.maxLatency = latency;
+        }
+        ++this.delivered;
+
+        try {
+            this.session.callEvent(new PacketReceivedEvent(this.session, packet));
+        } finally {
+            release(packet);
+        }
+    }
+
+    /**
+     * Releases a packet once it's been handled, or if it's being dropped, see {@link BufferedPacket}.
+     */
+    static void release(Packet packet) {
+        if(packet instanceof BufferedPacket) {
+            ((BufferedPacket) packet).release();
+        }
+    }
+
+    /**
+     * How packets are handed off.
+     */
+    public enum Mode {
+        /**
+         * Packets are delivered directly on the event loop, so listeners must not block.
+         */
+        INLINE,
+        /**
+         * Packets are queued in a bounded lock-free ring, and delivered on a platform thread per session.
+         */
+        RING,
+        /**
+         * Same as {@link #RING}, but delivered on a virtual thread, if the JVM supports them.
+         */
+        VIRTUAL_THREAD
+    }
+
+    /* ------------------------------ Strategies ------------------------------ */
+
+    private static final class Inline extends PacketHandoff {
+        private Inline(TcpSession session) {
+            super(session);
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void offer(Packet packet) {
+            this.deliver(packet, System.nanoTime());
+        }
+
+        @Override
+        public Mode getMode() {
+            return Mode.INLINE;
+        }
+
+        @Override
+        public int getDepth() {
+            return 0;
+        }
+    }
+
+    /**
+     * A bounded multi-producer, single-consumer ring. If the ring fills up, reading from the channel is paused and the
+     * packets that were already decoded are kept in an overflow queue, so that nothing is dropped and order is kept.
+     */
+    private static final class Ring extends PacketHandoff {
+        private final boolean virtual;
+
+        private final int mask;
+        private final Packet[] packets;
+        private final long[] offerTimes;
+        private final AtomicLongArray sequences; // Publishes the slots, see Vyukov's bounded queue
+        private final AtomicLong tail = new AtomicLong();
+        private volatile long head = 0;
+
+        private final Queue<Overflowed> overflow = new ConcurrentLinkedQueue<Overflowed>();
+        private final AtomicInteger overflowSize = new AtomicInteger();
+        private final AtomicBoolean paused = new AtomicBoolean();
+        private volatile boolean overflowing = false; // Only written by the producer
+        private volatile long overflowed = 0;
+
+        private Thread consumer;
+        private boolean onVirtualThread = false;
+        private volatile boolean running = false;
+        private volatile boolean waiting = false;
+
+        private Ring(TcpSession session, int capacity, boolean virtual) {
+            super(session);
+            this.virtual = virtual;
+
+            int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+            this.mask = size - 1;
+            this.packets = new Packet[size];
+            this.offerTimes = new long[size];
+            this.sequences = new AtomicLongArray(size);
+            for(int index = 0; index < size; index++) {
+                this.sequences.set(index, index);
+            }
+        }
+
+        @Override
+        public void start() {
+            Runnable drain = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        drain();
+                    } catch(Throwable t) {
+                        session.exceptionCaught(null, t);
+                    }
+                }
+            };
+
+            this.running = true;
+            this.consumer = this.virtual ? newVirtualThread(drain) : null;
+            this.onVirtualThread = this.consumer != null;
+            if(this.consumer == null) {
+                this.consumer = new Thread(drain);
+            }
+            this.consumer.setName("packet-handoff-" + this.session.getHost());
+            this.consumer.start();
+        }
+
+        @Override
+        public void stop() {
+            this.running = false;
+            if(this.consumer != null) {
+                LockSupport.unpark(this.consumer);
+            }
+        }
+
+        @Override
+        public void offer(Packet packet) {
+            long offerTime = System.nanoTime();
+
+            // Once we've overflowed, keep using the overflow until the consumer has emptied it, so that order is kept.
+            // This relies on there being a single producer, the channel's event loop.
+            if(this.overflowing) {
+                if(this.overflow.isEmpty()) {
+                    this.overflowing = false;
+                } else {
+                    this.addOverflow(packet, offerTime);
+                    return;
+                }
+            }
+
+            if(!this.offerRing(packet, offerTime)) {
+                this.overflowing = true;
+                this.addOverflow(packet, offerTime);
+                return;
+            }
+
+            this.updateDepth(this.getDepth());
+            if(this.waiting) {
+                LockSupport.unpark(this.consumer);
+            }
+        }
+
+        @Override
+        public Mode getMode() {
+            return this.virtual ? Mode.VIRTUAL_THREAD : Mode.RING;
+        }
+
+        @Override
+        public int getDepth() {
+            return (int) (this.tail.get() - this.head) + this.overflowSize.get();
+        }
+
+        @Override
+        public boolean isOnVirtualThread() {
+            return this.onVirtualThread;
+        }
+
+        @Override
+        public long getOverflowed() {
+            return this.overflowed;
+        }
+
+        private boolean offerRing(Packet packet, long offerTime) {
+            long position;
+            int index;
+            while(true) {
+                position = this.tail.get();
+                index = (int) (position & this.mask);
+                long sequence = this.sequences.get(index);
+                if(sequence == position) {
+                    if(this.tail.compareAndSet(position, position + 1)) {
+                        break;
+                    }
+                } else if(sequence < position) { // Consumer hasn't freed this slot yet, so we're full
+                    return false;
+                }
+            }
+
+            this.packets[index] = packet;
+            this.offerTimes[index] = offerTime;
+            this.sequences.set(index, position + 1);
+            return true;
+        }
+
+        private void addOverflow(Packet packet, long offerTime) {
+            // Pause before adding, so that the consumer can't miss the pause and leave the channel paused forever
+            if(this.paused.compareAndSet(false, true)) {
+                this.updateAutoRead();
+            }
+
+            this.overflow.add(new Overflowed(packet, offerTime));
+            this.overflowSize.incrementAndGet();
+            ++this.overflowed;
+
+            this.updateDepth(this.getDepth());
+            if(this.waiting) {
+                LockSupport.unpark(this.consumer);
+            }
+        }
+
+        private synchronized void updateAutoRead() {
+            // Both threads can get here at once, so always apply the latest state rather than what they each saw
+            this.session.setAutoRead(!this.paused.get());
+        }
+
+        private void drain() {
+            while(this.running) {
+                if(!this.poll()) {
+                    // Producer checks this after publishing, so one of us will always see the other
+                    this.waiting = true;
+                    if(!this.poll() && this.running) {
+                        LockSupport.park(this);
+                    }
+                    this.waiting = false;
+                }
+            }
+
+            this.discard();
+        }
+
+        /**
+         * Releases the packets that were dropped when we stopped.
+         */
+        private void discard() {
+            while(true) {
+                long position = this.head;
+                int index = (int) (position & this.mask);
+                if(this.sequences.get(index) != position + 1) {
+                    break;
+                }
+
+                release(this.packets[index]);
+                this.packets[index] = null;
+                this.sequences.set(index, position + this.mask + 1);
+                this.head = position + 1;
+            }
+
+            Overflowed overflowed;
+            while((overflowed = this.overflow.poll()) != null) {
+                this.overflowSize.decrementAndGet();
+                release(overflowed.packet);
+            }
+        }
+
+        /**
+         * Delivers the next packet, the ring is always emptied before the overflow, as it only holds older packets.
+         * @return Was there a packet to deliver?
+         */
+        private boolean poll() {
+            long position = this.head;
+            int index = (int) (position & this.mask);
+            if(this.sequences.get(index) == position + 1) {
+                Packet packet = this.packets[index];
+                long offerTime = this.offerTimes[index];
+                this.packets[index] = null;
+                this.sequences.set(index, position + this.mask + 1);
+                this.head = position + 1;
+
+                this.deliver(packet, offerTime);
+                return true;
+            }
+
+            Overflowed overflowed = this.overflow.poll();
+            if(overflowed != null) {
+                this.overflowSize.decrementAndGet();
+                if(this.overflow.isEmpty() && this.paused.compareAndSet(true, false)) {
+                    this.updateAutoRead();
+                }
+
+                this.deliver(overflowed.packet, overflowed.offerTime);
+                return true;
+            }
+
+            return false;
+        }
+
+        private static Thread newVirtualThread(Runnable runnable) {
+            if(!isVirtualThreadSupported()) {
+                return null;
+            }
+
+            try {
+                return (Thread) UNSTARTED.invoke(OF_VIRTUAL.invoke(null), runnable);
+            } catch(Throwable t) {
+                return null;
+            }
+        }
+    }
+
+    private static final class Overflowed {
+        private final Packet packet;
+        private final long offerTime;
+
+        private Overflowed(Packet packet, long offerTime) {
+            this.packet = packet;
+            this.offerTime = offerTime;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.steveice10.packetlib.tcp;
+
+import com.github.steveice10.packetlib.io.NetInput;
+import com.github.steveice10.packetlib.io.NetOutput;
+import com.github.steveice10.packetlib.packet.Packet;
+
+import java.io.IOException;
+
+/**
+ * An outgoing packet whose body has already been encoded, it stands in for a packet of another class. The codec writes
+ * the ID of that class followed by the body, without going through {@link Packet#write(NetOutput)}.
+ */
+public abstract class PreEncodedPacket implements Packet {
+
+    private final Class<? extends Packet> packetClass;
+    protected final byte[] body;
+
+    protected PreEncodedPacket(Class<? extends Packet> packetClass, byte[] body) {
+        this.packetClass = packetClass;
+        this.body = body;
+    }
+
+    /**
+     * Called by the session once the packet has been written and the sent event has been called, or if it was never
+     * written. The packet may be reused after this.
+     */
+    public void release() {
+    }
+
+    @Override
+    public void read(NetInput in) throws IOException {
+        throw new UnsupportedOperationException("Pre-encoded packets are outgoing only.");
+    }
+
+    @Override
+    public void write(NetOutput out) throws IOException {
+        out.writeBytes(this.body);
+    }
+
+    @Override
+    public boolean isPriority() {
+        return false;
+    }
+
+    /* ------------------------------ Getters ------------------------------ */
+
+    /**
+     * @return The class of the packet that this stands in for.
+     */
+    public Class<? extends Packet> getPacketClass() {
+        return this.packetClass;
+    }
+
+    public byte[] getBody() {
+        return this.body;
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.steveice10.packetlib.tcp;
+
+import com.github.steveice10.packetlib.io.NetInput;
+import com.github.steveice10.packetlib.io.NetOutput;
+import com.github.steveice10.packetlib.packet.Packet;
+
+import java.io.IOException;
+
+/**
+ * A packet that was skipped by selective decoding, kept as its ID and undecoded body.
+ */
+public class RawPacket implements Packet {
+
+    private int id;
+    private byte[] data;
+
+    @SuppressWarnings("unused")
+    private RawPacket() {
+    }
+
+    public RawPacket(int id, byte[] data) {
+        this.id = id;
+        this.data = data;
+    }
+
+    @Override
+    public void read(NetInput in) throws IOException {
+        throw new UnsupportedOperationException("Raw packets are created by the codec.");
+    }
+
+    @Override
+    public void write(NetOutput out) throws IOException {
+        out.writeBytes(this.data);
+    }
+
+    @Override
+    public boolean isPriority() {
+        return false;
+    }
+
+    /* ------------------------------ Getters ------------------------------ */
+
+    public int getId() {
+        return this.id;
+    }
+
+    public byte[] getData() {
+        return this.data;
+    }
+}
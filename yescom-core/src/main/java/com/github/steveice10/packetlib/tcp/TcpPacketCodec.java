@@ -0,0 +1,149 @@
+package com.github.steveice10.packetlib.tcp;
+
+import com.github.steveice10.packetlib.Session;
+import com.github.steveice10.packetlib.event.session.PacketReceivedEvent;
+import com.github.steveice10.packetlib.io.NetInput;
+import com.github.steveice10.packetlib.io.NetOutput;
+import com.github.steveice10.packetlib.packet.Packet;
+import com.github.steveice10.packetlib.tcp.io.ByteBufNetInput;
+import com.github.steveice10.packetlib.tcp.io.ByteBufNetOutput;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageCodec;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Skips packets that the session isn't interested in, see {@link TcpSession#setInterests(java.util.Collection)}, and
+ * writes {@link PreEncodedPacket}s without encoding them again.
+ */
+public class TcpPacketCodec extends ByteToMessageCodec<Packet> {
+    private static final byte UNKNOWN = 0;
+    private static final byte DECODE = 1;
+    private static final byte SKIP = 2;
+
+    private Session session;
+
+    // Encoded packet IDs of the classes that pre-encoded packets stand in for, only used on the event loop
+    private final Map<Class<?>, byte[]> encodedIds = new HashMap<Class<?>, byte[]>();
+
+    // Whether to decode each packet ID, so that we only need to look up the class of a packet once
+    private final byte[] decisions = new byte[256];
+    private int decisionsVersion = -1;
+
+    public TcpPacketCodec(Session session) {
+        this.session = session;
+    }
+
+    @Override
+    public void encode(ChannelHandlerContext ctx, Packet packet, ByteBuf buf) throws Exception {
+        if(packet instanceof PreEncodedPacket) {
+            PreEncodedPacket preEncoded = (PreEncodedPacket) packet;
+            buf.writeBytes(this.getEncodedId(preEncoded.getPacketClass()));
+            buf.writeBytes(preEncoded.getBody());
+            return;
+        }
+
+        NetOutput out = new ByteBufNetOutput(buf);
+        this.session.getPacketProtocol().getPacketHeader().writePacketId(out, this.session.getPacketProtocol().getOutgoingId(packet.getClass()));
+        packet.write(out);
+    }
+
+    private byte[] getEncodedId(Class<? extends Packet> packetClass) throws IOException {
+        byte[] encodedId = this.encodedIds.get(packetClass);
+        if(encodedId == null) {
+            ByteBuf buf = Unpooled.buffer(5);
+            this.session.getPacketProtocol().getPacketHeader().writePacketId(new ByteBufNetOutput(buf), this.session.getPacketProtocol().getOutgoingId(packetClass));
+            encodedId = new byte[buf.readableBytes()];
+            buf.readBytes(encodedId);
+            this.encodedIds.put(packetClass, encodedId);
+        }
+
+        return encodedId;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf buf, List<Object> out) throws Exception {
+        int initial = buf.readerIndex();
+        NetInput in = new ByteBufNetInput(buf);
+        int id = this.session.getPacketProtocol().getPacketHeader().readPacketId(in);
+        if(id == -1) {
+            buf.readerIndex(initial);
+            return;
+        }
+
+        TcpSession tcpSession = this.session instanceof TcpSession ? (TcpSession) this.session : null;
+        if(tcpSession != null && tcpSession.isSelectiveDecoding() && this.shouldSkip(tcpSession, id)) {
+            if(tcpSession.isSurfaceSkipped()) {
+                byte[] data = new byte[buf.readableBytes()];
+                buf.readBytes(data);
+                out.add(new RawPacket(id, data));
+            } else {
+                buf.skipBytes(buf.readableBytes());
+            }
+
+            tcpSession.onPacketSkipped();
+            return;
+        }
+
+        Packet packet = this.session.getPacketProtocol().createIncomingPacket(id);
+        if(packet instanceof BufferedPacket) {
+            try {
+                ((BufferedPacket) packet).read(in, buf);
+                if(buf.readableBytes() > 0) {
+                    throw new IllegalStateException("Packet \"" + packet.getClass().getSimpleName() + "\" not fully read.");
+                }
+            } catch(Throwable t) {
+                ((BufferedPacket) packet).release();
+                throw t;
+            }
+        } else {
+            packet.read(in);
+            if(buf.readableBytes() > 0) {
+                throw new IllegalStateException("Packet \"" + packet.getClass().getSimpleName() + "\" not fully read.");
+            }
+        }
+
+        if(tcpSession != null) {
+            tcpSession.onPacketDecoded();
+        }
+
+        if(packet.isPriority()) {
+            try {
+                this.session.callEvent(new PacketReceivedEvent(this.session, packet));
+            } finally {
+                PacketHandoff.release(packet); // Not handed off, so it's been handled now
+            }
+        }
+
+        out.add(packet);
+    }
+
+    /**
+     * Also used by {@link TcpPacketCompression}, so that it can drop frames without inflating them.
+     */
+    boolean shouldSkip(TcpSession session, int id) {
+        if(id < 0 || id >= this.decisions.length) {
+            return false;
+        }
+
+        int version = session.getInterestVersion();
+        if(version != this.decisionsVersion) {
+            Arrays.fill(this.decisions, UNKNOWN);
+            this.decisionsVersion = version;
+        }
+
+        if(this.decisions[id] == UNKNOWN) {
+            // Only instantiated to find out the class, the first time we see this ID
+            Class<?> packetClass = session.getPacketProtocol().createIncomingPacket(id).getClass();
+            this.decisions[id] = session.isInterested(packetClass) ? DECODE : SKIP;
+        }
+
+        return this.decisions[id] == SKIP;
+    }
+}
@@ -0,0 +1,248 @@
+package com.github.steveice10.packetlib.tcp;
+
+import com.github.steveice10.packetlib.Session;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageCodec;
+import io.netty.handler.codec.DecoderException;
+
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses and decompresses packets with zlib. The {@link Inflater}s and {@link Deflater}s are shared by every session
+ * on the same event loop thread, rather than each session having its own, and work on the buffers directly, rather than
+ * copying them to heap arrays. With selective decoding, only the start of a frame is inflated to find the packet ID, and
+ * the rest of the frame is dropped if the packet would be skipped anyway.
+ */
+public class TcpPacketCompression extends ByteToMessageCodec<ByteBuf> {
+    private static final int MAX_COMPRESSED_SIZE = 2097152;
+    private static final int PEEK_SIZE = 5; // Longest packet ID varint
+    private static final int DEFLATE_CHUNK = 8192;
+
+    private static final ThreadLocal<Zlib> ZLIB = new ThreadLocal<Zlib>() {
+        @Override
+        protected Zlib initialValue() {
+            return new Zlib();
+        }
+    };
+
+    private Session session;
+    private TcpPacketCodec codec;
+
+    // Only written on the channel's event loop
+    private volatile long framesInflated = 0;
+    private volatile long framesSkipped = 0;
+    private volatile long bytesInflated = 0;
+    private volatile long bytesSkipped = 0;
+    private volatile long inflateTime = 0;
+
+    public TcpPacketCompression(Session session) {
+        this.session = session;
+    }
+
+    @Override
+    public void encode(ChannelHandlerContext ctx, ByteBuf in, ByteBuf out) throws Exception {
+        int readable = in.readableBytes();
+        if(readable < this.session.getCompressionThreshold()) {
+            writeVarInt(out, 0);
+            out.writeBytes(in);
+            return;
+        }
+
+        writeVarInt(out, readable);
+        Deflater deflater = ZLIB.get().deflater;
+        try {
+            deflater.setInput(in.nioBuffer());
+            deflater.finish();
+            while(!deflater.finished()) {
+                out.ensureWritable(DEFLATE_CHUNK);
+                int written = deflater.deflate(out.nioBuffer(out.writerIndex(), out.writableBytes()));
+                out.writerIndex(out.writerIndex() + written);
+            }
+
+            in.skipBytes(readable);
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf buf, List<Object> out) throws Exception {
+        if(buf.readableBytes() == 0) {
+            return;
+        }
+
+        int size = readVarInt(buf);
+        if(size == 0) {
+            out.add(buf.readRetainedSlice(buf.readableBytes()));
+            return;
+        }
+
+        if(size < this.session.getCompressionThreshold()) {
+            throw new DecoderException("Badly compressed packet: size of " + size + " is below threshold of " + this.session.getCompressionThreshold() + ".");
+        }
+
+        if(size > MAX_COMPRESSED_SIZE) {
+            throw new DecoderException("Badly compressed packet: size of " + size + " is larger than protocol maximum of " + MAX_COMPRESSED_SIZE + ".");
+        }
+
+        long start = System.nanoTime();
+        Zlib zlib = ZLIB.get();
+        Inflater inflater = zlib.inflater;
+        ByteBuf inflated = null;
+        try {
+            inflater.setInput(buf.nioBuffer());
+
+            int peeked = 0;
+            TcpSession tcpSession = this.session instanceof TcpSession ? (TcpSession) this.session : null;
+            if(tcpSession != null && tcpSession.isSelectiveDecoding() && !tcpSession.isSurfaceSkipped() && this.getCodec(ctx) != null) {
+                int wanted = Math.min(PEEK_SIZE, size);
+                while(peeked < wanted) {
+                    int read = inflater.inflate(zlib.peek, peeked, wanted - peeked);
+                    if(read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    peeked += read;
+                }
+
+                int id = readVarInt(zlib.peek, peeked);
+                if(id >= 0 && this.codec.shouldSkip(tcpSession, id)) {
+                    buf.skipBytes(buf.readableBytes());
+                    tcpSession.onPacketSkipped();
+                    ++this.framesSkipped;
+                    this.bytesSkipped += size;
+                    return;
+                }
+            }
+
+            inflated = ctx.alloc().directBuffer(size, size);
+            inflated.writeBytes(zlib.peek, 0, peeked);
+            while(inflated.isWritable()) {
+                int read = inflater.inflate(inflated.nioBuffer(inflated.writerIndex(), inflated.writableBytes()));
+                if(read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated.writerIndex(inflated.writerIndex() + read);
+            }
+
+            if(inflated.readableBytes() != size) {
+                throw new DecoderException("Badly compressed packet: expected " + size + " bytes, inflated " + inflated.readableBytes() + ".");
+            }
+
+            buf.skipBytes(buf.readableBytes());
+            out.add(inflated);
+            inflated = null;
+
+            ++this.framesInflated;
+            this.bytesInflated += size;
+        } catch(DataFormatException e) {
+            throw new DecoderException("Badly compressed packet.", e);
+        } finally {
+            if(inflated != null) {
+                inflated.release();
+            }
+
+            inflater.reset();
+            this.inflateTime += System.nanoTime() - start;
+        }
+    }
+
+    private TcpPacketCodec getCodec(ChannelHandlerContext ctx) {
+        if(this.codec == null) {
+            this.codec = ctx.pipeline().get(TcpPacketCodec.class);
+        }
+
+        return this.codec;
+    }
+
+    /* ------------------------------ Getters ------------------------------ */
+
+    /**
+     * @return The number of compressed frames that were fully inflated.
+     */
+    public long getFramesInflated() {
+        return this.framesInflated;
+    }
+
+    /**
+     * @return The number of compressed frames that were dropped after only inflating the packet ID.
+     */
+    public long getFramesSkipped() {
+        return this.framesSkipped;
+    }
+
+    /**
+     * @return The total uncompressed size of the frames that were fully inflated.
+     */
+    public long getBytesInflated() {
+        return this.bytesInflated;
+    }
+
+    /**
+     * @return The total uncompressed size of the frames that were dropped, which we didn't have to inflate.
+     */
+    public long getBytesSkipped() {
+        return this.bytesSkipped;
+    }
+
+    /**
+     * @return The total time spent decompressing, in nanoseconds.
+     */
+    public long getInflateTime() {
+        return this.inflateTime;
+    }
+
+    /* ------------------------------ VarInts ------------------------------ */
+
+    private static int readVarInt(ByteBuf buf) {
+        int value = 0;
+        int size = 0;
+        int b;
+        do {
+            if(size >= 5) {
+                throw new DecoderException("VarInt too long.");
+            }
+
+            b = buf.readByte();
+            value |= (b & 0x7F) << (size++ * 7);
+        } while((b & 0x80) == 0x80);
+
+        return value;
+    }
+
+    /**
+     * @return The VarInt at the start of the array, -1 if it isn't complete.
+     */
+    private static int readVarInt(byte[] bytes, int length) {
+        int value = 0;
+        for(int index = 0; index < length && index < 5; index++) {
+            value |= (bytes[index] & 0x7F) << (index * 7);
+            if((bytes[index] & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        return -1;
+    }
+
+    private static void writeVarInt(ByteBuf buf, int value) {
+        while((value & ~0x7F) != 0) {
+            buf.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        buf.writeByte(value);
+    }
+
+    /**
+     * The zlib state for one event loop thread.
+     */
+    private static final class Zlib {
+        private final Inflater inflater = new Inflater();
+        private final Deflater deflater = new Deflater();
+        private final byte[] peek = new byte[PEEK_SIZE];
+    }
+}
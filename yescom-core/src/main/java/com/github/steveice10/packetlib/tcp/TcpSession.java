@@ -4,7 +4,6 @@ import com.github.steveice10.packetlib.Session;
 import com.github.steveice10.packetlib.event.session.ConnectedEvent;
 import com.github.steveice10.packetlib.event.session.DisconnectedEvent;
 import com.github.steveice10.packetlib.event.session.DisconnectingEvent;
-import com.github.steveice10.packetlib.event.session.PacketReceivedEvent;
 import com.github.steveice10.packetlib.event.session.PacketSendingEvent;
 import com.github.steveice10.packetlib.event.session.PacketSentEvent;
 import com.github.steveice10.packetlib.event.session.SessionEvent;
@@ -26,12 +25,16 @@ import io.netty.handler.timeout.WriteTimeoutHandler;
 import java.net.ConnectException;
 import java.net.SocketAddress;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> implements Session {
     private String host;
@@ -49,8 +52,38 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
     private Channel channel;
     protected boolean disconnected = false;
 
-    private BlockingQueue<Packet> packets = new LinkedBlockingQueue<Packet>();
-    private Thread packetHandleThread;
+    private PacketHandoff.Mode handoffMode = PacketHandoff.getDefaultMode();
+    private int handoffCapacity = 4096;
+    private volatile PacketHandoff handoff;
+
+    // Write batching, writes made inside a batch are only flushed when the outermost batch ends
+    private final ThreadLocal<int[]> batchDepth = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private volatile boolean writeBatching = false;
+    private volatile int maxBatchSize = 64;
+    private volatile long batchStartTime = 0;
+    private volatile double averageBatchLatency = 0.0;
+    private volatile long maxBatchLatency = 0;
+
+    // Selective decoding, packets that no one is interested in are skipped by the codec rather than decoded. The
+    // interests are replaced as a whole before the version is incremented, so the codec's cached decisions for a
+    // version are never made with older interests.
+    private volatile Set<Class<? extends Packet>> interests = Collections.emptySet();
+    private volatile int interestVersion = 0;
+    private volatile boolean selectiveDecoding = false;
+    private volatile boolean surfaceSkipped = false;
+
+    // Only written by the codec, on the channel's event loop
+    private volatile long packetsDecoded = 0;
+    private volatile long packetsSkipped = 0;
+    private volatile long lastSkippedTime = 0;
 
     public TcpSession(String host, int port, PacketProtocol protocol) {
         this.host = host;
@@ -167,6 +200,14 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
         }
     }
 
+    /**
+     * @return The compression handler, for its metrics, null if compression isn't enabled.
+     */
+    public TcpPacketCompression getCompression() {
+        Channel channel = this.channel;
+        return channel != null ? channel.pipeline().get(TcpPacketCompression.class) : null;
+    }
+
     @Override
     public int getConnectTimeout() {
         return this.connectTimeout;
@@ -207,6 +248,7 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
     @Override
     public void send(Packet packet) {
         if(this.channel == null) {
+            this.release(packet);
             return;
         }
 
@@ -215,17 +257,38 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
 
         if(!sendingEvent.isCancelled()) {
             final Packet toSend = sendingEvent.getPacket();
-
-            ChannelFuture future = this.channel.writeAndFlush(toSend).addListener(new ChannelFutureListener() {
+            ChannelFutureListener listener = new ChannelFutureListener() {
                 @Override
                 public void operationComplete(ChannelFuture future) throws Exception {
-                    if(future.isSuccess()) {
-                        callEvent(new PacketSentEvent(TcpSession.this, toSend));
-                    } else {
-                        exceptionCaught(null, future.cause());
+                    try {
+                        if(future.isSuccess()) {
+                            callEvent(new PacketSentEvent(TcpSession.this, toSend));
+                        } else {
+                            exceptionCaught(null, future.cause());
+                        }
+                    } finally {
+                        release(toSend); // Only once the listeners are done with it
                     }
                 }
-            });
+            };
+
+            this.writes.incrementAndGet();
+            // Priority packets are waited on below, so they can never be left sitting in a batch
+            if(!toSend.isPriority() && this.isBatching()) {
+                this.channel.write(toSend).addListener(listener);
+                int pending = this.pendingWrites.incrementAndGet();
+                if(pending == 1) {
+                    this.batchStartTime = System.nanoTime();
+                }
+                if(pending >= this.maxBatchSize) {
+                    this.flush();
+                }
+                return;
+            }
+
+            this.pendingWrites.set(0); // Anything pending goes out with this flush
+            this.flushes.incrementAndGet();
+            ChannelFuture future = this.channel.writeAndFlush(toSend).addListener(listener);
 
             if(toSend.isPriority()) {
                 try {
@@ -233,6 +296,14 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
                 } catch(InterruptedException e) {
                 }
             }
+        } else {
+            this.release(packet);
+        }
+    }
+
+    private void release(Packet packet) {
+        if(packet instanceof PreEncodedPacket) {
+            ((PreEncodedPacket) packet).release();
         }
     }
 
@@ -259,9 +330,8 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
 
         this.disconnected = true;
 
-        if(this.packetHandleThread != null) {
-            this.packetHandleThread.interrupt();
-            this.packetHandleThread = null;
+        if(this.handoff != null) {
+            this.handoff.stop();
         }
 
         if(this.channel != null && this.channel.isOpen()) {
@@ -286,6 +356,242 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
         this.channel = null;
     }
 
+    /* ------------------------------ Selective decoding ------------------------------ */
+
+    /**
+     * Sets the packet classes that the listeners of this session need. When selective decoding is enabled, any other
+     * packets are skipped without being decoded (or surfaced as a {@link RawPacket}, see {@link #setSurfaceSkipped(boolean)}).
+     * @param interests The packet classes, subclasses of these are also decoded.
+     */
+    public synchronized void setInterests(Collection<Class<? extends Packet>> interests) {
+        this.interests = Collections.unmodifiableSet(new LinkedHashSet<Class<? extends Packet>>(interests));
+        ++this.interestVersion;
+    }
+
+    public Set<Class<? extends Packet>> getInterests() {
+        return this.interests;
+    }
+
+    /**
+     * @return Should packets of the given class be decoded?
+     */
+    public boolean isInterested(Class<?> packetClass) {
+        if(!this.selectiveDecoding) {
+            return true;
+        }
+
+        for(Class<? extends Packet> interest : this.interests) {
+            if(interest.isAssignableFrom(packetClass)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Incremented every time the interests change, so that the codec knows to forget its cached decisions.
+     */
+    public int getInterestVersion() {
+        return this.interestVersion;
+    }
+
+    /**
+     * Only enable this once the session is in a state where the skipped packets can't be needed by the protocol itself
+     * (i.e. in game, as login packets are handled internally).
+     */
+    public synchronized void setSelectiveDecoding(boolean selectiveDecoding) {
+        this.selectiveDecoding = selectiveDecoding;
+        ++this.interestVersion;
+    }
+
+    public boolean isSelectiveDecoding() {
+        return this.selectiveDecoding;
+    }
+
+    /**
+     * @param surfaceSkipped Should skipped packets be passed to the listeners as {@link RawPacket}s, rather than dropped?
+     */
+    public void setSurfaceSkipped(boolean surfaceSkipped) {
+        this.surfaceSkipped = surfaceSkipped;
+    }
+
+    public boolean isSurfaceSkipped() {
+        return this.surfaceSkipped;
+    }
+
+    void onPacketDecoded() {
+        ++this.packetsDecoded;
+    }
+
+    void onPacketSkipped() {
+        ++this.packetsSkipped;
+        this.lastSkippedTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return The total number of packets that have been fully decoded.
+     */
+    public long getPacketsDecoded() {
+        return this.packetsDecoded;
+    }
+
+    /**
+     * @return The total number of packets that were skipped, as no one was interested in them.
+     */
+    public long getPacketsSkipped() {
+        return this.packetsSkipped;
+    }
+
+    /**
+     * @return The last time a packet was skipped, as the listeners won't know about it.
+     */
+    public long getLastSkippedTime() {
+        return this.lastSkippedTime;
+    }
+
+    /* ------------------------------ Write batching ------------------------------ */
+
+    /**
+     * Sets whether writes made between {@link #beginBatch()} and {@link #endBatch()} are buffered and flushed together,
+     * rather than flushed one by one (a syscall each).
+     */
+    public void setWriteBatching(boolean writeBatching) {
+        this.writeBatching = writeBatching;
+        if(!writeBatching) {
+            this.flush();
+        }
+    }
+
+    public boolean isWriteBatching() {
+        return this.writeBatching;
+    }
+
+    /**
+     * Sets the number of buffered writes at which a batch is flushed early.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    public int getMaxBatchSize() {
+        return this.maxBatchSize;
+    }
+
+    /**
+     * Starts a batch on the current thread. Batches nest, only the outermost one flushes when it ends.
+     */
+    public void beginBatch() {
+        ++this.batchDepth.get()[0];
+    }
+
+    /**
+     * Ends a batch on the current thread, flushing the buffered writes if it was the outermost one.
+     */
+    public void endBatch() {
+        int[] depth = this.batchDepth.get();
+        if(depth[0] > 0 && --depth[0] == 0) {
+            this.flush();
+        }
+    }
+
+    /**
+     * Flushes any buffered writes.
+     */
+    public void flush() {
+        int pending = this.pendingWrites.getAndSet(0);
+        Channel channel = this.channel;
+        if(pending <= 0 || channel == null) {
+            return;
+        }
+
+        channel.flush();
+        this.flushes.incrementAndGet();
+
+        long latency = System.nanoTime() - this.batchStartTime;
+        this.averageBatchLatency = this.averageBatchLatency * 0.95 + latency * 0.05;
+        if(latency > this.maxBatchLatency) {
+            this.maxBatchLatency = latency;
+        }
+    }
+
+    /**
+     * @return The total number of packets written.
+     */
+    public long getWrites() {
+        return this.writes.get();
+    }
+
+    /**
+     * @return The total number of flushes, each one is roughly a syscall.
+     */
+    public long getFlushes() {
+        return this.flushes.get();
+    }
+
+    /**
+     * @return The number of flushes saved by batching writes.
+     */
+    public long getFlushesSaved() {
+        return Math.max(0, this.writes.get() - this.flushes.get() - this.pendingWrites.get());
+    }
+
+    /**
+     * @return The average time between the first write of a batch and it being flushed, in nanoseconds.
+     */
+    public double getAverageBatchLatency() {
+        return this.averageBatchLatency;
+    }
+
+    /**
+     * @return The longest time between the first write of a batch and it being flushed, in nanoseconds.
+     */
+    public long getMaxBatchLatency() {
+        return this.maxBatchLatency;
+    }
+
+    private boolean isBatching() {
+        return this.writeBatching && this.batchDepth.get()[0] > 0;
+    }
+
+    /* ------------------------------ Packet handoff ------------------------------ */
+
+    /**
+     * Sets how decoded packets are handed to the listeners, takes effect the next time this session connects.
+     */
+    public void setHandoffMode(PacketHandoff.Mode handoffMode) {
+        this.handoffMode = handoffMode;
+    }
+
+    public PacketHandoff.Mode getHandoffMode() {
+        return this.handoffMode;
+    }
+
+    /**
+     * Sets the capacity of the handoff ring, takes effect the next time this session connects.
+     */
+    public void setHandoffCapacity(int handoffCapacity) {
+        this.handoffCapacity = handoffCapacity;
+    }
+
+    public int getHandoffCapacity() {
+        return this.handoffCapacity;
+    }
+
+    /**
+     * @return The current packet handoff, for its metrics, null if this session hasn't connected yet.
+     */
+    public PacketHandoff getHandoff() {
+        return this.handoff;
+    }
+
+    void setAutoRead(boolean autoRead) {
+        Channel channel = this.channel;
+        if(channel != null) {
+            channel.config().setAutoRead(autoRead);
+        }
+    }
+
     protected void refreshReadTimeoutHandler() {
         this.refreshReadTimeoutHandler(this.channel);
     }
@@ -336,22 +642,8 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
         this.channel = ctx.channel();
         channel.config().setOption(ChannelOption.TCP_NODELAY, true);
 
-        this.packetHandleThread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    Packet packet;
-                    while((packet = packets.take()) != null) {
-                        callEvent(new PacketReceivedEvent(TcpSession.this, packet));
-                    }
-                } catch(InterruptedException e) {
-                } catch(Throwable t) {
-                    exceptionCaught(null, t);
-                }
-            }
-        });
-
-        this.packetHandleThread.start();
+        this.handoff = PacketHandoff.create(this.handoffMode, this, this.handoffCapacity);
+        this.handoff.start();
 
         this.callEvent(new ConnectedEvent(this));
     }
@@ -381,8 +673,8 @@ public abstract class TcpSession extends SimpleChannelInboundHandler<Packet> imp
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, Packet packet) throws Exception {
-        if(!packet.isPriority()) {
-            this.packets.add(packet);
+        if(!packet.isPriority() && this.handoff != null) {
+            this.handoff.offer(packet);
         }
     }
 }
@@ -4,14 +4,19 @@ import ez.pogdog.yescom.api.Logging;
 import ez.pogdog.yescom.core.Emitters;
 import ez.pogdog.yescom.core.ITickable;
 import ez.pogdog.yescom.core.account.AccountHandler;
+import ez.pogdog.yescom.core.account.TokenCache;
 import ez.pogdog.yescom.core.config.ConfigHandler;
 import ez.pogdog.yescom.core.config.IConfig;
 import ez.pogdog.yescom.core.data.PlayersHandler;
 import ez.pogdog.yescom.core.connection.Server;
 import ez.pogdog.yescom.core.data.DataHandler;
+import ez.pogdog.yescom.core.query.TimingWheel;
 import ez.pogdog.yescom.core.query.loaded.ChunkHandler;
 import ez.pogdog.yescom.core.scanning.TaskHandler;
+import ez.pogdog.yescom.core.threads.CallbackExecutor;
 import ez.pogdog.yescom.core.threads.FastAsyncUpdater;
+import ez.pogdog.yescom.core.threads.LoginExecutor;
+import ez.pogdog.yescom.core.threads.NetworkEventLoop;
 import ez.pogdog.yescom.core.threads.SlowAsyncUpdater;
 import ez.pogdog.yescom.core.util.Bootstrap;
 import jep.Interpreter;
@@ -174,11 +179,16 @@ public class YesCom extends Thread implements IConfig {
     public final List<Server> servers = new ArrayList<>();
 
     public final AccountHandler accountHandler;
+    public final CallbackExecutor callbackExecutor;
     public final ChunkHandler chunkHandler;
     public final ConfigHandler configHandler;
     public final DataHandler dataHandler;
+    public final LoginExecutor loginExecutor;
+    public final NetworkEventLoop networkEventLoop;
     public final PlayersHandler playersHandler;
     public final TaskHandler taskHandler;
+    public final TimingWheel timingWheel;
+    public final TokenCache tokenCache;
 
     public /* final */ Interpreter python;
 
@@ -205,13 +215,23 @@ public class YesCom extends Thread implements IConfig {
         configHandler = new ConfigHandler(configDirectory);  // This stuff should be initialised first
         dataHandler = new DataHandler(dataDirectory);
 
+        tokenCache = new TokenCache(dataDirectory);
         accountHandler = new AccountHandler(accountsFile);
+        callbackExecutor = new CallbackExecutor();
+        loginExecutor = new LoginExecutor();
+        networkEventLoop = new NetworkEventLoop();
+        timingWheel = new TimingWheel(); // Before anything that might schedule timeouts
         playersHandler = new PlayersHandler();
         chunkHandler = new ChunkHandler();
         taskHandler = new TaskHandler();
 
         configHandler.addConfiguration(this);
         configHandler.addConfiguration(playersHandler);
+        configHandler.addConfiguration(chunkHandler);
+        configHandler.addConfiguration(callbackExecutor);
+        configHandler.addConfiguration(loginExecutor);
+        configHandler.addConfiguration(tokenCache);
+        configHandler.addConfiguration(networkEventLoop);
 
         try {
             dataHandler.loadDatabase();
@@ -273,6 +293,9 @@ public class YesCom extends Thread implements IConfig {
         running = false;
 
         for (Server server : servers) server.disconnectAll("Shutting down");
+        callbackExecutor.shutdown();
+        loginExecutor.shutdown();
+        networkEventLoop.shutdown();
         try {
             configHandler.saveConfiguration();
         } catch (IOException error) {
@@ -287,6 +310,16 @@ public class YesCom extends Thread implements IConfig {
         }
     }
 
+    /**
+     * Disconnects all the players on a server, and removes it. Should be called on the main thread.
+     * @param server The server to remove.
+     */
+    public void removeServer(Server server) {
+        if (!servers.remove(server)) return;
+        server.disconnectAll("Server removed", true);
+        Emitters.ON_SERVER_REMOVED.emit(server);
+    }
+
     /* ------------------------------ Setters and getters ------------------------------ */
 
     /**
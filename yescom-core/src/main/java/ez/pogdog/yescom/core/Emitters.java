@@ -3,6 +3,7 @@ package ez.pogdog.yescom.core;
 import com.github.steveice10.mc.auth.exception.request.RequestException;
 import com.github.steveice10.packetlib.packet.Packet;
 import ez.pogdog.yescom.api.data.ChunkState;
+import ez.pogdog.yescom.api.data.Dimension;
 import ez.pogdog.yescom.api.data.player.PlayerInfo;
 import ez.pogdog.yescom.api.data.chat.ChatMessage;
 import ez.pogdog.yescom.api.data.player.death.Death;
@@ -132,6 +133,11 @@ public class Emitters {
      */
     public static final Emitter<Server> ON_SERVER_ADDED = new Emitter<>(Server.class);
 
+    /**
+     * Fired when a server is removed, after its players have been disconnected.
+     */
+    public static final Emitter<Server> ON_SERVER_REMOVED = new Emitter<>(Server.class);
+
     /**
      * Fired when we've just connected to a server.
      */
@@ -158,6 +164,11 @@ public class Emitters {
      */
     public static final Emitter<ServerChunkState> ON_CHUNK_STATE = new Emitter<>(ServerChunkState.class);
 
+    /**
+     * Fired when a query handle that was full, or had no spare throughput, has capacity for more queries again.
+     */
+    public static final Emitter<ServerCapacity> ON_QUERY_CAPACITY_AVAILABLE = new Emitter<>(ServerCapacity.class);
+
     /**
      * Fired when connection is fully lost to a server.
      */
@@ -252,4 +263,17 @@ public class Emitters {
             this.state = state;
         }
     }
+
+    public static class ServerCapacity {
+
+        public final Server server;
+        public final Dimension dimension;
+        public final float capacity; // Estimated queries per tick
+
+        public ServerCapacity(Server server, Dimension dimension, float capacity) {
+            this.server = server;
+            this.dimension = dimension;
+            this.capacity = capacity;
+        }
+    }
 }
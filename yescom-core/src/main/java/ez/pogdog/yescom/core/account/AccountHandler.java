@@ -27,13 +27,15 @@ public class AccountHandler {
     private final Logger logger = Logging.getLogger("yescom.core.account");
 
     private final Map<IAccount, Long> accounts = Collections.synchronizedMap(new HashMap<>());
-    private final Set<IAccount> firstTime = new HashSet<>();
+    private final Set<IAccount> firstTime = Collections.synchronizedSet(new HashSet<>()); // Logins run concurrently
     private final Pattern accountPattern = Pattern.compile(
             "((?<type>(mojang|microsoft))( *):)?( *)(?<email>\\w.+@(.+\\..+)+)( *):( *)(?<password>.+)"
     );
 
     private final String accountsFile;
 
+    private volatile int version = 0;
+
     public AccountHandler(String accountsFile) {
         this.accountsFile = accountsFile;
 
@@ -89,6 +91,22 @@ public class AccountHandler {
         return available;
     }
 
+    /**
+     * @return Is the {@link IAccount} available for login right now?
+     */
+    public boolean isAvailable(IAccount account) {
+        Long lastLogin = accounts.get(account);
+        return lastLogin != null && System.currentTimeMillis() - lastLogin > 30000;
+    }
+
+    /**
+     * @return A counter that changes whenever accounts are added or removed, so that the set of accounts only needs to
+     *         be rescanned when it has changed.
+     */
+    public int getVersion() {
+        return version;
+    }
+
     /**
      * Adds an account to the cache.
      * @param account The account to add.
@@ -97,6 +115,7 @@ public class AccountHandler {
         if (!accounts.containsKey(account)) {
             accounts.put(account, System.currentTimeMillis() - 40000);
             firstTime.add(account);
+            ++version;
         }
     }
 
@@ -107,6 +126,7 @@ public class AccountHandler {
     public void removeAccount(IAccount account) {
         if (accounts.containsKey(account)) {
             accounts.remove(account);
+            ++version;
             Emitters.ON_ACCOUNT_REMOVED.emit(account);
         }
     }
@@ -149,4 +169,14 @@ public class AccountHandler {
             throw error;
         }
     }
+
+    /**
+     * Called when the server rejects an account's session (the session server says its access token is invalid), so that
+     * the next login doesn't use the same tokens again.
+     * @param account The account.
+     */
+    public void onSessionRejected(IAccount account) {
+        logger.fine(String.format("Session for %s was rejected, invalidating its tokens.", account));
+        account.invalidate();
+    }
 }
@@ -13,4 +13,11 @@ public interface IAccount {
      * @param authService The auth service to log in to.
      */
     void login(AuthenticationService authService) throws RequestException;
+
+    /**
+     * Called when the account's session was rejected, so that any cached tokens are not used again. Use
+     * {@link AccountHandler#onSessionRejected(IAccount)} instead of this.
+     */
+    default void invalidate() {
+    }
 }
@@ -0,0 +1,404 @@
+package ez.pogdog.yescom.core.account;
+
+import com.github.steveice10.mc.auth.exception.request.RequestException;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import ez.pogdog.yescom.YesCom;
+import ez.pogdog.yescom.api.Globals;
+import ez.pogdog.yescom.api.Logging;
+import ez.pogdog.yescom.core.ITickable;
+import ez.pogdog.yescom.core.account.accounts.Microsoft;
+import ez.pogdog.yescom.core.config.IConfig;
+import ez.pogdog.yescom.core.config.Option;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Caches the Microsoft and Minecraft tokens of accounts, so that they can be reused across reconnects and restarts
+ * rather than going through the whole auth chain every time. They're stored on disk encrypted with a key derived from
+ * the account's password, and the ones that are about to expire are refreshed in the background.
+ */
+public class TokenCache implements IConfig, ITickable {
+
+    private static final int ITERATIONS = 65536;
+    private static final int SALT_LENGTH = 16;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+
+    private final Logger logger = Logging.getLogger("yescom.core.account");
+    private final YesCom yesCom = YesCom.getInstance();
+
+    /* ------------------------------ Options ------------------------------ */
+
+    public final Option<Boolean> TOKEN_CACHE_ENABLED = new Option<>(
+            "Token cache enabled",
+            "Reuses Microsoft and Minecraft tokens between logins, and stores them on disk, encrypted.",
+            true
+    );
+    public final Option<Integer> TOKEN_REFRESH_MARGIN = new Option<>(
+            "Token refresh margin",
+            "How long before a Minecraft token expires to refresh it in the background, in milliseconds.",
+            1800000
+    );
+
+    /* ------------------------------ Other fields ------------------------------ */
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final Map<String, JsonObject> stored = new HashMap<>(); // Encrypted, as they are on disk
+    private final Map<String, DerivedKey> keys = new ConcurrentHashMap<>(); // Derived outside the lock, as it's slow
+    private final Map<String, Tokens> tokens = new ConcurrentHashMap<>();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    private final File tokensFile;
+
+    private long lastRefreshCheck;
+
+    public TokenCache(String dataDirectory) {
+        tokensFile = new File(dataDirectory, "tokens.json");
+
+        try {
+            loadTokens();
+        } catch (IOException | RuntimeException error) {
+            logger.warning("Could not load cached tokens: " + error.getMessage());
+            logger.throwing(getClass().getSimpleName(), "<init>", error);
+        }
+
+        lastRefreshCheck = System.currentTimeMillis();
+
+        yesCom.tickables.add(this);
+    }
+
+    private void loadTokens() throws IOException {
+        if (!tokensFile.exists()) return;
+        logger.fine("Loading cached tokens...");
+
+        JsonObject json = Globals.JSON.parse(new String(Files.readAllBytes(tokensFile.toPath()), StandardCharsets.UTF_8))
+                .getAsJsonObject();
+        for (Map.Entry<String, JsonElement> entry : json.getAsJsonObject("tokens").entrySet())
+            stored.put(entry.getKey(), entry.getValue().getAsJsonObject());
+
+        logger.fine(String.format("Loaded %d cached token(s).", stored.size()));
+    }
+
+    private synchronized void saveTokens() {
+        JsonObject entries = new JsonObject();
+        for (Map.Entry<String, JsonObject> entry : stored.entrySet()) entries.add(entry.getKey(), entry.getValue());
+        JsonObject json = new JsonObject();
+        json.addProperty("version", 1);
+        json.add("tokens", entries);
+
+        try {
+            File parent = tokensFile.getAbsoluteFile().getParentFile();
+            if (!parent.exists() && !parent.mkdirs()) throw new IOException("Could not create data directory.");
+
+            // Write to a temporary file first, so that a crash doesn't lose all the tokens. It's created owner-only, so
+            // that there's no point at which anyone else could open it.
+            Path temporary = new File(parent, tokensFile.getName() + ".tmp").toPath();
+            Files.deleteIfExists(temporary);
+            try {
+                Files.createFile(temporary, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            } catch (UnsupportedOperationException error) { // Not a POSIX file system
+                Files.createFile(temporary);
+            }
+            Files.write(temporary, json.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.WRITE);
+            try {
+                Files.move(temporary, tokensFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException error) {
+                Files.move(temporary, tokensFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException error) {
+            logger.warning("Could not save cached tokens: " + error.getMessage());
+            logger.throwing(getClass().getSimpleName(), "saveTokens", error);
+        }
+    }
+
+    @Override
+    public void tick() {
+        if (!TOKEN_CACHE_ENABLED.value || System.currentTimeMillis() - lastRefreshCheck < 60000) return;
+        lastRefreshCheck = System.currentTimeMillis();
+
+        for (IAccount account : new ArrayList<>(yesCom.accountHandler.getAccounts())) { // Copying is synchronized
+            if (!(account instanceof Microsoft)) continue;
+            Microsoft microsoft = (Microsoft)account;
+            String id = microsoft.getTokenID();
+            Tokens cached = tokens.get(id); // Only accounts that have logged in this run, otherwise we can't decrypt them
+            if (cached == null || !cached.expiresWithin(TOKEN_REFRESH_MARGIN.value) || !refreshing.add(id)) continue;
+
+            yesCom.loginExecutor.submit(() -> {
+                try {
+                    microsoft.refresh();
+                } catch (RequestException error) {
+                    logger.warning(String.format("Could not refresh tokens for %s: %s", microsoft.getMaskedEmail(), error.getMessage()));
+                } finally {
+                    refreshing.remove(id);
+                }
+            });
+        }
+    }
+
+    @Override
+    public String getIdentifier() {
+        return "token-cache";
+    }
+
+    @Override
+    public IConfig getParent() {
+        return yesCom;
+    }
+
+    /* ------------------------------ Encryption ------------------------------ */
+
+    /**
+     * Derives the key for an account, or reuses the one derived last, if the password (and salt) are the same. Deriving
+     * is deliberately slow, so this must not be called while holding the lock.
+     */
+    private DerivedKey getKey(String id, String password, byte[] salt) throws GeneralSecurityException {
+        DerivedKey key = keys.get(id);
+        if (key != null && key.password.equals(password) && (salt == null || MessageDigest.isEqual(key.salt, salt)))
+            return key;
+
+        if (salt == null) {
+            salt = new byte[SALT_LENGTH];
+            random.nextBytes(salt);
+        }
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, ITERATIONS, 256);
+        try {
+            byte[] encoded = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            key = new DerivedKey(password, salt, new SecretKeySpec(encoded, "AES"));
+        } finally {
+            spec.clearPassword();
+        }
+        keys.put(id, key);
+        return key;
+    }
+
+    private JsonObject encrypt(String id, String password, Tokens tokens) throws GeneralSecurityException {
+        DerivedKey key = getKey(id, password, null);
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key.key, new GCMParameterSpec(TAG_LENGTH, iv));
+        cipher.updateAAD(id.getBytes(StandardCharsets.UTF_8)); // So entries can't be swapped between accounts
+        byte[] data = cipher.doFinal(tokens.toJson().toString().getBytes(StandardCharsets.UTF_8));
+
+        Base64.Encoder encoder = Base64.getEncoder();
+        JsonObject entry = new JsonObject();
+        entry.addProperty("salt", encoder.encodeToString(key.salt));
+        entry.addProperty("iv", encoder.encodeToString(iv));
+        entry.addProperty("data", encoder.encodeToString(data));
+        return entry;
+    }
+
+    private Tokens decrypt(String id, String password, JsonObject entry) throws GeneralSecurityException {
+        Base64.Decoder decoder = Base64.getDecoder();
+        DerivedKey key = getKey(id, password, decoder.decode(entry.get("salt").getAsString()));
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, key.key, new GCMParameterSpec(TAG_LENGTH, decoder.decode(entry.get("iv").getAsString())));
+        cipher.updateAAD(id.getBytes(StandardCharsets.UTF_8));
+        byte[] data = cipher.doFinal(decoder.decode(entry.get("data").getAsString()));
+
+        return Tokens.fromJson(Globals.JSON.parse(new String(data, StandardCharsets.UTF_8)).getAsJsonObject());
+    }
+
+    /* ------------------------------ Public API ------------------------------ */
+
+    /**
+     * @param type The type of account.
+     * @param email The account's email.
+     * @return The ID that the account's tokens are stored under, so that emails aren't stored in the clear.
+     */
+    public static String getID(String type, String email) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest((type + ":" + email.toLowerCase()).getBytes(StandardCharsets.UTF_8));
+            StringBuilder id = new StringBuilder();
+            for (byte value : digest) id.append(String.format("%02x", value));
+            return id.toString();
+        } catch (NoSuchAlgorithmException error) {
+            throw new IllegalStateException(error); // Every JVM has SHA-256
+        }
+    }
+
+    /**
+     * @param id The account's token ID, see {@link #getID(String, String)}.
+     * @param password The account's password, to decrypt the tokens with.
+     * @return The cached tokens, {@code null} if there are none, or they couldn't be decrypted.
+     */
+    public Tokens get(String id, String password) {
+        Tokens cached = tokens.get(id);
+        if (cached != null) return cached;
+
+        JsonObject entry;
+        synchronized (this) {
+            entry = stored.get(id);
+        }
+        if (entry == null) return null;
+
+        try {
+            cached = decrypt(id, password, entry); // Not holding the lock, as deriving the key takes a while
+        } catch (GeneralSecurityException | RuntimeException error) { // Password was probably changed
+            logger.fine("Could not decrypt cached tokens, discarding them: " + error.getMessage());
+            synchronized (this) {
+                if (stored.get(id) == entry) { // Unless they've been replaced in the meantime
+                    stored.remove(id);
+                    saveTokens();
+                }
+            }
+            return null;
+        }
+
+        synchronized (this) {
+            if (stored.get(id) != entry) return tokens.get(id); // Replaced or removed in the meantime
+            tokens.put(id, cached);
+            return cached;
+        }
+    }
+
+    /**
+     * Caches tokens, and saves them to disk.
+     * @param id The account's token ID, see {@link #getID(String, String)}.
+     * @param password The account's password, to encrypt the tokens with.
+     * @param tokens The tokens to cache.
+     */
+    public void put(String id, String password, Tokens tokens) {
+        JsonObject entry = null;
+        try {
+            entry = encrypt(id, password, tokens); // Also not holding the lock
+        } catch (GeneralSecurityException error) {
+            logger.warning("Could not encrypt tokens: " + error.getMessage());
+            logger.throwing(getClass().getSimpleName(), "put", error);
+        }
+
+        synchronized (this) {
+            this.tokens.put(id, tokens);
+            if (entry != null) {
+                stored.put(id, entry);
+                saveTokens();
+            }
+        }
+    }
+
+    /**
+     * Removes the cached tokens for an account, for example if they've been revoked.
+     * @param id The account's token ID, see {@link #getID(String, String)}.
+     * @return The tokens that were removed, {@code null} if there were none, or they hadn't been decrypted yet.
+     */
+    public synchronized Tokens remove(String id) {
+        Tokens removed = tokens.remove(id);
+        if (stored.remove(id) != null) saveTokens();
+        return removed;
+    }
+
+    /* ------------------------------ Setters and getters ------------------------------ */
+
+    /**
+     * @return The number of accounts with cached tokens, including ones that haven't been decrypted yet.
+     */
+    public synchronized int getCachedSize() {
+        return stored.size();
+    }
+
+    /**
+     * @return The number of background refreshes that are currently running.
+     */
+    public int getRefreshingSize() {
+        return refreshing.size();
+    }
+
+    /* ------------------------------ Classes ------------------------------ */
+
+    /**
+     * The tokens for an account.
+     */
+    public static final class Tokens {
+
+        public final String refreshToken; // Microsoft refresh token
+        public final String accessToken; // Minecraft access token
+        public final String id;
+        public final long expiry; // When the access token expires, in milliseconds
+
+        public final UUID uuid;
+        public final String username;
+
+        public Tokens(String refreshToken, String accessToken, String id, long expiry, UUID uuid, String username) {
+            this.refreshToken = refreshToken;
+            this.accessToken = accessToken;
+            this.id = id;
+            this.expiry = expiry;
+            this.uuid = uuid;
+            this.username = username;
+        }
+
+        private static Tokens fromJson(JsonObject json) {
+            return new Tokens(
+                    json.has("refresh_token") ? json.get("refresh_token").getAsString() : null,
+                    json.get("access_token").getAsString(),
+                    json.get("id").getAsString(),
+                    json.get("expiry").getAsLong(),
+                    UUID.fromString(json.get("uuid").getAsString()),
+                    json.get("username").getAsString()
+            );
+        }
+
+        private JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            if (refreshToken != null) json.addProperty("refresh_token", refreshToken);
+            json.addProperty("access_token", accessToken);
+            json.addProperty("id", id);
+            json.addProperty("expiry", expiry);
+            json.addProperty("uuid", uuid.toString());
+            json.addProperty("username", username);
+            return json;
+        }
+
+        /**
+         * @param time The time, in milliseconds.
+         * @return Does the access token expire within the given time?
+         */
+        public boolean expiresWithin(long time) {
+            return expiry - System.currentTimeMillis() < time;
+        }
+    }
+
+    private static final class DerivedKey {
+
+        private final String password;
+        private final byte[] salt;
+        private final SecretKey key;
+
+        private DerivedKey(String password, byte[] salt, SecretKey key) {
+            this.password = password;
+            this.salt = salt;
+            this.key = key;
+        }
+    }
+}
@@ -3,13 +3,13 @@ package ez.pogdog.yescom.core.account.accounts;
 import com.github.steveice10.mc.auth.data.GameProfile;
 import com.github.steveice10.mc.auth.exception.request.RequestException;
 import com.github.steveice10.mc.auth.service.AuthenticationService;
+import ez.pogdog.yescom.YesCom;
 import ez.pogdog.yescom.api.Logging;
 import ez.pogdog.yescom.core.account.IAccount;
-import me.nathan.futureclient.client.altmanager.AccountException;
+import ez.pogdog.yescom.core.account.TokenCache;
 import me.nathan.futureclient.framework.auth.phase.*;
 
 import java.lang.reflect.Field;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
@@ -22,6 +22,8 @@ public class Microsoft implements IAccount {
     private final String email;
     private final String password;
 
+    private volatile TokenCache.Tokens rejected; // Their access token was rejected, but the refresh token might still work
+
     public Microsoft(String email, String password) {
         this.email = email;
         this.password = password;
@@ -41,66 +43,151 @@ public class Microsoft implements IAccount {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
-    public void login(AuthenticationService authService) throws RequestException {
-        if (authService.getUsername() == null) {
-            String email = this.email;
-
-            String[] emailSplit = email.split("@");
-            if (emailSplit[0].length() >= 3) {
-                email = String.valueOf(emailSplit[0].charAt(0));
-                email += emailSplit[0].substring(1, emailSplit[0].length() - 1).replaceAll("\\w", "*");
-                email += String.valueOf(emailSplit[0].charAt(emailSplit[0].length() - 1));
-                if (emailSplit.length > 1) email += "@" + emailSplit[1];
-            }
-            logger.fine(String.format("Authenticating Microsoft account %s.", email));
+    public synchronized void login(AuthenticationService authService) throws RequestException {
+        TokenCache tokenCache = YesCom.getInstance().tokenCache;
+        if (!tokenCache.TOKEN_CACHE_ENABLED.value) {
+            if (authService.getUsername() == null) apply(authService, authenticate(null));
+            return;
+        }
 
-            try {
-                logger.finest("Obtaining intial code...");
-                String code = Code.getInitialCode(this.email, password, String.valueOf(UUID.randomUUID()));
-                logger.finest("Getting MS token user pass...");
-                MSToken.TokenPair msToken = MSToken.getForUserPass(code);
-                logger.finest("Getting XBL token user pass...");
-                XBLToken.XBLTokenType xblToken = XBLToken.getForUserPass(msToken.token);
-                logger.finest("Getting LS token...");
-                LSToken.LSTokenType lsToken = LSToken.getFor(xblToken.token);
-                logger.finest("Getting MC token...");
-                MCToken.MCTokenType minecraftToken = MCToken.getFor(lsToken);
-                logger.finest("Getting user profile...");
-                MCToken.Profile profile = MCToken.getProfile(minecraftToken);
-
-                GameProfile gameProfile = new GameProfile(
-                        UUID.fromString(profile.uuid.replaceFirst("(\\w{8})(\\w{4})(\\w{4})(\\w{4})(\\w{12})",
-                                "$1-$2-$3-$4-$5")),
-                        profile.name
-                );
-
-                authService.setUsername(profile.name);
-                authService.setAccessToken(minecraftToken.accessToken);
-
-                Field loggedInField = AuthenticationService.class.getDeclaredField("loggedIn");
-                loggedInField.setAccessible(true);
-                loggedInField.setBoolean(authService, true);
-
-                Field idField = AuthenticationService.class.getDeclaredField("id");
-                idField.setAccessible(true);
-                idField.set(authService, minecraftToken.username);
-
-                Field profilesField = AuthenticationService.class.getDeclaredField("profiles");
-                profilesField.setAccessible(true);
-                List<GameProfile> profiles = (List<GameProfile>)profilesField.get(authService);
-                profiles.add(gameProfile);
-
-                Field selectedProfileField = AuthenticationService.class.getDeclaredField("selectedProfile");
-                selectedProfileField.setAccessible(true);
-                selectedProfileField.set(authService, gameProfile);
-
-                logger.finest("Authenticated.");
+        TokenCache.Tokens tokens = tokenCache.get(getTokenID(), password);
+        if (tokens == null || tokens.expiresWithin(60000)) { // Leave some time for the connection to be made
+            tokens = authenticate(tokens != null ? tokens : rejected);
+            rejected = null;
+            tokenCache.put(getTokenID(), password, tokens);
+        } else {
+            logger.finest(String.format("Using cached tokens for %s.", getMaskedEmail()));
+        }
+        apply(authService, tokens);
+    }
+
+    /**
+     * Refreshes this account's cached tokens, if they're about to expire, so that the next login doesn't have to.
+     */
+    public synchronized void refresh() throws RequestException {
+        TokenCache tokenCache = YesCom.getInstance().tokenCache;
+        TokenCache.Tokens tokens = tokenCache.get(getTokenID(), password);
+        if (tokens == null || !tokens.expiresWithin(tokenCache.TOKEN_REFRESH_MARGIN.value)) return; // Already done
 
+        logger.fine(String.format("Refreshing tokens for %s.", getMaskedEmail()));
+        tokenCache.put(getTokenID(), password, authenticate(tokens));
+    }
+
+    /**
+     * Drops the cached tokens, as the access token was rejected. The refresh token is kept in memory, so that the next
+     * login tries it before the username and password.
+     */
+    @Override
+    public void invalidate() {
+        TokenCache.Tokens removed = YesCom.getInstance().tokenCache.remove(getTokenID());
+        if (removed != null) rejected = removed;
+    }
+
+    /**
+     * Goes through the auth chain, starting from the cached Microsoft refresh token if possible, as that skips the
+     * username and password login. Doesn't touch the cache itself, package-private for the tests.
+     */
+    TokenCache.Tokens authenticate(TokenCache.Tokens cached) throws RequestException {
+        if (cached != null && cached.refreshToken != null) {
+            try {
+                logger.finest("Refreshing MS token...");
+                return exchange(MSToken.refreshUserPass(cached.refreshToken), cached);
             } catch (Exception error) {
-                logger.throwing(getClass().getSimpleName(), "login", error);
-                throw new RequestException(error);
+                logger.fine(String.format("Couldn't refresh tokens for %s, logging in again: %s", getMaskedEmail(),
+                        error.getMessage()));
             }
         }
+
+        logger.fine(String.format("Authenticating Microsoft account %s.", getMaskedEmail()));
+        try {
+            logger.finest("Obtaining intial code...");
+            String code = Code.getInitialCode(email, password, String.valueOf(UUID.randomUUID()));
+            logger.finest("Getting MS token user pass...");
+            return exchange(MSToken.getForUserPass(code), null);
+
+        } catch (Exception error) {
+            logger.throwing(getClass().getSimpleName(), "login", error);
+            throw new RequestException(error);
+        }
+    }
+
+    private TokenCache.Tokens exchange(MSToken.TokenPair msToken, TokenCache.Tokens cached) throws Exception {
+        logger.finest("Getting XBL token user pass...");
+        XBLToken.XBLTokenType xblToken = XBLToken.getForUserPass(msToken.token);
+        logger.finest("Getting LS token...");
+        LSToken.LSTokenType lsToken = LSToken.getFor(xblToken.token);
+        logger.finest("Getting MC token...");
+        MCToken.MCTokenType minecraftToken = MCToken.getFor(lsToken);
+        long expiry = System.currentTimeMillis() + minecraftToken.expiresIn * 1000L;
+
+        if (cached != null) { // Profile won't have changed
+            logger.finest("Authenticated.");
+            return new TokenCache.Tokens(msToken.refreshToken, minecraftToken.accessToken, minecraftToken.username,
+                    expiry, cached.uuid, cached.username);
+        }
+
+        logger.finest("Getting user profile...");
+        MCToken.Profile profile = MCToken.getProfile(minecraftToken);
+        logger.finest("Authenticated.");
+        return new TokenCache.Tokens(msToken.refreshToken, minecraftToken.accessToken, minecraftToken.username, expiry,
+                UUID.fromString(profile.uuid.replaceFirst("(\\w{8})(\\w{4})(\\w{4})(\\w{4})(\\w{12})", "$1-$2-$3-$4-$5")),
+                profile.name);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void apply(AuthenticationService authService, TokenCache.Tokens tokens) throws RequestException {
+        GameProfile gameProfile = new GameProfile(tokens.uuid, tokens.username);
+
+        try {
+            authService.setUsername(tokens.username);
+            authService.setAccessToken(tokens.accessToken);
+
+            Field loggedInField = AuthenticationService.class.getDeclaredField("loggedIn");
+            loggedInField.setAccessible(true);
+            loggedInField.setBoolean(authService, true);
+
+            Field idField = AuthenticationService.class.getDeclaredField("id");
+            idField.setAccessible(true);
+            idField.set(authService, tokens.id);
+
+            Field profilesField = AuthenticationService.class.getDeclaredField("profiles");
+            profilesField.setAccessible(true);
+            List<GameProfile> profiles = (List<GameProfile>)profilesField.get(authService);
+            profiles.clear(); // Might be reapplying to the same auth service
+            profiles.add(gameProfile);
+
+            Field selectedProfileField = AuthenticationService.class.getDeclaredField("selectedProfile");
+            selectedProfileField.setAccessible(true);
+            selectedProfileField.set(authService, gameProfile);
+
+        } catch (ReflectiveOperationException error) {
+            logger.throwing(getClass().getSimpleName(), "apply", error);
+            throw new RequestException(error);
+        }
+    }
+
+    /* ------------------------------ Setters and getters ------------------------------ */
+
+    /**
+     * @return The ID that this account's tokens are cached under.
+     */
+    public String getTokenID() {
+        return TokenCache.getID("microsoft", email);
+    }
+
+    /**
+     * @return The email, with most of the name hidden, for logging.
+     */
+    public String getMaskedEmail() {
+        String email = this.email;
+
+        String[] emailSplit = email.split("@");
+        if (emailSplit[0].length() >= 3) {
+            email = String.valueOf(emailSplit[0].charAt(0));
+            email += emailSplit[0].substring(1, emailSplit[0].length() - 1).replaceAll("\\w", "*");
+            email += String.valueOf(emailSplit[0].charAt(emailSplit[0].length() - 1));
+            if (emailSplit.length > 1) email += "@" + emailSplit[1];
+        }
+        return email;
     }
 }
@@ -0,0 +1,177 @@
+package ez.pogdog.yescom.core.connection;
+
+import com.github.steveice10.mc.auth.exception.request.RequestException;
+import com.github.steveice10.mc.auth.service.AuthenticationService;
+import ez.pogdog.yescom.YesCom;
+import ez.pogdog.yescom.api.Logging;
+import ez.pogdog.yescom.core.account.AccountHandler;
+import ez.pogdog.yescom.core.account.IAccount;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Logger;
+
+/**
+ * Logs in the accounts for a {@link Server}, and reconnects its players, on the {@link ez.pogdog.yescom.core.threads.LoginExecutor}
+ * rather than the main thread. Accounts and players wait in ready queues until they can be started, new players are
+ * then created on the main thread once their account has logged in.
+ */
+public class LoginPipeline {
+
+    private final Logger logger = Logging.getLogger("yescom.core.connection");
+    private final YesCom yesCom = YesCom.getInstance();
+
+    private final Server server;
+
+    private final Queue<IAccount> accounts = new ArrayDeque<>(); // Accounts that need a player
+    private final Queue<Player> reconnects = new ArrayDeque<>();
+    private final Set<IAccount> claimed = new HashSet<>(); // Accounts that are queued, logging in or have a player
+    private final Set<Player> reconnecting = new HashSet<>(); // Players that are queued or connecting
+    private final Queue<Runnable> completed = new ConcurrentLinkedQueue<>(); // Run on the main thread
+
+    private int accountsVersion = -1;
+    private boolean dirty = true;
+
+    private int loggingIn = 0;
+
+    public LoginPipeline(Server server) {
+        this.server = server;
+    }
+
+    /**
+     * Ticks this pipeline, called by the {@link Server} before it ticks its players.
+     */
+    public synchronized void tick() {
+        Runnable completion;
+        while ((completion = completed.poll()) != null) completion.run();
+
+        AccountHandler accountHandler = yesCom.accountHandler;
+        if (dirty || accountsVersion != accountHandler.getVersion()) { // Only look at the accounts when they've changed
+            accountsVersion = accountHandler.getVersion();
+            dirty = false;
+            for (IAccount account : new ArrayList<>(accountHandler.getAccounts())) { // Copying is synchronized
+                if (claimed.add(account)) accounts.add(account);
+            }
+        }
+
+        // Max 1 new account per tick, accounts that aren't available yet go to the back of the queue
+        IAccount account = accounts.poll();
+        if (account != null) {
+            if (!accountHandler.hasAccount(account)) {
+                claimed.remove(account);
+            } else if (!accountHandler.isAvailable(account)) {
+                accounts.add(account);
+            } else {
+                login(account);
+            }
+        }
+
+        // Connecting players are limited globally by the server's login time
+        while (!reconnects.isEmpty() && server.canLogin()) {
+            Player player = reconnects.poll();
+            if (player.isConnected() || !server.hasPlayer(player)) {
+                reconnecting.remove(player);
+                continue;
+            }
+
+            server.resetLoginTime();
+            connect(player);
+            break;
+        }
+    }
+
+    /* ------------------------------ Internal ------------------------------ */
+
+    private void login(IAccount account) {
+        ++loggingIn;
+        yesCom.loginExecutor.submit(() -> {
+            AuthenticationService authService = new AuthenticationService();
+            boolean loggedIn = false;
+            try {
+                yesCom.accountHandler.login(account, authService);
+                loggedIn = true;
+
+            } catch (RequestException error) {
+                logger.warning(String.format("Failed to add account %s to %s:%d: %s.", account, server.hostname,
+                        server.port, error.getMessage()));
+                logger.throwing(getClass().getSimpleName(), "login", error);
+
+            } finally { // Whatever happened, so that the account isn't stuck logging in
+                boolean success = loggedIn;
+                completed.add(() -> {
+                    --loggingIn;
+                    if (!success) {
+                        accounts.add(account); // Try again once it's available, if it hasn't been removed
+                    } else if (!yesCom.accountHandler.hasAccount(account)) { // Removed while we were logging in
+                        claimed.remove(account);
+                    } else {
+                        server.addPlayer(new Player(server, account, authService));
+                    }
+                });
+            }
+        });
+    }
+
+    private void connect(Player player) {
+        yesCom.loginExecutor.submit(() -> {
+            try {
+                player.connect();
+            } finally {
+                completed.add(() -> reconnecting.remove(player));
+            }
+        });
+    }
+
+    /* ------------------------------ Public API ------------------------------ */
+
+    /**
+     * Queues a player to be connected, if they aren't already queued or connecting.
+     */
+    public synchronized void requestConnect(Player player) {
+        if (reconnecting.add(player)) reconnects.add(player);
+    }
+
+    /**
+     * Runs a task on the main thread, at the start of the server's next tick. Used by the login threads for anything
+     * that fires events, as listeners expect those on the main thread.
+     */
+    public void runOnMainThread(Runnable task) {
+        completed.add(task);
+    }
+
+    /**
+     * Called when a player is removed from the server, so that their account can be given a new player.
+     */
+    public synchronized void onPlayerRemoved(Player player) {
+        if (reconnecting.remove(player)) reconnects.remove(player);
+        claimed.remove(player.account);
+        dirty = true;
+    }
+
+    /* ------------------------------ Setters and getters ------------------------------ */
+
+    /**
+     * @return The number of accounts waiting to log in.
+     */
+    public synchronized int getQueuedAccounts() {
+        return accounts.size();
+    }
+
+    /**
+     * @return The number of players waiting to connect.
+     */
+    public synchronized int getQueuedReconnects() {
+        return reconnects.size();
+    }
+
+    /**
+     * @return The number of accounts logging in right now.
+     */
+    public synchronized int getLoggingIn() {
+        return loggingIn;
+    }
+}
@@ -0,0 +1,184 @@
+package ez.pogdog.yescom.core.connection;
+
+import com.github.steveice10.packetlib.packet.Packet;
+import com.github.steveice10.packetlib.tcp.PreEncodedPacket;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Token bucket shaper for outgoing packets, so that we stay within the server's packet limits (see
+ * {@link ez.pogdog.yescom.core.servers.IServerBehaviour#getPacketBudgets()}). Packets that would exceed their budget are
+ * held back, along with any packets sent after them, so that the order is kept.
+ */
+public class PacketShaper {
+
+    private final Map<Class<?>, Bucket> buckets = new HashMap<>();
+    private final Queue<Packet> held = new ArrayDeque<>();
+
+    private long packetsSent;
+    private long packetsHeld;
+
+    /**
+     * Updates the budgets, and refills the buckets.
+     * @param budgets The current budgets, by packet class.
+     */
+    public synchronized void update(Map<Class<? extends Packet>, Budget> budgets) {
+        buckets.keySet().removeIf(type -> !budgets.containsKey(type));
+        for (Map.Entry<Class<? extends Packet>, Budget> entry : budgets.entrySet()) {
+            Bucket bucket = buckets.computeIfAbsent(entry.getKey(), type -> new Bucket(entry.getValue()));
+            bucket.budget = entry.getValue();
+            bucket.refill();
+        }
+    }
+
+    /**
+     * Offers a packet to the shaper.
+     * @param packet The packet to send.
+     * @return Can the packet be sent right now? If not, it has been held and will be returned by {@link #poll()} later.
+     */
+    public synchronized boolean offer(Packet packet) {
+        if (held.isEmpty() && tryConsume(typeOf(packet))) {
+            ++packetsSent;
+            return true;
+        }
+        held.add(packet);
+        ++packetsHeld;
+        return false;
+    }
+
+    /**
+     * @return The held packets that can now be sent, in the order they were offered.
+     */
+    public synchronized List<Packet> poll() {
+        if (held.isEmpty()) return Collections.emptyList();
+        List<Packet> packets = new ArrayList<>();
+        while (!held.isEmpty() && tryConsume(typeOf(held.peek()))) packets.add(held.poll());
+        packetsSent += packets.size();
+        return packets;
+    }
+
+    /**
+     * Checks if a bundle of packets could be sent right now, without anything being held.
+     * @param packets The classes of the packets in the bundle, with duplicates.
+     * @return Does the whole bundle fit within the budget?
+     */
+    public synchronized boolean canSend(Class<?>... packets) {
+        if (!held.isEmpty()) return false;
+        for (int index = 0; index < packets.length; ++index) {
+            Bucket bucket = buckets.get(packets[index]);
+            if (bucket == null) continue;
+            // Bundles are only a few packets, so counting the duplicates so far is cheaper than a map
+            int count = 1;
+            for (int previous = 0; previous < index; ++previous) {
+                if (packets[previous] == packets[index]) ++count;
+            }
+            bucket.refill();
+            if (bucket.tokens < count) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Drops all held packets and resets the buckets, for when we reconnect.
+     */
+    public synchronized void reset() {
+        held.clear();
+        for (Bucket bucket : buckets.values()) {
+            bucket.tokens = bucket.budget.packets;
+            bucket.lastRefill = System.currentTimeMillis();
+        }
+    }
+
+    private Class<?> typeOf(Packet packet) {
+        // Templates are budgeted as the packets they stand in for
+        if (packet instanceof PreEncodedPacket) return ((PreEncodedPacket)packet).getPacketClass();
+        return packet.getClass();
+    }
+
+    private boolean tryConsume(Class<?> type) {
+        Bucket bucket = buckets.get(type);
+        if (bucket == null) return true; // Not limited
+        bucket.refill();
+        if (bucket.tokens < 1.0) return false;
+        --bucket.tokens;
+        return true;
+    }
+
+    /* ------------------------------ Setters and getters ------------------------------ */
+
+    /**
+     * @return The number of packets currently being held back.
+     */
+    public synchronized int getHeldSize() {
+        return held.size();
+    }
+
+    /**
+     * @return The total number of packets that have passed through the shaper.
+     */
+    public synchronized long getPacketsSent() {
+        return packetsSent;
+    }
+
+    /**
+     * @return The total number of packets that had to be held back.
+     */
+    public synchronized long getPacketsHeld() {
+        return packetsHeld;
+    }
+
+    /* ------------------------------ Classes ------------------------------ */
+
+    /**
+     * A packet limit, some number of packets per interval.
+     */
+    public static final class Budget {
+
+        public final int packets;
+        public final int interval;
+
+        /**
+         * @param packets The number of packets allowed in the interval.
+         * @param interval The interval, in milliseconds.
+         */
+        public Budget(int packets, int interval) {
+            this.packets = packets;
+            this.interval = interval;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Budget(packets=%d, interval=%dms)", packets, interval);
+        }
+    }
+
+    private static final class Bucket {
+
+        private Budget budget;
+        private double tokens;
+        private long lastRefill;
+
+        private Bucket(Budget budget) {
+            this.budget = budget;
+            tokens = budget.packets;
+            lastRefill = System.currentTimeMillis();
+        }
+
+        private void refill() {
+            long currentTime = System.currentTimeMillis();
+            if (budget.interval > 0) {
+                tokens += (currentTime - lastRefill) * budget.packets / (double)budget.interval;
+            } else {
+                tokens = budget.packets;
+            }
+            tokens = Math.min(budget.packets, tokens);
+            lastRefill = currentTime;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package ez.pogdog.yescom.core.connection;
+
+import com.github.steveice10.packetlib.packet.Packet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Dispatches {@link Packet}s to handlers by their class, rather than testing every packet against every type. Handlers
+ * are registered once (typically in a static initialiser, using non-capturing method references), and the handlers for
+ * each concrete packet class are resolved the first time a packet of that class is seen, so dispatching does not
+ * allocate.
+ * @param <T> The type that receives the packets.
+ */
+public final class PacketTable<T> {
+
+    private static final Handler<Object, Packet> NONE = (receiver, packet) -> {};
+
+    private final List<Entry<T>> entries = new ArrayList<>();
+    private final Set<Class<? extends Packet>> types = new LinkedHashSet<>();
+    private final ClassValue<Handler<T, Packet>> resolved = new ClassValue<Handler<T, Packet>>() {
+        @Override
+        protected Handler<T, Packet> computeValue(Class<?> type) {
+            return resolve(type);
+        }
+    };
+
+    private volatile boolean sealed = false;
+
+    /**
+     * Registers a handler for a packet class, and any subclasses of it. Handlers for the same packet are called in the
+     * order they were registered. All handlers must be registered before the first packet is dispatched.
+     * @param type The packet class.
+     * @param handler The handler.
+     * @return This table, for chaining.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <P extends Packet> PacketTable<T> on(Class<P> type, Handler<? super T, ? super P> handler) {
+        if (sealed) throw new IllegalStateException("Cannot register handlers after packets have been dispatched.");
+        entries.add(new Entry<>(type, (Handler<T, Packet>)handler));
+        types.add(type);
+        return this;
+    }
+
+    /**
+     * Dispatches a packet to the handlers registered for its class, if any.
+     * @param receiver The receiver to pass to the handlers.
+     * @param packet The packet.
+     */
+    public void dispatch(T receiver, Packet packet) {
+        resolved.get(packet.getClass()).handle(receiver, packet);
+    }
+
+    /**
+     * @return Are there any handlers for the given packet class?
+     */
+    public boolean handles(Class<? extends Packet> type) {
+        return resolved.get(type) != NONE;
+    }
+
+    /**
+     * @return The packet classes that handlers have been registered for.
+     */
+    public synchronized Set<Class<? extends Packet>> getTypes() {
+        return Collections.unmodifiableSet(types);
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized Handler<T, Packet> resolve(Class<?> type) {
+        sealed = true;
+
+        List<Handler<T, Packet>> handlers = new ArrayList<>();
+        for (Entry<T> entry : entries) {
+            if (entry.type.isAssignableFrom(type)) handlers.add(entry.handler);
+        }
+
+        switch (handlers.size()) {
+            case 0: {
+                return (Handler<T, Packet>)(Handler<?, Packet>)NONE;
+            }
+            case 1: {
+                return handlers.get(0);
+            }
+            default: {
+                Handler<T, Packet>[] chain = handlers.toArray(new Handler[0]);
+                return (receiver, packet) -> {
+                    for (Handler<T, Packet> handler : chain) handler.handle(receiver, packet);
+                };
+            }
+        }
+    }
+
+    /* ------------------------------ Classes ------------------------------ */
+
+    /**
+     * Handles a single type of packet.
+     * @param <T> The type that receives the packet.
+     * @param <P> The type of packet.
+     */
+    @FunctionalInterface
+    public interface Handler<T, P extends Packet> {
+        void handle(T receiver, P packet);
+    }
+
+    private static final class Entry<T> {
+
+        private final Class<?> type;
+        private final Handler<T, Packet> handler;
+
+        private Entry(Class<?> type, Handler<T, Packet> handler) {
+            this.type = type;
+            this.handler = handler;
+        }
+    }
+}
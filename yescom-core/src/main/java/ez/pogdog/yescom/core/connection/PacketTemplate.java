@@ -0,0 +1,130 @@
+package ez.pogdog.yescom.core.connection;
+
+import com.github.steveice10.packetlib.io.stream.StreamNetOutput;
+import com.github.steveice10.packetlib.packet.Packet;
+import com.github.steveice10.packetlib.tcp.PreEncodedPacket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * The encoded layout of a fixed-shape outgoing packet, taken from a prototype, so that packets of that shape can be
+ * sent by patching the fields that change into a copy of it, rather than creating and encoding a new packet. The copies
+ * are pooled, and are given back by the session once they've been sent, see {@link PreEncodedPacket#release()}.
+ */
+public final class PacketTemplate {
+
+    private final Class<? extends Packet> packetClass;
+    private final byte[] layout;
+
+    private final Instance[] pool;
+    private int pooled = 0;
+
+    /**
+     * @param prototype The packet to take the layout from.
+     * @param length The expected length of the layout, so that we know the field offsets are correct.
+     * @param poolSize The maximum number of instances to keep for reuse.
+     */
+    public PacketTemplate(Packet prototype, int length, int poolSize) {
+        packetClass = prototype.getClass();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(length);
+        try {
+            prototype.write(new StreamNetOutput(output));
+        } catch (IOException error) {
+            throw new IllegalStateException("Couldn't encode prototype " + packetClass.getSimpleName(), error);
+        }
+        layout = output.toByteArray();
+        if (layout.length != length)
+            throw new IllegalStateException(String.format("Expected %s to be %d bytes, got %d.",
+                    packetClass.getSimpleName(), length, layout.length));
+
+        pool = new Instance[poolSize];
+    }
+
+    /**
+     * @return A copy of the layout, reused if possible. It must be sent, otherwise it's simply not returned to the pool.
+     */
+    public Instance acquire() {
+        synchronized (pool) {
+            if (pooled > 0) {
+                Instance instance = pool[--pooled];
+                pool[pooled] = null;
+                return instance;
+            }
+        }
+        return new Instance();
+    }
+
+    private void release(Instance instance) {
+        synchronized (pool) {
+            if (pooled < pool.length) pool[pooled++] = instance;
+        }
+    }
+
+    /* ------------------------------ Setters and getters ------------------------------ */
+
+    public Class<? extends Packet> getPacketClass() {
+        return packetClass;
+    }
+
+    /**
+     * @return The number of instances waiting to be reused.
+     */
+    public int getPooled() {
+        synchronized (pool) {
+            return pooled;
+        }
+    }
+
+    /* ------------------------------ Classes ------------------------------ */
+
+    /**
+     * A copy of the layout, the fields are written big-endian, same as {@link StreamNetOutput}.
+     */
+    public final class Instance extends PreEncodedPacket {
+
+        private Instance() {
+            super(packetClass, layout.clone());
+        }
+
+        @Override
+        public void release() {
+            PacketTemplate.this.release(this);
+        }
+
+        public Instance putBoolean(int offset, boolean value) {
+            body[offset] = (byte)(value ? 1 : 0);
+            return this;
+        }
+
+        public Instance putByte(int offset, int value) {
+            body[offset] = (byte)value;
+            return this;
+        }
+
+        public Instance putShort(int offset, int value) {
+            body[offset] = (byte)(value >>> 8);
+            body[offset + 1] = (byte)value;
+            return this;
+        }
+
+        public Instance putInt(int offset, int value) {
+            for (int index = 0; index < 4; ++index) body[offset + index] = (byte)(value >>> (24 - index * 8));
+            return this;
+        }
+
+        public Instance putLong(int offset, long value) {
+            for (int index = 0; index < 8; ++index) body[offset + index] = (byte)(value >>> (56 - index * 8));
+            return this;
+        }
+
+        public Instance putFloat(int offset, float value) {
+            return putInt(offset, Float.floatToIntBits(value));
+        }
+
+        public Instance putDouble(int offset, double value) {
+            return putLong(offset, Double.doubleToLongBits(value));
+        }
+    }
+}
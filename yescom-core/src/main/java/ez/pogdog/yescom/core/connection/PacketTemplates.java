@@ -0,0 +1,58 @@
+package ez.pogdog.yescom.core.connection;
+
+import com.github.steveice10.mc.protocol.data.game.entity.metadata.Position;
+import com.github.steveice10.mc.protocol.data.game.entity.player.Hand;
+import com.github.steveice10.mc.protocol.data.game.entity.player.PlayerAction;
+import com.github.steveice10.mc.protocol.data.game.world.block.BlockFace;
+import com.github.steveice10.mc.protocol.packet.ingame.client.player.ClientPlayerActionPacket;
+import com.github.steveice10.mc.protocol.packet.ingame.client.player.ClientPlayerPlaceBlockPacket;
+import com.github.steveice10.mc.protocol.packet.ingame.client.player.ClientPlayerPositionPacket;
+import com.github.steveice10.packetlib.packet.Packet;
+
+/**
+ * Templates for the packets that are sent for every query, see {@link PacketTemplate}. The offsets are for 1.12.2, the
+ * templates check the layout lengths when they're created.
+ */
+public final class PacketTemplates {
+
+    private static final int POOL_SIZE = 256;
+
+    // double x, double y, double z, boolean on ground
+    private static final PacketTemplate POSITION = new PacketTemplate(
+            new ClientPlayerPositionPacket(false, 0.0, 0.0, 0.0), 25, POOL_SIZE
+    );
+    // varint action, long position, byte face
+    private static final PacketTemplate CANCEL_DIGGING = new PacketTemplate(
+            new ClientPlayerActionPacket(PlayerAction.CANCEL_DIGGING, new Position(0, 0, 0), BlockFace.UP), 10, POOL_SIZE
+    );
+    // long position, varint face, varint hand, float cursor x, float cursor y, float cursor z
+    private static final PacketTemplate PLACE_BLOCK = new PacketTemplate(
+            new ClientPlayerPlaceBlockPacket(new Position(0, 0, 0), BlockFace.UP, Hand.MAIN_HAND, 0.0f, 0.0f, 0.0f), 22, POOL_SIZE
+    );
+
+    /**
+     * @return A {@link ClientPlayerPositionPacket}.
+     */
+    public static Packet position(boolean onGround, double x, double y, double z) {
+        return POSITION.acquire().putDouble(0, x).putDouble(8, y).putDouble(16, z).putBoolean(24, onGround);
+    }
+
+    /**
+     * @return A {@link ClientPlayerActionPacket} that cancels digging the top face of the block.
+     */
+    public static Packet cancelDigging(int x, int y, int z) {
+        return CANCEL_DIGGING.acquire().putLong(1, packPosition(x, y, z));
+    }
+
+    /**
+     * @return A {@link ClientPlayerPlaceBlockPacket} against the top face of the block, with the main hand, and the cursor
+     *         at the block's origin.
+     */
+    public static Packet placeBlock(int x, int y, int z) {
+        return PLACE_BLOCK.acquire().putLong(0, packPosition(x, y, z));
+    }
+
+    private static long packPosition(int x, int y, int z) {
+        return ((x & 0x3FFFFFFL) << 38) | ((y & 0xFFFL) << 26) | (z & 0x3FFFFFFL);
+    }
+}
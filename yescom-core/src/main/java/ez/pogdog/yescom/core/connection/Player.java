@@ -1,16 +1,18 @@
 package ez.pogdog.yescom.core.connection;
 
+import com.github.steveice10.mc.auth.exception.request.InvalidCredentialsException;
 import com.github.steveice10.mc.auth.exception.request.RequestException;
 import com.github.steveice10.mc.auth.service.AuthenticationService;
 import com.github.steveice10.mc.protocol.MinecraftProtocol;
 import com.github.steveice10.mc.protocol.data.game.PlayerListEntry;
 import com.github.steveice10.mc.protocol.packet.ingame.client.ClientChatPacket;
-import com.github.steveice10.mc.protocol.packet.ingame.client.player.ClientPlayerPositionPacket;
 import com.github.steveice10.mc.protocol.packet.ingame.client.player.ClientPlayerPositionRotationPacket;
 import com.github.steveice10.mc.protocol.packet.ingame.client.player.ClientPlayerRotationPacket;
 import com.github.steveice10.mc.protocol.packet.ingame.client.world.ClientTeleportConfirmPacket;
 import com.github.steveice10.mc.protocol.packet.ingame.server.ServerChatPacket;
+import com.github.steveice10.mc.protocol.packet.ingame.server.ServerDisconnectPacket;
 import com.github.steveice10.mc.protocol.packet.ingame.server.ServerJoinGamePacket;
+import com.github.steveice10.mc.protocol.packet.ingame.server.ServerKeepAlivePacket;
 import com.github.steveice10.mc.protocol.packet.ingame.server.ServerPlayerListEntryPacket;
 import com.github.steveice10.mc.protocol.packet.ingame.server.ServerRespawnPacket;
 import com.github.steveice10.mc.protocol.packet.ingame.server.entity.player.ServerPlayerHealthPacket;
@@ -32,7 +34,7 @@ import com.github.steveice10.packetlib.event.session.PacketReceivedEvent;
 import com.github.steveice10.packetlib.event.session.PacketSentEvent;
 import com.github.steveice10.packetlib.event.session.SessionAdapter;
 import com.github.steveice10.packetlib.packet.Packet;
-import com.github.steveice10.packetlib.tcp.TcpClientSession;
+import com.github.steveice10.packetlib.tcp.TcpSession;
 import com.github.steveice10.packetlib.tcp.TcpSessionFactory;
 import ez.pogdog.yescom.YesCom;
 import ez.pogdog.yescom.api.Globals;
@@ -54,7 +56,11 @@ import ez.pogdog.yescom.core.report.player.VisualRangeLogoutReport;
 import ez.pogdog.yescom.core.util.MinecraftChat;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Logger;
@@ -64,6 +70,30 @@ import java.util.logging.Logger;
  */
 public class Player implements IConfig, ITickable {
 
+    private static final PacketTable<Player> PACKET_HANDLERS = new PacketTable<Player>()
+            .on(ServerPlayerPositionRotationPacket.class, Player::onPositionRotation)
+            .on(ServerPlayerHealthPacket.class, Player::onHealth)
+            .on(ServerJoinGamePacket.class, Player::onJoinGame)
+            .on(ServerRespawnPacket.class, Player::onRespawn)
+            .on(ServerPlayerListEntryPacket.class, Player::onPlayerListEntry)
+            .on(ServerUpdateTimePacket.class, Player::onUpdateTime)
+            .on(ServerOpenWindowPacket.class, Player::onOpenWindow)
+            .on(ServerWindowItemsPacket.class, Player::onWindowItems)
+            .on(ServerWindowPropertyPacket.class, Player::onWindowProperty)
+            .on(ServerSetSlotPacket.class, Player::onSetSlot)
+            .on(ServerCloseWindowPacket.class, Player::onCloseWindow)
+            .on(ServerChunkDataPacket.class, Player::onChunkData)
+            .on(ServerUnloadChunkPacket.class, Player::onUnloadChunk)
+            .on(ServerSpawnPlayerPacket.class, Player::onSpawnPlayer);
+
+    // Packets needed other than by our handlers, with selective decoding enabled
+    private static final List<Class<? extends Packet>> BASE_INTERESTS = Arrays.asList(
+            ServerKeepAlivePacket.class, // By MCProtocolLib's own listener
+            ServerDisconnectPacket.class,
+            ServerChatPacket.class,
+            ServerPlayerListEntryPacket.class // By the server
+    );
+
     private final Logger logger = Logging.getLogger("yescom.core.connection");
     private final YesCom yesCom = YesCom.getInstance();
 
@@ -94,12 +124,13 @@ public class Player implements IConfig, ITickable {
     /* ------------------------------ Other fields ------------------------------ */
 
     public final List<IPacketListener> packetListeners = new CopyOnWriteArrayList<>();
+    public final PacketShaper shaper = new PacketShaper();
 
     public final Server server;
     public final IAccount account;
 
     private AuthenticationService authService;
-    private Session session;
+    private volatile Session session; // Set on the login threads
 
     /* ------------------------------ Player "stats" ------------------------------ */
 
@@ -131,7 +162,8 @@ public class Player implements IConfig, ITickable {
     private UUID uuid = null;
     private String username = "<unknown>";
 
-    private boolean connecting = false;
+    private volatile boolean connecting = false;
+    private boolean inGame = false;
 
     private long lastLoginTime;
     private long lastAutoLogoutTime;
@@ -151,14 +183,21 @@ public class Player implements IConfig, ITickable {
      * @param account The account the player will use.
      */
     public Player(Server server, IAccount account) throws RequestException {
+        this(server, account, login(account));
+    }
+
+    /**
+     * @param server The server that this player belongs to.
+     * @param account The account the player will use.
+     * @param authService The auth service that the account has already been logged in to.
+     */
+    public Player(Server server, IAccount account, AuthenticationService authService) {
         this.server = server;
         this.account = account;
+        this.authService = authService;
 
-        authService = new AuthenticationService();
         session = null;
 
-        yesCom.accountHandler.login(this.account, authService);
-        // this.account.login(authService);
         yesCom.configHandler.addConfiguration(this);
 
         oldPosition = position.clone();
@@ -178,6 +217,13 @@ public class Player implements IConfig, ITickable {
         lastWorldTicks = 0L;
     }
 
+    private static AuthenticationService login(IAccount account) throws RequestException {
+        AuthenticationService authService = new AuthenticationService();
+        YesCom.getInstance().accountHandler.login(account, authService);
+        // account.login(authService);
+        return authService;
+    }
+
     @Override
     public String getIdentifier() {
         return String.format("player-%s", getUUID());
@@ -194,20 +240,32 @@ public class Player implements IConfig, ITickable {
     @Override
     public void tick() {
         if (isConnected()) {
-            // Update position
-            if (positionDirty && angleDirty) {
-                session.send(new ClientPlayerPositionRotationPacket(onGround, position.getX(), position.getY(), position.getZ(),
-                        angle.getYaw(), angle.getPitch()));
-                positionDirty = false;
-                angleDirty = false;
-
-            } else if (positionDirty) {
-                session.send(new ClientPlayerPositionPacket(onGround, position.getX(), position.getY(), position.getZ()));
-                positionDirty = false;
-
-            } else if (angleDirty) {
-                session.send(new ClientPlayerRotationPacket(onGround, angle.getYaw(), angle.getPitch()));
-                angleDirty = false;
+            beginBatch();
+            try {
+                // Send anything that was held back by the shaper first, as it should've been sent before
+                synchronized (shaper) {
+                    shaper.update(server.behaviour.getPacketBudgets());
+                    List<Packet> packets = shaper.poll();
+                    if (session != null) for (Packet packet : packets) session.send(packet);
+                }
+
+                // Update position
+                if (positionDirty && angleDirty) {
+                    send(new ClientPlayerPositionRotationPacket(onGround, position.getX(), position.getY(), position.getZ(),
+                            angle.getYaw(), angle.getPitch()));
+                    positionDirty = false;
+                    angleDirty = false;
+
+                } else if (positionDirty) {
+                    send(PacketTemplates.position(onGround, position.getX(), position.getY(), position.getZ()));
+                    positionDirty = false;
+
+                } else if (angleDirty) {
+                    send(new ClientPlayerRotationPacket(onGround, angle.getYaw(), angle.getPitch()));
+                    angleDirty = false;
+                }
+            } finally {
+                endBatch();
             }
 
             if (isSpawned()) failedConnections = 0;
@@ -220,20 +278,20 @@ public class Player implements IConfig, ITickable {
         } else {
             boolean autoReconnectReady = System.currentTimeMillis() - lastLoginTime > server.AUTO_RECONNECT_TIME.value;
             boolean autoLogoutReady = System.currentTimeMillis() - lastAutoLogoutTime >= this.server.AUTO_LOGOUT_RECONNECT_TIME.value;
-            if (AUTO_RECONNECT.value && server.canLogin() && !server.isOnline(getUUID()) &&
-                    autoReconnectReady && autoLogoutReady)
-                connect();
+            if (AUTO_RECONNECT.value && !server.isOnline(getUUID()) && autoReconnectReady && autoLogoutReady)
+                server.loginPipeline.requestConnect(this); // Blocks on auth, so don't do it on the main thread
         }
     }
 
     /* ------------------------------ Public API ------------------------------ */
 
     /**
-     * Connects this player to the server, if they are not connected already.
+     * Connects this player to the server, if they are not connected already. This blocks until the account has logged in
+     * and the connection is made. If the account couldn't log in the first time, the player is removed from the server on
+     * the main thread, during the server's next tick.
      */
     public void connect() {
-        if (!isConnected() && !connecting && server.hasPlayer(this)) {
-            connecting = true;
+        if (!isConnected() && server.hasPlayer(this) && beginConnecting()) {
             lastLoginTime = System.currentTimeMillis();
 
             try {
@@ -242,8 +300,8 @@ public class Player implements IConfig, ITickable {
                 try {
                     yesCom.accountHandler.login(account, authService);
                 } catch (RequestException error) {
-                    if (firstTime) {
-                        server.removePlayer(this); // Account is unusable, this isn't a valid player
+                    if (firstTime) { // Account is unusable, this isn't a valid player
+                        server.loginPipeline.runOnMainThread(() -> server.removePlayer(this)); // Fires events
                         return;
                     }
 
@@ -264,7 +322,13 @@ public class Player implements IConfig, ITickable {
                 MinecraftProtocol protocol = new MinecraftProtocol(authService.getSelectedProfile(), authService.getAccessToken());
                 Client client = new Client(server.hostname, server.port, protocol, new TcpSessionFactory(null));
 
-                session = new TcpClientSession(server.hostname, server.port, protocol, client, null);
+                shaper.update(server.behaviour.getPacketBudgets());
+                shaper.reset();
+                SharedLoopSession tcpSession = new SharedLoopSession(server.hostname, server.port, protocol, client, yesCom.networkEventLoop);
+                tcpSession.setHandoffMode(server.getPacketHandoffMode());
+                tcpSession.setHandoffCapacity(server.PACKET_HANDOFF_CAPACITY.value);
+                tcpSession.setWriteBatching(server.WRITE_BATCHING.value);
+                session = tcpSession;
                 session.addListener(server.adapter);
                 session.addListener(new PlayerSessionAdapter());
                 session.connect();
@@ -285,6 +349,12 @@ public class Player implements IConfig, ITickable {
         }
     }
 
+    private synchronized boolean beginConnecting() {
+        if (connecting) return false;
+        connecting = true;
+        return true;
+    }
+
     /**
      * Disconnects this player from the server, if they are connected.
      * @param reason The reason for disconnecting.
@@ -298,10 +368,79 @@ public class Player implements IConfig, ITickable {
     }
 
     /**
-     * Sends a packet to the server, duh.
+     * Sends a packet to the server, duh. The packet may be held back if it exceeds the server's packet budget, see
+     * {@link #canSend(Class[])}.
      */
     public void send(Packet packet) {
-        if (session != null) session.send(packet);
+        synchronized (shaper) { // So that the packets are actually sent in the order they're shaped in
+            if (session != null && shaper.offer(packet)) session.send(packet);
+        }
+    }
+
+    /**
+     * Starts a batch of packets on the current thread, they will be flushed together when the batch ends. Every call
+     * must be matched by a call to {@link #endBatch()}.
+     */
+    public void beginBatch() {
+        Session session = this.session;
+        if (session instanceof TcpSession) ((TcpSession)session).beginBatch();
+    }
+
+    /**
+     * Ends a batch of packets, see {@link #beginBatch()}.
+     */
+    public void endBatch() {
+        Session session = this.session;
+        if (session instanceof TcpSession) ((TcpSession)session).endBatch();
+    }
+
+    /**
+     * Checks if a bundle of packets can be sent without any of them being held back.
+     * @param packets The classes of the packets in the bundle, including duplicates.
+     * @return Does the bundle fit within the server's packet budget?
+     */
+    public boolean canSend(Class<?>... packets) {
+        return shaper.canSend(packets);
+    }
+
+    /**
+     * Adds a listener for this player's packets.
+     */
+    public void addPacketListener(IPacketListener listener) {
+        packetListeners.add(listener);
+        updateInterests();
+    }
+
+    public void removePacketListener(IPacketListener listener) {
+        packetListeners.remove(listener);
+        updateInterests();
+    }
+
+    /**
+     * Tells the session which packets we and our listeners need, so that it can skip decoding the rest.
+     */
+    public synchronized void updateInterests() {
+        if (!(session instanceof TcpSession)) return;
+        TcpSession tcpSession = (TcpSession)session;
+
+        if (!inGame || !server.SELECTIVE_DECODING.value) {
+            tcpSession.setSelectiveDecoding(false);
+            return;
+        }
+
+        Set<Class<? extends Packet>> interests = new HashSet<>(BASE_INTERESTS);
+        interests.addAll(PACKET_HANDLERS.getTypes());
+        for (IPacketListener listener : packetListeners) {
+            Collection<Class<? extends Packet>> listenerInterests = listener.getInterests();
+            if (listenerInterests == null) { // Needs everything
+                tcpSession.setSelectiveDecoding(false);
+                return;
+            }
+            interests.addAll(listenerInterests);
+        }
+
+        tcpSession.setInterests(interests);
+        tcpSession.setSelectiveDecoding(true);
     }
 
     /**
@@ -309,7 +448,7 @@ public class Player implements IConfig, ITickable {
      * @param message The message to send.
      */
     public void chat(String message) {
-        if (session != null) session.send(new ClientChatPacket(message));
+        send(new ClientChatPacket(message));
     }
 
     /* ------------------------------ Setters and getters ------------------------------ */
@@ -442,6 +581,9 @@ public class Player implements IConfig, ITickable {
      */
     public int getTSLP() {
         if (session == null) return 0;
+        long lastPacketTime = this.lastPacketTime;
+        // Skipped packets don't reach us, but the server is still sending them
+        if (session instanceof TcpSession) lastPacketTime = Math.max(lastPacketTime, ((TcpSession)session).getLastSkippedTime());
         return (int)(System.currentTimeMillis() - lastPacketTime);
     }
 
@@ -456,6 +598,156 @@ public class Player implements IConfig, ITickable {
         return serverTPS;
     }
 
+    /* ------------------------------ Packet handlers ------------------------------ */
+
+    private void onPositionRotation(ServerPlayerPositionRotationPacket packet) {
+        position.setX(packet.getX());
+        position.setY(packet.getY());
+        position.setZ(packet.getZ());
+        angle.setYaw(packet.getYaw());
+        angle.setPitch(packet.getPitch());
+
+        if (currentTeleportID < 0) {
+            logger.finer(String.format("%s logged in at xyz: %.1f, %.1f, %.1f dim: %s.", getUsername(),
+                    position.getX(), position.getY(), position.getZ(), dimension));
+
+            // We will confirm the first teleport, but subsequent ones are handled elsewhere
+            send(new ClientTeleportConfirmPacket(packet.getTeleportId()));
+        }
+        currentTeleportID = packet.getTeleportId();
+    }
+
+    private void onHealth(ServerPlayerHealthPacket packet) {
+        if (health != packet.getHealth() || hunger != packet.getFood() || saturation != packet.getSaturation())
+            Emitters.ON_PLAYER_HEALTH_UPDATE.emit(this);
+
+        health = packet.getHealth();
+        hunger = packet.getFood();
+        saturation = packet.getSaturation();
+
+        if (health <= 0.0f) {
+            disconnect("Dead.");
+            Emitters.ON_REPORT.emit(new DeadReport(this));
+            AUTO_RECONNECT.value = false;
+
+        } else if (health <= LOGOUT_HEALTH.value) {
+            disconnect(String.format("Low health (%.1f).", health));
+            Emitters.ON_REPORT.emit(new HealthLogoutReport(this, health));
+            lastAutoLogoutTime = System.currentTimeMillis();
+
+            if (DISABLE_AUTO_RECONNECT_ON_LOGOUT.value) {
+                logger.info(String.format("Auto reconnect disabled for %s.", getUsername()));
+                AUTO_RECONNECT.value = false;
+            }
+        }
+    }
+
+    private void onJoinGame(ServerJoinGamePacket packet) {
+        dimension = Dimension.fromMC(packet.getDimension());
+        Emitters.ON_PLAYER_POSITION_UPDATE.emit(this);
+
+        // Login packets are handled internally by MCProtocolLib, so we can only start skipping packets once in game
+        inGame = true;
+        updateInterests();
+    }
+
+    private void onRespawn(ServerRespawnPacket packet) {
+        dimension = Dimension.fromMC(packet.getDimension());
+        Emitters.ON_PLAYER_POSITION_UPDATE.emit(this);
+    }
+
+    private void onPlayerListEntry(ServerPlayerListEntryPacket packet) {
+        for (PlayerListEntry entry : packet.getEntries()) {
+            UUID uuid = entry.getProfile().getId();
+
+            if (uuid.equals(getUUID())) {
+                serverPing = entry.getPing();
+                logger.finer(String.format("%s server ping is %dms.", getUsername(), serverPing));
+                Emitters.ON_PLAYER_SERVER_STATS_UPDATE.emit(this);
+                // break;
+            }
+        }
+    }
+
+    private void onUpdateTime(ServerUpdateTimePacket packet) {
+        if (lastTimeUpdate == -1L) {
+            lastTimeUpdate = System.currentTimeMillis();
+            lastWorldTicks = packet.getWorldAge();
+        } else {
+            float newTPS = (packet.getWorldAge() - lastWorldTicks) / ((System.currentTimeMillis() - lastTimeUpdate) / 1000.0f);
+            lastTimeUpdate = System.currentTimeMillis();
+            lastWorldTicks = packet.getWorldAge();
+            if (newTPS <= 0.0f || newTPS >= 1000.0f || !Float.isFinite(newTPS)) return; // Damn
+
+            tickValues.add(newTPS);
+            while (tickValues.size() > 5) tickValues.remove(0);
+
+            float old = serverTPS;
+
+            serverTPS = 0.0f;
+            for (float value : tickValues) serverTPS += value;
+            serverTPS /= tickValues.size();
+            // logger.finest(String.format("%s:%d estimated tickrate: %.1f", server.hostname, server.port, serverTPS));
+
+            if (old != 0.0f && Math.abs(serverTPS - old) > server.EXTREME_TPS_CHANGE.value) {
+                logger.finer(String.format("%s extreme TPS change, old: %.1f, new: %.1f.", getUsername(),
+                        old, serverTPS));
+                Emitters.ON_REPORT.emit(new ExtremeTPSReport(this, old));
+            }
+            Emitters.ON_PLAYER_SERVER_STATS_UPDATE.emit(this);
+        }
+    }
+
+    private void onOpenWindow(ServerOpenWindowPacket packet) {
+        currentWindowID = packet.getWindowId();
+    }
+
+    private void onWindowItems(ServerWindowItemsPacket packet) {
+        if (packet.getWindowId() >= 0 && packet.getWindowId() <= 100) currentWindowID = packet.getWindowId();
+    }
+
+    private void onWindowProperty(ServerWindowPropertyPacket packet) {
+        if (packet.getWindowId() >= 0 && packet.getWindowId() <= 100) currentWindowID = packet.getWindowId();
+    }
+
+    private void onSetSlot(ServerSetSlotPacket packet) {
+        if (packet.getWindowId() >= 0 && packet.getWindowId() <= 100) currentWindowID = packet.getWindowId();
+    }
+
+    private void onCloseWindow(ServerCloseWindowPacket packet) {
+        currentWindowID = packet.getWindowId();
+    }
+
+    private void onChunkData(ServerChunkDataPacket packet) {
+        loadedChunks.add(new ChunkPosition(packet.getX(), packet.getZ()));
+        lastChunkPacket = System.currentTimeMillis(); // FIXME: Moving across chunks, big updates, etc
+
+        Emitters.ON_PLAYER_SERVER_STATS_UPDATE.emit(this);
+    }
+
+    private void onUnloadChunk(ServerUnloadChunkPacket packet) {
+        loadedChunks.remove(new ChunkPosition(packet.getX(), packet.getZ()));
+
+        Emitters.ON_PLAYER_SERVER_STATS_UPDATE.emit(this);
+    }
+
+    private void onSpawnPlayer(ServerSpawnPlayerPacket packet) {
+        if (VISUAL_RANGE_LOGOUT.value && !server.isTrusted(packet.getUUID())) {
+            String playerName = yesCom.playersHandler.getName(packet.getUUID(), packet.getUUID().toString());
+            disconnect(String.format("%s entered visual range at xyz: %.1f, %.1f, %.1f.", playerName,
+                    packet.getX(), packet.getY(), packet.getY()));
+            Emitters.ON_REPORT.emit(new VisualRangeLogoutReport(this, packet.getUUID()));
+            lastAutoLogoutTime = System.currentTimeMillis();
+
+            // TODO: If other players are online, tracking is an option, etc...
+
+            if (DISABLE_AUTO_RECONNECT_ON_LOGOUT.value) {
+                logger.info(String.format("Auto reconnect disabled for %s.", getUsername()));
+                AUTO_RECONNECT.value = false;
+            }
+        }
+    }
+
     /* ------------------------------ Classes ------------------------------ */
 
     /**
@@ -474,6 +766,14 @@ public class Player implements IConfig, ITickable {
          * @param packet The packet that was sent.
          */
         void packetOut(Packet packet);
+
+        /**
+         * @return The classes of the packets that this listener needs to receive, null if it needs all of them. Any
+         *         packets that no listener needs may not be decoded at all.
+         */
+        default Collection<Class<? extends Packet>> getInterests() {
+            return null;
+        }
     }
 
     private class PlayerSessionAdapter extends SessionAdapter {
@@ -498,151 +798,7 @@ public class Player implements IConfig, ITickable {
                 if (message != null) server.handleChatMessage(message); // Can be ignored by the server, etc
             }
 
-            if (event.getPacket() instanceof ServerPlayerPositionRotationPacket) {
-                ServerPlayerPositionRotationPacket packet = event.getPacket();
-
-                position.setX(packet.getX());
-                position.setY(packet.getY());
-                position.setZ(packet.getZ());
-                angle.setYaw(packet.getYaw());
-                angle.setPitch(packet.getPitch());
-
-                if (currentTeleportID < 0) {
-                    logger.finer(String.format("%s logged in at xyz: %.1f, %.1f, %.1f dim: %s.", getUsername(),
-                            position.getX(), position.getY(), position.getZ(), dimension));
-
-                    // We will confirm the first teleport, but subsequent ones are handled elsewhere
-                    session.send(new ClientTeleportConfirmPacket(packet.getTeleportId()));
-                }
-                currentTeleportID = packet.getTeleportId();
-
-            } else if (event.getPacket() instanceof ServerPlayerHealthPacket) {
-                ServerPlayerHealthPacket packet = event.getPacket();
-
-                if (health != packet.getHealth() || hunger != packet.getFood() || saturation != packet.getSaturation())
-                    Emitters.ON_PLAYER_HEALTH_UPDATE.emit(Player.this);
-
-                health = packet.getHealth();
-                hunger = packet.getFood();
-                saturation = packet.getSaturation();
-
-                if (health <= 0.0f) {
-                    disconnect("Dead.");
-                    Emitters.ON_REPORT.emit(new DeadReport(Player.this));
-                    AUTO_RECONNECT.value = false;
-
-                } else if (health <= LOGOUT_HEALTH.value) {
-                    disconnect(String.format("Low health (%.1f).", health));
-                    Emitters.ON_REPORT.emit(new HealthLogoutReport(Player.this, health));
-                    lastAutoLogoutTime = System.currentTimeMillis();
-
-                    if (DISABLE_AUTO_RECONNECT_ON_LOGOUT.value) {
-                        logger.info(String.format("Auto reconnect disabled for %s.", getUsername()));
-                        AUTO_RECONNECT.value = false;
-                    }
-                }
-
-            } else if (event.getPacket() instanceof ServerJoinGamePacket) {
-                dimension = Dimension.fromMC(((ServerJoinGamePacket)event.getPacket()).getDimension());
-                Emitters.ON_PLAYER_POSITION_UPDATE.emit(Player.this);
-
-            } else if (event.getPacket() instanceof ServerRespawnPacket) {
-                dimension = Dimension.fromMC(((ServerRespawnPacket)event.getPacket()).getDimension());
-                Emitters.ON_PLAYER_POSITION_UPDATE.emit(Player.this);
-
-            } else if (event.getPacket() instanceof ServerPlayerListEntryPacket) {
-                ServerPlayerListEntryPacket packet = event.getPacket();
-
-                for (PlayerListEntry entry : packet.getEntries()) {
-                    UUID uuid = entry.getProfile().getId();
-
-                    if (uuid.equals(getUUID())) {
-                        serverPing = entry.getPing();
-                        logger.finer(String.format("%s server ping is %dms.", getUsername(), serverPing));
-                        Emitters.ON_PLAYER_SERVER_STATS_UPDATE.emit(Player.this);
-                        // break;
-                    }
-                }
-
-            } else if (event.getPacket() instanceof ServerUpdateTimePacket) {
-                ServerUpdateTimePacket packet = event.getPacket();
-
-                if (lastTimeUpdate == -1L) {
-                    lastTimeUpdate = System.currentTimeMillis();
-                    lastWorldTicks = packet.getWorldAge();
-                } else {
-                    float newTPS = (packet.getWorldAge() - lastWorldTicks) / ((System.currentTimeMillis() - lastTimeUpdate) / 1000.0f);
-                    lastTimeUpdate = System.currentTimeMillis();
-                    lastWorldTicks = packet.getWorldAge();
-                    if (newTPS <= 0.0f || newTPS >= 1000.0f || !Float.isFinite(newTPS)) return; // Damn
-
-                    tickValues.add(newTPS);
-                    while (tickValues.size() > 5) tickValues.remove(0);
-
-                    float old = serverTPS;
-
-                    serverTPS = 0.0f;
-                    for (float value : tickValues) serverTPS += value;
-                    serverTPS /= tickValues.size();
-                    // logger.finest(String.format("%s:%d estimated tickrate: %.1f", server.hostname, server.port, serverTPS));
-
-                    if (old != 0.0f && Math.abs(serverTPS - old) > server.EXTREME_TPS_CHANGE.value) {
-                        logger.finer(String.format("%s extreme TPS change, old: %.1f, new: %.1f.", getUsername(),
-                                old, serverTPS));
-                        Emitters.ON_REPORT.emit(new ExtremeTPSReport(Player.this, old));
-                    }
-                    Emitters.ON_PLAYER_SERVER_STATS_UPDATE.emit(Player.this);
-                }
-
-            } else if (event.getPacket() instanceof ServerOpenWindowPacket) {
-                currentWindowID = ((ServerOpenWindowPacket)event.getPacket()).getWindowId();
-
-            } else if (event.getPacket() instanceof ServerWindowItemsPacket) {
-                ServerWindowItemsPacket packet = event.getPacket();
-                if (packet.getWindowId() >= 0 && packet.getWindowId() <= 100) currentWindowID = packet.getWindowId();
-
-            } else if (event.getPacket() instanceof ServerWindowPropertyPacket) {
-                ServerWindowPropertyPacket packet = event.getPacket();
-                if (packet.getWindowId() >= 0 && packet.getWindowId() <= 100) currentWindowID = packet.getWindowId();
-
-            } else if (event.getPacket() instanceof ServerSetSlotPacket) {
-                ServerSetSlotPacket packet = event.getPacket();
-                if (packet.getWindowId() >= 0 && packet.getWindowId() <= 100) currentWindowID = packet.getWindowId();
-
-            } else if (event.getPacket() instanceof ServerCloseWindowPacket) {
-                currentWindowID = ((ServerCloseWindowPacket)event.getPacket()).getWindowId();
-
-            } else if (event.getPacket() instanceof ServerChunkDataPacket) {
-                ServerChunkDataPacket packet = event.getPacket();
-                loadedChunks.add(new ChunkPosition(packet.getX(), packet.getZ()));
-                lastChunkPacket = System.currentTimeMillis(); // FIXME: Moving across chunks, big updates, etc
-
-                Emitters.ON_PLAYER_SERVER_STATS_UPDATE.emit(Player.this);
-
-            } else if (event.getPacket() instanceof ServerUnloadChunkPacket) {
-                ServerUnloadChunkPacket packet = event.getPacket();
-                loadedChunks.remove(new ChunkPosition(packet.getX(), packet.getZ()));
-
-                Emitters.ON_PLAYER_SERVER_STATS_UPDATE.emit(Player.this);
-
-            } else if (event.getPacket() instanceof ServerSpawnPlayerPacket) {
-                ServerSpawnPlayerPacket packet = event.getPacket();
-
-                if (VISUAL_RANGE_LOGOUT.value && !server.isTrusted(packet.getUUID())) {
-                    String playerName = yesCom.playersHandler.getName(packet.getUUID(), packet.getUUID().toString());
-                    disconnect(String.format("%s entered visual range at xyz: %.1f, %.1f, %.1f.", playerName,
-                            packet.getX(), packet.getY(), packet.getY()));
-                    Emitters.ON_REPORT.emit(new VisualRangeLogoutReport(Player.this, packet.getUUID()));
-                    lastAutoLogoutTime = System.currentTimeMillis();
-
-                    // TODO: If other players are online, tracking is an option, etc...
-
-                    if (DISABLE_AUTO_RECONNECT_ON_LOGOUT.value) {
-                        logger.info(String.format("Auto reconnect disabled for %s.", getUsername()));
-                        AUTO_RECONNECT.value = false;
-                    }
-                }
-            }
+            PACKET_HANDLERS.dispatch(Player.this, event.getPacket());
         }
 
         @Override
@@ -666,6 +822,9 @@ public class Player implements IConfig, ITickable {
             logger.info(String.format("%s was disconnected for: %s", getUsername(), event.getReason()));
             Emitters.ON_PLAYER_LOGOUT.emit(new Emitters.PlayerLogout(Player.this, event.getReason()));
 
+            // The session server rejected our access token (401), so don't reconnect with it again
+            if (event.getCause() instanceof InvalidCredentialsException) yesCom.accountHandler.onSessionRejected(account);
+
             lastLoginTime = System.currentTimeMillis();
             if (!isSpawned()) {
                 lastLoginTime += server.AUTO_RECONNECT_TIME.value * Math.min(10, (long)failedConnections++);
@@ -675,6 +834,7 @@ public class Player implements IConfig, ITickable {
             loadedChunks.clear();
 
             dimension = null;
+            inGame = false;
 
             currentTeleportID = -1;
             currentWindowID = -1;
@@ -1,13 +1,13 @@
 package ez.pogdog.yescom.core.connection;
 
 import com.github.steveice10.mc.auth.data.GameProfile;
-import com.github.steveice10.mc.auth.exception.request.RequestException;
 import com.github.steveice10.mc.protocol.data.game.PlayerListEntry;
 import com.github.steveice10.mc.protocol.data.game.PlayerListEntryAction;
 import com.github.steveice10.mc.protocol.packet.ingame.server.ServerChatPacket;
 import com.github.steveice10.mc.protocol.packet.ingame.server.ServerPlayerListEntryPacket;
 import com.github.steveice10.packetlib.event.session.PacketReceivedEvent;
 import com.github.steveice10.packetlib.event.session.SessionAdapter;
+import com.github.steveice10.packetlib.tcp.PacketHandoff;
 import com.google.gson.JsonObject;
 import ez.pogdog.yescom.YesCom;
 import ez.pogdog.yescom.api.Globals;
@@ -21,12 +21,12 @@ import ez.pogdog.yescom.api.data.player.death.Death;
 import ez.pogdog.yescom.api.data.player.death.Kill;
 import ez.pogdog.yescom.core.Emitters;
 import ez.pogdog.yescom.core.ITickable;
-import ez.pogdog.yescom.core.account.IAccount;
 import ez.pogdog.yescom.core.config.IConfig;
 import ez.pogdog.yescom.core.config.Option;
 import ez.pogdog.yescom.core.query.IQuery;
 import ez.pogdog.yescom.core.query.IQueryHandle;
 import ez.pogdog.yescom.core.query.invalidmove.InvalidMoveHandle;
+import ez.pogdog.yescom.core.query.invalidmove.InvalidMoveRouter;
 import ez.pogdog.yescom.core.report.connection.HighTSLPReport;
 import ez.pogdog.yescom.core.scanning.IScanner;
 import ez.pogdog.yescom.core.scanning.ITask;
@@ -38,6 +38,7 @@ import java.util.Base64;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.Set;
@@ -95,6 +96,27 @@ public class Server implements IConfig, ITickable {
             "The maximum number of failed login attempts before disabling auto reconnect.",
             5
     );
+    public final Option<Boolean> SELECTIVE_DECODING = new Option<>(
+            "Selective decoding",
+            "Skips decoding packets that no listener is interested in, once players are in game.",
+            true
+    );
+    public final Option<Boolean> WRITE_BATCHING = new Option<>(
+            "Write batching",
+            "Flushes the packets sent in the same tick or query dispatch together, rather than one syscall per packet.",
+            true
+    );
+    public final Option<String> PACKET_HANDOFF = new Option<>(
+            "Packet handoff",
+            "How decoded packets are handed to the listeners: \"inline\" (on the network thread), \"ring\", \"virtual_thread\" " +
+                    "or \"auto\" (virtual threads if supported, otherwise inline).",
+            "auto"
+    );
+    public final Option<Integer> PACKET_HANDOFF_CAPACITY = new Option<>(
+            "Packet handoff capacity",
+            "The number of packets that can wait to be handed off before reading is paused.",
+            4096
+    );
 
     public final Option<Double> EXTREME_TPS_CHANGE = new Option<>( // These have to be doubles unfortunately, for YAML and Python :(
             "Extreme TPS change",
@@ -125,6 +147,8 @@ public class Server implements IConfig, ITickable {
     public final InvalidMoveHandle overworldInvalidMoveHandle;
     public final InvalidMoveHandle netherInvalidMoveHandle;
     public final InvalidMoveHandle endInvalidMoveHandle;
+    public final InvalidMoveRouter invalidMoveRouter;
+    public final LoginPipeline loginPipeline;
 
     private final List<IScanner> scanners = new ArrayList<>();
     private final List<ITask> tasks = new ArrayList<>();
@@ -165,6 +189,11 @@ public class Server implements IConfig, ITickable {
         overworldInvalidMoveHandle = new InvalidMoveHandle(this, Dimension.OVERWORLD);
         netherInvalidMoveHandle = new InvalidMoveHandle(this, Dimension.NETHER);
         endInvalidMoveHandle = new InvalidMoveHandle(this, Dimension.END);
+        invalidMoveRouter = new InvalidMoveRouter(
+                this, overworldInvalidMoveHandle, netherInvalidMoveHandle, endInvalidMoveHandle
+        );
+
+        loginPipeline = new LoginPipeline(this);
 
         handles.add(overworldInvalidMoveHandle);
         handles.add(netherInvalidMoveHandle);
@@ -224,26 +253,7 @@ public class Server implements IConfig, ITickable {
      */
     @Override
     public synchronized void tick() {
-        Set<IAccount> accounts = yesCom.accountHandler.getAvailableAccounts();
-        if (!accounts.isEmpty()) {
-            boolean loggedIn = false;
-            // logger.finer(String.format("Adding %d account(s) to %s:%d...", accounts.size(), hostname, port));
-            outer: for (IAccount account : accounts) { // FIXME: Way too slow, some sort of emitter?
-                for (Player player : players) {
-                    if (player.account.equals(account)) continue outer;
-                }
-
-                try {
-                    addPlayer(new Player(this, account));
-                    loggedIn = true;
-                } catch (RequestException error) {
-                    logger.warning(String.format("Failed to add account %s to %s:%d: %s.", account, hostname, port, error.getMessage()));
-                    logger.throwing(getClass().getSimpleName(), "onAccountAdded", error);
-                }
-
-                if (loggedIn) break; // Login max 1 account per tick
-            }
-        }
+        loginPipeline.tick(); // Logins themselves happen on the login threads
         // logger.finer(String.format("Server %s:%d has %d usable player(s).", hostname, port, players.size()));
 
         int connectedCount = 0;
@@ -474,6 +484,7 @@ public class Server implements IConfig, ITickable {
     public void removePlayer(Player player) {
         if (players.contains(player)) {
             players.remove(player);
+            loginPipeline.onPlayerRemoved(player);
             Emitters.ON_PLAYER_REMOVED.emit(player);
         }
     }
@@ -498,6 +509,22 @@ public class Server implements IConfig, ITickable {
         disconnectAll(reason, false);
     }
 
+    /**
+     * @return The packet handoff mode from {@link #PACKET_HANDOFF}, {@link PacketHandoff#getDefaultMode()} if it's "auto"
+     *         or invalid.
+     */
+    public PacketHandoff.Mode getPacketHandoffMode() {
+        if (PACKET_HANDOFF.value != null && PACKET_HANDOFF.value.trim().equalsIgnoreCase("auto"))
+            return PacketHandoff.getDefaultMode();
+        try {
+            return PacketHandoff.Mode.valueOf(PACKET_HANDOFF.value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException | NullPointerException error) {
+            PacketHandoff.Mode mode = PacketHandoff.getDefaultMode();
+            logger.warning(String.format("Invalid packet handoff mode %s, using %s.", PACKET_HANDOFF.value, mode.name().toLowerCase(Locale.ROOT)));
+            return mode;
+        }
+    }
+
     /**
      * @return Can players currently log into this server? (Based on {@link #GLOBAL_LOGIN_TIME}).
      */
@@ -0,0 +1,93 @@
+package ez.pogdog.yescom.core.connection;
+
+import com.github.steveice10.packetlib.Client;
+import com.github.steveice10.packetlib.packet.PacketProtocol;
+import com.github.steveice10.packetlib.tcp.TcpPacketCodec;
+import com.github.steveice10.packetlib.tcp.TcpPacketEncryptor;
+import com.github.steveice10.packetlib.tcp.TcpPacketSizer;
+import com.github.steveice10.packetlib.tcp.TcpSession;
+import ez.pogdog.yescom.core.threads.NetworkEventLoop;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+
+import javax.naming.directory.InitialDirContext;
+import java.net.InetSocketAddress;
+import java.util.Hashtable;
+
+/**
+ * A client session that runs on the shared {@link NetworkEventLoop}, rather than starting its own event loop group, as
+ * {@link com.github.steveice10.packetlib.tcp.TcpClientSession} does. Disconnecting only closes the channel.
+ */
+public class SharedLoopSession extends TcpSession {
+
+    private final Client client;
+    private final NetworkEventLoop eventLoop;
+
+    public SharedLoopSession(String host, int port, PacketProtocol protocol, Client client, NetworkEventLoop eventLoop) {
+        super(host, port, protocol);
+
+        this.client = client;
+        this.eventLoop = eventLoop;
+    }
+
+    @Override
+    public void connect(boolean wait) {
+        if (disconnected) throw new IllegalStateException("Session has already been disconnected.");
+
+        Bootstrap bootstrap = new Bootstrap()
+                .group(eventLoop.getGroup())
+                .channel(eventLoop.getChannelClass())
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, getConnectTimeout() * 1000)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) {
+                        getPacketProtocol().newClientSession(client, SharedLoopSession.this);
+
+                        channel.config().setOption(ChannelOption.IP_TOS, 0x18);
+                        channel.config().setOption(ChannelOption.TCP_NODELAY, false);
+
+                        ChannelPipeline pipeline = channel.pipeline();
+                        refreshReadTimeoutHandler(channel);
+                        refreshWriteTimeoutHandler(channel);
+
+                        pipeline.addLast("encryption", new TcpPacketEncryptor(SharedLoopSession.this));
+                        pipeline.addLast("sizer", new TcpPacketSizer(SharedLoopSession.this));
+                        pipeline.addLast("codec", new TcpPacketCodec(SharedLoopSession.this));
+                        pipeline.addLast("manager", SharedLoopSession.this);
+                    }
+                });
+
+        ChannelFuture future = bootstrap.connect(resolveAddress());
+        future.addListener(future1 -> {
+            if (!future1.isSuccess()) exceptionCaught(null, future1.cause());
+        });
+        if (wait) future.awaitUninterruptibly();
+    }
+
+    /**
+     * Resolves the server's SRV record, if it has one, same as the vanilla client.
+     */
+    private InetSocketAddress resolveAddress() {
+        String host = getHost();
+        int port = getPort();
+
+        try {
+            Hashtable<String, String> environment = new Hashtable<>();
+            environment.put("java.naming.factory.initial", "com.sun.jndi.dns.DnsContextFactory");
+            environment.put("java.naming.provider.url", "dns:");
+
+            String[] record = new InitialDirContext(environment)
+                    .getAttributes("_minecraft._tcp." + host, new String[] { "SRV" })
+                    .get("srv").get().toString().split(" ", 4);
+            host = record[3];
+            port = Integer.parseInt(record[2]);
+        } catch (Throwable ignored) { // No SRV record, use the address as given
+        }
+
+        return new InetSocketAddress(host, port);
+    }
+}
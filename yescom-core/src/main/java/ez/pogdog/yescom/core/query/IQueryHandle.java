@@ -3,6 +3,7 @@ package ez.pogdog.yescom.core.query;
 import ez.pogdog.yescom.api.data.Dimension;
 import ez.pogdog.yescom.core.ITickable;
 
+import java.util.Collection;
 import java.util.function.Consumer;
 
 /**
@@ -11,6 +12,13 @@ import java.util.function.Consumer;
 @SuppressWarnings("rawtypes")
 public interface IQueryHandle<T extends IQuery> extends ITickable {
 
+    /**
+     * How far ahead, in ticks, submitters look when sizing their work to {@link #getThroughputFor(int)}. Handles signal
+     * {@link ez.pogdog.yescom.core.Emitters#ON_QUERY_CAPACITY_AVAILABLE} once there's room for at least one more query
+     * in this time.
+     */
+    int CAPACITY_AHEAD = 10;
+
     /**
      * Ticks this handle.
      */
@@ -29,6 +37,15 @@ public interface IQueryHandle<T extends IQuery> extends ITickable {
      */
     void dispatch(T query, Consumer<T> callback);
 
+    /**
+     * Dispatches a batch of queries.
+     * @param queries The queries to dispatch.
+     * @param callback The callback to call when each query is complete.
+     */
+    default void dispatch(Collection<T> queries, Consumer<T> callback) {
+        for (T query : queries) dispatch(query, callback);
+    }
+
     /**
      * Cancels a query.
      * @param query The query to cancel.
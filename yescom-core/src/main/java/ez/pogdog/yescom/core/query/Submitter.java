@@ -0,0 +1,93 @@
+package ez.pogdog.yescom.core.query;
+
+/**
+ * Something that submits queries, a task or a scanner, for example. Queries of the same priority are shared between
+ * submitters in proportion to their weights (see {@link ez.pogdog.yescom.core.query.loaded.FairQueryQueue}), and the
+ * throughput each submitter actually gets is recorded here.
+ */
+public class Submitter {
+
+    /**
+     * Used for queries that weren't submitted with a submitter.
+     */
+    public static final Submitter DEFAULT = new Submitter("default", 1.0);
+
+    private static final double RATE_WINDOW = 10000.0; // Milliseconds, how quickly the throughput estimate decays
+
+    public final String name;
+
+    private volatile double weight;
+
+    private long submitted = 0;
+    private long resolved = 0;
+    private double resolvedRate = 0.0; // Exponentially decayed count of resolved queries
+    private long lastResolved = System.currentTimeMillis();
+
+    /**
+     * @param name A human-readable name, for logging.
+     * @param weight The weight of this submitter, relative to the others.
+     */
+    public Submitter(String name, double weight) {
+        this.name = name;
+        this.weight = weight;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Submitter(name=%s, weight=%.2f)", name, weight);
+    }
+
+    /**
+     * Records that a query has been submitted.
+     */
+    public synchronized void onSubmitted() {
+        ++submitted;
+    }
+
+    /**
+     * Records that a query has been resolved.
+     */
+    public synchronized void onResolved() {
+        ++resolved;
+        decay();
+        ++resolvedRate;
+    }
+
+    private void decay() {
+        long currentTime = System.currentTimeMillis();
+        resolvedRate *= Math.exp(-(currentTime - lastResolved) / RATE_WINDOW);
+        lastResolved = currentTime;
+    }
+
+    /* ------------------------------ Setters and getters ------------------------------ */
+
+    public double getWeight() {
+        return weight;
+    }
+
+    public void setWeight(double weight) {
+        this.weight = weight;
+    }
+
+    /**
+     * @return The total number of queries submitted.
+     */
+    public synchronized long getSubmitted() {
+        return submitted;
+    }
+
+    /**
+     * @return The total number of queries that have been resolved.
+     */
+    public synchronized long getResolved() {
+        return resolved;
+    }
+
+    /**
+     * @return The recent number of queries resolved per second.
+     */
+    public synchronized float getThroughput() {
+        decay();
+        return (float)(resolvedRate * 1000.0 / RATE_WINDOW);
+    }
+}
@@ -0,0 +1,172 @@
+package ez.pogdog.yescom.core.query;
+
+import ez.pogdog.yescom.YesCom;
+import ez.pogdog.yescom.api.Logging;
+import ez.pogdog.yescom.core.ITickable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Hashed timing wheel, for query expiries and response deadlines. Scheduling and cancelling are O(1), and timeouts
+ * are fired on the main tick thread, at a resolution of one tick.
+ */
+public class TimingWheel implements ITickable {
+
+    private final Logger logger = Logging.getLogger("yescom.core.query");
+
+    private final Timeout[] slots; // Heads of the linked list of timeouts in each slot
+    private final int mask;
+    private final long tickDuration;
+    private final long startTime;
+
+    private long currentTick = 0;
+    private int size = 0;
+    private long fired = 0;
+
+    /**
+     * @param tickDuration The resolution of the wheel, in milliseconds.
+     * @param wheelSize The number of slots in the wheel, rounded up to a power of 2.
+     */
+    public TimingWheel(long tickDuration, int wheelSize) {
+        this.tickDuration = Math.max(1, tickDuration);
+
+        int slotCount = 1;
+        while (slotCount < wheelSize) slotCount <<= 1;
+        slots = new Timeout[slotCount];
+        mask = slotCount - 1;
+
+        startTime = System.currentTimeMillis();
+        YesCom.getInstance().tickables.add(this);
+    }
+
+    public TimingWheel() {
+        this(50, 512);
+    }
+
+    @Override
+    public void tick() {
+        List<Timeout> expired = new ArrayList<>();
+        synchronized (this) {
+            long targetTick = (System.currentTimeMillis() - startTime) / tickDuration;
+            // If we've fallen behind by more than a rotation, we only need to look at every slot once
+            long ticks = Math.min(targetTick - currentTick, slots.length);
+            for (long tick = 1; tick <= ticks; ++tick) {
+                Timeout timeout = slots[(int)(currentTick + tick & mask)];
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.deadline <= targetTick) { // Otherwise it's for a later rotation
+                        unlink(timeout);
+                        expired.add(timeout);
+                    }
+                    timeout = next;
+                }
+            }
+            currentTick = Math.max(currentTick, targetTick);
+            fired += expired.size();
+        }
+
+        for (Timeout timeout : expired) {
+            try {
+                timeout.task.run();
+            } catch (Exception error) {
+                logger.warning(String.format("Error while running timeout: %s", error.getMessage()));
+                logger.throwing(getClass().getSimpleName(), "tick", error);
+            }
+        }
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            slots[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) timeout.next.previous = timeout.previous;
+
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.slot = -1;
+        --size;
+    }
+
+    /* ------------------------------ Public API ------------------------------ */
+
+    /**
+     * Schedules a task to be run after the given delay.
+     * @param delay The delay, in milliseconds.
+     * @param task The task to run, this will be run on the main tick thread.
+     * @return The {@link Timeout}, which can be used to cancel the task.
+     */
+    public synchronized Timeout schedule(long delay, Runnable task) {
+        long elapsed = System.currentTimeMillis() - startTime + Math.max(0, delay);
+        long deadline = Math.max(currentTick + 1, (elapsed + tickDuration - 1) / tickDuration);
+
+        Timeout timeout = new Timeout(task, deadline);
+        timeout.slot = (int)(deadline & mask);
+        timeout.next = slots[timeout.slot];
+        if (timeout.next != null) timeout.next.previous = timeout;
+        slots[timeout.slot] = timeout;
+        ++size;
+
+        return timeout;
+    }
+
+    /* ------------------------------ Setters and getters ------------------------------ */
+
+    /**
+     * @return The number of timeouts currently scheduled.
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * @return The total number of timeouts that have fired.
+     */
+    public synchronized long getFired() {
+        return fired;
+    }
+
+    /* ------------------------------ Classes ------------------------------ */
+
+    /**
+     * A scheduled task.
+     */
+    public final class Timeout {
+
+        private final Runnable task;
+        private final long deadline; // The tick to fire at
+
+        private Timeout previous;
+        private Timeout next;
+        private int slot = -1;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels this timeout, if it hasn't already fired.
+         * @return Was the timeout actually cancelled?
+         */
+        public boolean cancel() {
+            synchronized (TimingWheel.this) {
+                if (slot < 0) return false;
+                unlink(this);
+                return true;
+            }
+        }
+
+        /**
+         * @return Is this timeout still waiting to fire?
+         */
+        public boolean isPending() {
+            synchronized (TimingWheel.this) {
+                return slot >= 0;
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package ez.pogdog.yescom.core.query.invalidmove;
 
 import ez.pogdog.yescom.YesCom;
 import ez.pogdog.yescom.api.Logging;
+import ez.pogdog.yescom.api.data.ChunkState;
 import ez.pogdog.yescom.api.data.Dimension;
 import ez.pogdog.yescom.core.Emitters;
 import ez.pogdog.yescom.core.config.IConfig;
@@ -10,14 +11,15 @@ import ez.pogdog.yescom.core.connection.Player;
 import ez.pogdog.yescom.core.connection.Server;
 import ez.pogdog.yescom.core.query.IQuery;
 import ez.pogdog.yescom.core.query.IQueryHandle;
+import ez.pogdog.yescom.core.query.loaded.FairQueryQueue;
+import ez.pogdog.yescom.core.query.loaded.IsLoadedQuery;
 
-import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
@@ -39,16 +41,82 @@ public class InvalidMoveHandle implements IQueryHandle<InvalidMoveQuery>, IConfi
 
     public final Option<Double> QUERIES_PER_TICK = new Option<>(
             "Queries per tick",
-            "The number of queries to dispatch, per tick, per player.",
+            "The maximum number of queries to dispatch, per tick, per player.",
             1.0
     );
 
+    public final Option<Double> INITIAL_WINDOW = new Option<>(
+            "Initial window",
+            "The number of queries each player can have in-flight when they first start querying.",
+            2.0
+    );
+    public final Option<Double> MIN_WINDOW = new Option<>(
+            "Min window",
+            "The minimum number of queries each player can have in-flight.",
+            1.0
+    );
+    public final Option<Double> MAX_WINDOW = new Option<>(
+            "Max window",
+            "The maximum number of queries each player can have in-flight.",
+            40.0
+    );
+    public final Option<Double> WINDOW_INCREASE = new Option<>(
+            "Window increase",
+            "How much the in-flight window grows by, per window of queries finalised without issue.",
+            1.0
+    );
+    public final Option<Double> WINDOW_DECREASE = new Option<>(
+            "Window decrease",
+            "The factor the in-flight window shrinks by on nff, unexpected setbacks and timeouts.",
+            0.5
+    );
+
     // public final Option<Integer> PLACE_BLOCK_LIMIT = new Option<>(
     //         "Place block limit",
     //         "The Paper place block limit, in milliseconds (300 on constantiam.net).",
     //         300
     // );
 
+    public final Option<Double> PARTITION_AHEAD = new Option<>(
+            "Partition ahead",
+            "How many ticks worth of queries to assign to each player ahead of time.",
+            2.0
+    );
+    public final Option<Boolean> WORK_STEALING = new Option<>(
+            "Work stealing",
+            "Allows idle players to take queries that have been assigned to busier players.",
+            true
+    );
+
+    public final Option<Integer> MAX_RESCHEDULES = new Option<>(
+            "Max reschedules",
+            "The number of times a query can be rescheduled before it is considered failed.",
+            10
+    );
+    public final Option<Integer> AGING_INTERVAL = new Option<>(
+            "Aging interval",
+            "How long a waiting query can wait before it is promoted to the next priority up (up to high), in " +
+                    "milliseconds. Only applies to queries that don't expire. 0 to disable.",
+            0
+    );
+
+    public final Option<Integer> MAX_QUEUE_TICKS = new Option<>(
+            "Max queue ticks",
+            "How many ticks worth of queries (at the estimated capacity) can be waiting, before new queries are " +
+                    "deferred or rejected.",
+            200
+    );
+    public final Option<Integer> MIN_QUEUE_SIZE = new Option<>(
+            "Min queue size",
+            "The minimum number of queries that can be waiting, regardless of the estimated capacity.",
+            100
+    );
+    public final Option<Boolean> REJECT_WHEN_FULL = new Option<>(
+            "Reject when full",
+            "Rejects new queries when the waiting queue is full, rather than deferring them until there is capacity.",
+            false
+    );
+
     public final Option<Boolean> USE_ENTITY_STORAGES = new Option<>(
             "Use entity storages",
             "Allows YesCom to use certain entities as valid storages.",
@@ -85,21 +153,36 @@ public class InvalidMoveHandle implements IQueryHandle<InvalidMoveQuery>, IConfi
 
     /* ------------------------------ Other fields ------------------------------ */
 
-    public final Map<Player, PlayerHandle> available = new ConcurrentHashMap<>();
+    public final Map<Player, PlayerHandle> available = new ConcurrentHashMap<>(); // Attached by the InvalidMoveRouter
 
-    public final Queue<InvalidMoveQuery> waiting = new PriorityQueue<>();
-    public final Queue<InvalidMoveQuery> rescheduled = new ArrayDeque<>();
-    public final Set<InvalidMoveQuery> cancelled = new HashSet<>();
+    // Not yet assigned to a player, rescheduled queries go back in here too. Shared fairly between submitters
+    public final FairQueryQueue<InvalidMoveQuery> waiting = new FairQueryQueue<>();
+    // Submitted when the waiting queue was full, admitted in priority order when there's room again
+    public final FairQueryQueue<InvalidMoveQuery> deferred = new FairQueryQueue<>();
+    public final Set<InvalidMoveQuery> processing = new HashSet<>(); // Dispatched by a player, no response yet
 
-    // Record these separately
+    // Every query we have that hasn't completed yet, and its callback (which can be null)
     public final Map<InvalidMoveQuery, Consumer<InvalidMoveQuery>> callbacks = new HashMap<>();
 
+    private final long[] completed = new long[IsLoadedQuery.Status.values().length];
+    // By priority, queries with deadlines that were resolved or expired, and how many of those missed their deadline
+    private final long[] deadlinesCompleted = new long[IsLoadedQuery.Priority.values().length];
+    private final long[] deadlinesMissed = new long[IsLoadedQuery.Priority.values().length];
+    private int aged = 0;
+    private long rejected = 0;
+
+    private int queueLimit = MIN_QUEUE_SIZE.value; // Until the first tick works it out from the throughput
+    private boolean saturated = false;
+    private boolean hadSpare = true; // Was there room for at least one more query, CAPACITY_AHEAD ticks ahead
+
     public final Server server;
     private final Dimension dimension;
 
-    private float maxThroughput;
+    private float maxThroughput; // Estimated capacity, in queries per tick
     private float effectiveQPT = 0.0f;
     private float actualQPT = 0.0f;
+    private long idleTicks = 0; // Player ticks spent able to query, but with nothing to query
+    private float idleFraction = 0.0f;
 
     public InvalidMoveHandle(Server server, Dimension dimension) {
         this.server = server;
@@ -112,19 +195,14 @@ public class InvalidMoveHandle implements IQueryHandle<InvalidMoveQuery>, IConfi
         logger.finer("Setting up storages...");
         setupStorages();
 
-        for (Player player : this.server.getPlayers()) available.put(player, new PlayerHandle(this, player));
-        logger.finer(String.format("%d player(s) available.", available.size()));
-
-        logger.finer("Connecting emitters...");
-        Emitters.ON_PLAYER_LOGIN.connect(this::onLogin);
-        Emitters.ON_PLAYER_LOGOUT.connect(this::onLogout);
+        // Players are attached by the server's InvalidMoveRouter, once we know which dimension they're in
     }
 
     @Override
     public void tick() {
         maxThroughput = 0.0f;
 
-        int waitingBefore = waiting.size() + rescheduled.size();
+        int waitingBefore = getWaitingSize();
         int totalFinalised = 0;
 
         for (PlayerHandle handle : available.values()) {
@@ -132,43 +210,53 @@ public class InvalidMoveHandle implements IQueryHandle<InvalidMoveQuery>, IConfi
             handle.tick();
         }
 
-        for (PlayerHandle handle : available.values()) {
-            if (handle.canQuery() /* && !waiting.isEmpty() */) {
-                synchronized (this) {
-                    // Handle the rescheduled queries before we starting removing from the actual waiting queue
-                    while (!rescheduled.isEmpty()) {
-                        InvalidMoveQuery query = rescheduled.peek();
-                        if (handle.canHandle(query)) {
-                            handle.dispatch(query);
-                            rescheduled.poll();
-                        } else {
-                            break;
-                        }
-                    }
-
-                    while (!waiting.isEmpty()) {
-                        InvalidMoveQuery query = waiting.peek();
-                        if (query.isExpired()) { // If the query is expired, don't handle it
-                            waiting.poll();
-                            continue;
-                        }
-
-                        if (handle.canHandle(query)) {
-                            handle.dispatch(query);
-                            waiting.poll();
-                        } else {
-                            break;
-                        }
-                    }
+        // If the callbacks can't keep up, don't make the backlog any worse
+        if (!YesCom.getInstance().callbackExecutor.isSaturated()) {
+            synchronized (this) {
+                if (AGING_INTERVAL.value > 0) aged += waiting.age(AGING_INTERVAL.value, IsLoadedQuery.Priority.HIGH);
+                partition();
+            }
+            for (PlayerHandle handle : available.values()) {
+                if (handle.canQuery()) handle.dispatchLocal();
+            }
+            if (WORK_STEALING.value) {
+                for (PlayerHandle handle : available.values()) {
+                    if (handle.canQuery() && handle.getLocalSize() == 0) steal(handle);
                 }
             }
+        }
 
-
+        int idle = 0;
+        int canQuery = 0;
+        for (PlayerHandle handle : available.values()) {
+            // Has room for more, but nothing was queued for it, so it's waiting on the submitters to refill
+            if (handle.canQuery()) {
+                ++canQuery;
+                if (handle.getDispatchedThisTick() == 0 && handle.getLocalSize() == 0 && waiting.isEmpty() &&
+                        handle.getProcessingSize() < (int)handle.getWindow()) ++idle;
+            }
             handle.tick();
-            if (handle.canQuery()) maxThroughput += QUERIES_PER_TICK.value;
+            maxThroughput += handle.getCapacity();
         }
+        idleTicks += idle;
+        idleFraction = idleFraction * 0.95f + (canQuery > 0 ? idle / (float)canQuery : 0.0f) * 0.05f;
 
-        effectiveQPT = effectiveQPT * 0.95f + Math.max(0, waitingBefore - (waiting.size() + rescheduled.size())) * 0.05f;
+        boolean capacityAvailable;
+        synchronized (this) {
+            queueLimit = Math.max(MIN_QUEUE_SIZE.value, (int)Math.ceil(maxThroughput * MAX_QUEUE_TICKS.value));
+            while (!deferred.isEmpty() && waiting.size() < queueLimit) waiting.add(deferred.poll());
+
+            boolean wasSaturated = saturated;
+            saturated = !deferred.isEmpty() || waiting.size() >= queueLimit;
+            // Submitters also wait when there's no spare throughput, which can happen well before we're saturated
+            boolean wasSpare = hadSpare;
+            hadSpare = getThroughputFor(CAPACITY_AHEAD) >= 1.0f;
+            capacityAvailable = !saturated && hadSpare && (wasSaturated || !wasSpare);
+        }
+        if (capacityAvailable)
+            Emitters.ON_QUERY_CAPACITY_AVAILABLE.emit(new Emitters.ServerCapacity(server, dimension, maxThroughput));
+
+        effectiveQPT = effectiveQPT * 0.95f + Math.max(0, waitingBefore - getWaitingSize()) * 0.05f;
         actualQPT = actualQPT * 0.95f + totalFinalised * 0.05f;
     }
 
@@ -184,25 +272,25 @@ public class InvalidMoveHandle implements IQueryHandle<InvalidMoveQuery>, IConfi
         if (query == null) return;
         logger.finest("Dispatching query: " + query);
         synchronized (this) {
-            if (callback != null) callbacks.put(query, callback);
-            waiting.add(query);
+            enqueue(query, callback);
         }
     }
 
     @Override
-    public void cancel(InvalidMoveQuery query) {
-        if (callbacks.containsKey(query)) { // Is this query actually ours?
-            synchronized (this) {
-                callbacks.remove(query);
-                if (waiting.contains(query)) { // It's waiting to be processed so we don't need to worry about telling players to cancel it
-                    waiting.remove(query);
-                } else {
-                    cancelled.add(query);
-                }
-            }
+    public void dispatch(Collection<InvalidMoveQuery> queries, Consumer<InvalidMoveQuery> callback) {
+        if (queries.isEmpty()) return;
+        logger.finest(String.format("Dispatching %d queries.", queries.size()));
+        synchronized (this) { // Only need to lock the once
+            for (InvalidMoveQuery query : queries) enqueue(query, callback);
         }
     }
 
+    @Override
+    public void cancel(InvalidMoveQuery query) {
+        // If a player is processing it, the response will just be ignored
+        complete(query, IsLoadedQuery.Status.CANCELLED);
+    }
+
     @Override
     public Dimension getDimension() {
         return dimension;
@@ -215,9 +303,8 @@ public class InvalidMoveHandle implements IQueryHandle<InvalidMoveQuery>, IConfi
 
     @Override
     public float getThroughputFor(int ahead) {
-        float throughput = 0.0f;
-        // for (PlayerHandle handle : available.values()) throughput += handle.getThroughputFor(ahead);
-        return Math.max(0.0f, throughput - waiting.size());
+        // Whatever isn't already taken up by the queries that are waiting
+        return Math.max(0.0f, maxThroughput * ahead - getWaitingSize());
     }
 
     @Override
@@ -231,13 +318,15 @@ public class InvalidMoveHandle implements IQueryHandle<InvalidMoveQuery>, IConfi
     }
 
     @Override
-    public int getWaitingSize() {
-        return waiting.size();
+    public synchronized int getWaitingSize() {
+        int size = waiting.size() + deferred.size();
+        for (PlayerHandle handle : available.values()) size += handle.getLocalSize();
+        return size;
     }
 
     @Override
-    public int getProcessingSize() {
-        return callbacks.size() - waiting.size(); // Lol, hack
+    public synchronized int getProcessingSize() {
+        return processing.size();
     }
 
     @Override
@@ -251,19 +340,260 @@ public class InvalidMoveHandle implements IQueryHandle<InvalidMoveQuery>, IConfi
     }
 
     /**
-     * Reschedules the given {@link InvalidMoveQuery}s. This means that they will be dispatched again with the
-     * highest priority possible.
+     * Completes a query, removing it from wherever it is and calling its callback. This only happens once per query,
+     * later calls for the same query are ignored.
+     * @param query The query to complete.
+     * @param status The terminal status, if it's {@link IsLoadedQuery.Status#LOADED} or
+     *               {@link IsLoadedQuery.Status#UNLOADED} the state of the query is set too.
+     */
+    public void complete(InvalidMoveQuery query, IsLoadedQuery.Status status) {
+        Consumer<InvalidMoveQuery> callback;
+        synchronized (this) {
+            if (!callbacks.containsKey(query)) return; // Not ours, or already completed
+            if (!query.complete(status)) return;
+            if (status.isResolved())
+                query.setState(status == IsLoadedQuery.Status.LOADED ? ChunkState.State.LOADED : ChunkState.State.UNLOADED);
+
+            callback = callbacks.remove(query);
+            if (query.expiryTimeout != null) query.expiryTimeout.cancel();
+            if (!processing.remove(query) && !waiting.remove(query) && !deferred.remove(query)) {
+                for (PlayerHandle handle : available.values()) {
+                    if (handle.removeLocal(query)) break;
+                }
+            }
+            ++completed[status.ordinal()];
+            if (status.isResolved()) query.submitter.onResolved();
+            if (query.getExpiry() >= 0 && (status.isResolved() || status == IsLoadedQuery.Status.EXPIRED)) {
+                ++deadlinesCompleted[query.priority.ordinal()];
+                if (status == IsLoadedQuery.Status.EXPIRED || query.isExpired()) ++deadlinesMissed[query.priority.ordinal()];
+            }
+        }
+
+        // Don't run the callback on the packet thread, slow callbacks would hold up packet processing
+        if (callback != null) YesCom.getInstance().callbackExecutor.submit(() -> callback.accept(query));
+    }
+
+    /**
+     * Marks a query as being processed by a player.
+     */
+    public synchronized void processing(InvalidMoveQuery query) {
+        if (query.setStatus(IsLoadedQuery.Status.PROCESSING)) processing.add(query);
+    }
+
+    /**
+     * Reschedules the given {@link InvalidMoveQuery}s, see {@link #reschedule(InvalidMoveQuery)}. Queries from the same
+     * submitter, with the same priority and no deadlines, are dispatched again in the order given.
+     */
+    public synchronized void reschedule(List<InvalidMoveQuery> queries) {
+        for (int index = queries.size() - 1; index >= 0; --index) reschedule(queries.get(index));
+    }
+
+    /**
+     * Reschedules the given {@link InvalidMoveQuery}. It goes back to the front of its submitter's waiting queries of
+     * the same priority, so it's dispatched again before that submitter's queries without deadlines, and before its
+     * queries with the same deadline. Queries with earlier deadlines still go first, and other submitters still get
+     * their fair share, see {@link FairQueryQueue}.
+     */
+    public synchronized void reschedule(InvalidMoveQuery query) {
+        if (!query.setStatus(IsLoadedQuery.Status.WAITING)) return; // Was completed while in-flight (cancelled, probably)
+        boolean dispatched = processing.remove(query);
+        if (query.isExpired()) { // Expired while it was being processed
+            complete(query, IsLoadedQuery.Status.EXPIRED);
+            return;
+        }
+        // Don't count queries that were assigned to a player but never actually dispatched
+        if (dispatched && ++query.reschedules > MAX_RESCHEDULES.value) {
+            logger.fine(String.format("Query %s was rescheduled too many times.", query));
+            complete(query, IsLoadedQuery.Status.FAILED);
+            return;
+        }
+        waiting.addFirst(query);
+    }
+
+    /**
+     * @return The number of queries that have completed with the given status.
+     */
+    public synchronized long getCompleted(IsLoadedQuery.Status status) {
+        return completed[status.ordinal()];
+    }
+
+    /**
+     * @return The fraction of queries with the given priority that missed their deadline, either by expiring or by
+     *         being resolved too late. Only counts queries that expire, and weren't cancelled or failed.
      */
-    public void reschedule(List<InvalidMoveQuery> queries) {
-        rescheduled.addAll(queries);
+    public synchronized float getDeadlineMissRate(IsLoadedQuery.Priority priority) {
+        long total = deadlinesCompleted[priority.ordinal()];
+        if (total == 0) return 0.0f;
+        return deadlinesMissed[priority.ordinal()] / (float)total;
     }
 
     /**
-     * Reschedules the given {@link InvalidMoveQuery}. This means that it will be dispatched again with the highest
-     * priority possible.
+     * @return The number of queries with the given priority that missed their deadline.
      */
-    public void reschedule(InvalidMoveQuery query) {
-        rescheduled.add(query);
+    public synchronized long getDeadlinesMissed(IsLoadedQuery.Priority priority) {
+        return deadlinesMissed[priority.ordinal()];
+    }
+
+    /**
+     * @return Is the waiting queue full? If so, new queries will be deferred or rejected.
+     */
+    public synchronized boolean isSaturated() {
+        return saturated;
+    }
+
+    /**
+     * @return The maximum number of queries that can be waiting, based on the estimated capacity.
+     */
+    public synchronized int getQueueLimit() {
+        return queueLimit;
+    }
+
+    /**
+     * @return The number of queries that have been deferred as the waiting queue was full.
+     */
+    public synchronized int getDeferredSize() {
+        return deferred.size();
+    }
+
+    /**
+     * @return The total number of queries that were rejected as the waiting queue was full.
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return The total time players have spent idle, able to query but with no queries to process, in milliseconds.
+     */
+    public long getIdleTime() {
+        return idleTicks * 50;
+    }
+
+    /**
+     * @return The average fraction of the players that are able to query, that are idle.
+     */
+    public float getIdleFraction() {
+        return idleFraction;
+    }
+
+    /**
+     * @return The total number of times waiting queries have been promoted due to aging.
+     */
+    public synchronized int getAged() {
+        return aged;
+    }
+
+    /**
+     * Adds a new query to the waiting queue, and schedules its expiry if it has one.
+     */
+    private void enqueue(InvalidMoveQuery query, Consumer<InvalidMoveQuery> callback) {
+        if (query.getStatus() != IsLoadedQuery.Status.WAITING) return;
+        callbacks.put(query, callback);
+
+        // Don't let new queries jump ahead of deferred ones, even if there's room
+        if (!deferred.isEmpty() || waiting.size() >= queueLimit) {
+            saturated = true;
+            if (REJECT_WHEN_FULL.value) {
+                ++rejected;
+                complete(query, IsLoadedQuery.Status.REJECTED);
+                return;
+            }
+            deferred.add(query);
+        } else {
+            waiting.add(query);
+        }
+        query.submitter.onSubmitted(); // Only count what was actually admitted
+
+        if (query.getExpiry() >= 0) {
+            query.expiryTimeout = YesCom.getInstance().timingWheel.schedule(
+                    query.getExpiry() - System.currentTimeMillis(), () -> expire(query)
+            );
+        }
+    }
+
+    /**
+     * Called by the timing wheel when a query expires, so that it's reclaimed even if it's deep in a queue.
+     */
+    private synchronized void expire(InvalidMoveQuery query) {
+        // Queries that are being processed are allowed to finish, they'll be expired if they're rescheduled though
+        if (query.getStatus() == IsLoadedQuery.Status.WAITING) complete(query, IsLoadedQuery.Status.EXPIRED);
+    }
+
+    /**
+     * Assigns waiting queries to the players that we expect to process them the soonest, based on their throughput,
+     * ping and response time. Each player is only given a few ticks worth of queries, so that the head of the queue
+     * isn't held up by slow players.
+     */
+    private void partition() {
+        List<PlayerHandle> handles = new ArrayList<>();
+        for (PlayerHandle handle : available.values()) {
+            if (handle.canQuery()) {
+                handles.add(handle);
+            } else { // Can't query right now, so let other players have them
+                List<InvalidMoveQuery> queries = handle.drainLocal();
+                reschedule(queries);
+            }
+        }
+
+        while (!waiting.isEmpty()) {
+            PlayerHandle best = null;
+            float bestTicks = Float.MAX_VALUE;
+
+            for (PlayerHandle handle : handles) {
+                float throughput = handle.getMaxThroughput();
+                if (throughput <= 0.0f) continue;
+                int queued = handle.getLocalSize();
+                if (queued >= Math.max(1.0f, throughput * PARTITION_AHEAD.value)) continue; // Has enough to do already
+
+                // How many ticks until we expect a result for this query, if we give it to this player?
+                float ticks = (queued + 1) / throughput + handle.getExpectedResponseTicks();
+                if (ticks < bestTicks) {
+                    best = handle;
+                    bestTicks = ticks;
+                }
+            }
+            if (best == null) break;
+
+            InvalidMoveQuery query = waiting.poll();
+            if (query.isExpired()) { // If the query is expired, don't handle it
+                complete(query, IsLoadedQuery.Status.EXPIRED);
+            } else {
+                best.offer(query);
+            }
+        }
+    }
+
+    /**
+     * Steals queries from the busiest player, for an idle one.
+     * @param thief The idle player.
+     */
+    private void steal(PlayerHandle thief) {
+        while (true) {
+            PlayerHandle victim = null;
+            int mostQueued = 0;
+            for (PlayerHandle handle : available.values()) {
+                int queued = handle.getLocalSize();
+                if (handle != thief && queued > mostQueued) {
+                    victim = handle;
+                    mostQueued = queued;
+                }
+            }
+            if (victim == null) return;
+
+            InvalidMoveQuery query = victim.steal();
+            if (query == null) return;
+            if (query.isExpired()) {
+                complete(query, IsLoadedQuery.Status.EXPIRED);
+                continue;
+            }
+
+            if (thief.canHandle(query)) {
+                thief.dispatch(query);
+            } else {
+                victim.offerFirst(query); // Shouldn't really happen, but give it back if it does
+                return;
+            }
+        }
     }
 
     private void setupStorages() {
@@ -299,18 +629,4 @@ public class InvalidMoveHandle implements IQueryHandle<InvalidMoveQuery>, IConfi
         VALID_BLOCK_STORAGES.put(233, "minecraft:red_shulker_box");
         VALID_BLOCK_STORAGES.put(234, "minecraft:black_shulker_box");
     }
-
-    /* ------------------------------ Events ------------------------------ */
-
-    private void onLogin(Player player) {
-        if (!available.containsKey(player)) available.put(player, new PlayerHandle(this, player));
-    }
-
-    private void onLogout(Emitters.PlayerLogout playerLogout) {
-        if (available.containsKey(playerLogout.player)) {
-            PlayerHandle playerHandle = available.get(playerLogout.player);
-            available.remove(playerLogout.player);
-            playerHandle.logout();
-        }
-    }
 }
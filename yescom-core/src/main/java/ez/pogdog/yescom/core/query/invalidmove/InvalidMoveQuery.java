@@ -5,25 +5,42 @@ import ez.pogdog.yescom.api.data.ChunkState;
 import ez.pogdog.yescom.api.data.Dimension;
 import ez.pogdog.yescom.core.query.IQuery;
 import ez.pogdog.yescom.core.query.IQueryHandle;
+import ez.pogdog.yescom.core.query.Submitter;
+import ez.pogdog.yescom.core.query.TimingWheel;
 import ez.pogdog.yescom.core.query.loaded.IsLoadedQuery;
 
 public class InvalidMoveQuery extends IsLoadedQuery<InvalidMoveHandle> {
 
     private ChunkState.State state; // State callback
 
+    int reschedules = 0; // The number of times this query has been rescheduled after being dispatched
+    TimingWheel.Timeout expiryTimeout; // Fires when the query expires, if it can
+
     /**
      * @param chunkPosition Position to query.
      * @param dimension Dimension to query in.
      * @param expected Expected result.
      * @param priority Priority of query.
      * @param expiry Time until expiry, in milliseconds.
+     * @param submitter Who submitted the query, null for {@link Submitter#DEFAULT}.
      */
-    public InvalidMoveQuery(ChunkPosition chunkPosition, Dimension dimension, ChunkState.State expected, Priority priority, long expiry) {
-        super(chunkPosition, dimension, expected, priority, expiry);
+    public InvalidMoveQuery(
+            ChunkPosition chunkPosition,
+            Dimension dimension,
+            ChunkState.State expected,
+            Priority priority,
+            long expiry,
+            Submitter submitter
+    ) {
+        super(chunkPosition, dimension, expected, priority, expiry, submitter);
 
         // state = State.WAITING;
     }
 
+    public InvalidMoveQuery(ChunkPosition chunkPosition, Dimension dimension, ChunkState.State expected, Priority priority, long expiry) {
+        this(chunkPosition, dimension, expected, priority, expiry, null);
+    }
+
     @Override
     public void dispatch(InvalidMoveHandle handle) {
         // state = State.WAITING;
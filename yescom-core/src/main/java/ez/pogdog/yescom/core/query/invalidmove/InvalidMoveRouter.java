@@ -0,0 +1,81 @@
+package ez.pogdog.yescom.core.query.invalidmove;
+
+import ez.pogdog.yescom.api.Logging;
+import ez.pogdog.yescom.api.data.Dimension;
+import ez.pogdog.yescom.core.Emitters;
+import ez.pogdog.yescom.core.connection.Player;
+import ez.pogdog.yescom.core.connection.Server;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Attaches each player on a {@link Server} to the {@link InvalidMoveHandle} for the dimension that they're currently in,
+ * so that there is only ever one {@link PlayerHandle} listening to a player's packets. Players are moved between the
+ * handles when they change dimension.
+ */
+public class InvalidMoveRouter {
+
+    private final Logger logger = Logging.getLogger("yescom.core.query.invalidmove");
+
+    private final Map<Dimension, InvalidMoveHandle> handles = new EnumMap<>(Dimension.class);
+    private final Map<Player, PlayerHandle> attached = new HashMap<>();
+
+    public final Server server;
+
+    public InvalidMoveRouter(Server server, InvalidMoveHandle... handles) {
+        this.server = server;
+
+        for (InvalidMoveHandle handle : handles) this.handles.put(handle.getDimension(), handle);
+        for (Player player : server.getPlayers()) route(player);
+
+        // The dimension is known once we've joined the game, and changes on respawn, both of which emit position updates
+        Emitters.ON_PLAYER_POSITION_UPDATE.connect(this::route);
+        Emitters.ON_PLAYER_LOGOUT.connect(this::onLogout);
+    }
+
+    /**
+     * Makes sure that the player is attached to the handle for their current dimension, and only that handle.
+     * @param player The player.
+     */
+    public synchronized void route(Player player) {
+        if (player.server != server) return;
+
+        Dimension dimension = player.getDimension();
+        PlayerHandle previous = attached.get(player);
+        if (previous != null && previous.getDimension() == dimension) return;
+
+        // Detach first, so that the in-flight queries are given back to the old dimension's handle before the new one
+        // starts listening
+        if (previous != null) {
+            attached.remove(player);
+            previous.logout();
+        }
+
+        InvalidMoveHandle handle = dimension != null ? handles.get(dimension) : null;
+        if (handle == null) return;
+
+        PlayerHandle playerHandle = new PlayerHandle(handle, player, previous);
+        attached.put(player, playerHandle);
+        handle.available.put(player, playerHandle);
+
+        if (previous != null)
+            logger.finer(String.format("%s moved from %s to %s.", player.getUsername(), previous.getDimension(), dimension));
+    }
+
+    /**
+     * @return The handle that the player is currently attached to, null if none.
+     */
+    public synchronized PlayerHandle getHandle(Player player) {
+        return attached.get(player);
+    }
+
+    /* ------------------------------ Events ------------------------------ */
+
+    private synchronized void onLogout(Emitters.PlayerLogout playerLogout) {
+        PlayerHandle playerHandle = attached.remove(playerLogout.player);
+        if (playerHandle != null) playerHandle.logout();
+    }
+}
@@ -1,9 +1,7 @@
 package ez.pogdog.yescom.core.query.invalidmove;
 
 import com.github.steveice10.mc.protocol.data.game.entity.player.Hand;
-import com.github.steveice10.mc.protocol.data.game.entity.player.PlayerAction;
 import com.github.steveice10.mc.protocol.data.game.world.block.BlockChangeRecord;
-import com.github.steveice10.mc.protocol.data.game.world.block.BlockFace;
 import com.github.steveice10.mc.protocol.packet.ingame.client.player.ClientPlayerActionPacket;
 import com.github.steveice10.mc.protocol.packet.ingame.client.player.ClientPlayerPlaceBlockPacket;
 import com.github.steveice10.mc.protocol.packet.ingame.client.player.ClientPlayerPositionPacket;
@@ -12,8 +10,6 @@ import com.github.steveice10.mc.protocol.packet.ingame.client.player.ClientPlaye
 import com.github.steveice10.mc.protocol.packet.ingame.client.world.ClientTeleportConfirmPacket;
 import com.github.steveice10.mc.protocol.packet.ingame.server.ServerChatPacket;
 import com.github.steveice10.mc.protocol.packet.ingame.server.entity.ServerEntityDestroyPacket;
-import com.github.steveice10.mc.protocol.packet.ingame.server.entity.ServerEntityMovementPacket;
-import com.github.steveice10.mc.protocol.packet.ingame.server.entity.ServerEntityTeleportPacket;
 import com.github.steveice10.mc.protocol.packet.ingame.server.entity.player.ServerPlayerPositionRotationPacket;
 import com.github.steveice10.mc.protocol.packet.ingame.server.entity.spawn.ServerSpawnMobPacket;
 import com.github.steveice10.mc.protocol.packet.ingame.server.window.ServerCloseWindowPacket;
@@ -24,22 +20,27 @@ import com.github.steveice10.mc.protocol.packet.ingame.server.world.ServerBlockC
 import com.github.steveice10.mc.protocol.packet.ingame.server.world.ServerChunkDataPacket;
 import com.github.steveice10.mc.protocol.packet.ingame.server.world.ServerMultiBlockChangePacket;
 import com.github.steveice10.mc.protocol.packet.ingame.server.world.ServerUnloadChunkPacket;
-import com.github.steveice10.opennbt.tag.builtin.CompoundTag;
-import com.github.steveice10.opennbt.tag.builtin.StringTag;
-import com.github.steveice10.opennbt.tag.builtin.Tag;
 import com.github.steveice10.packetlib.packet.Packet;
+import ez.pogdog.yescom.YesCom;
 import ez.pogdog.yescom.api.Logging;
 import ez.pogdog.yescom.api.data.Angle;
 import ez.pogdog.yescom.api.data.BlockPosition;
-import ez.pogdog.yescom.api.data.ChunkState;
+import ez.pogdog.yescom.api.data.Dimension;
 import ez.pogdog.yescom.api.data.Position;
 import ez.pogdog.yescom.core.Emitters;
 import ez.pogdog.yescom.core.ITickable;
+import ez.pogdog.yescom.core.connection.PacketTable;
+import ez.pogdog.yescom.core.connection.PacketTemplates;
 import ez.pogdog.yescom.core.connection.Player;
+import ez.pogdog.yescom.core.query.TimingWheel;
+import ez.pogdog.yescom.core.query.loaded.IsLoadedQuery;
+import ez.pogdog.yescom.core.query.loaded.QueryQueue;
 import ez.pogdog.yescom.core.report.invalidmove.NoStorageReport;
 
+import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -47,19 +48,51 @@ import java.util.Objects;
 import java.util.Queue;
 import java.util.Random;
 import java.util.logging.Logger;
-import java.util.function.Consumer;
 
 /**
  * Individual handles for {@link Player}s when handling {@link InvalidMoveQuery}s.
  */
 public class PlayerHandle implements ITickable, Player.IPacketListener {
 
+    private static final double STORAGE_REACH = 5.0; // Distance from the eyes that we can open storages at
+    // The packets each query sends, indexed by digging resync (1), placing (2) and swinging (4), see getBundle()
+    private static final Class<?>[][] BUNDLES = createBundles();
+
+    /**
+     * Storage, synchronisation and query handlers, called in that order for each packet.
+     */
+    private static final PacketTable<PlayerHandle> PACKET_HANDLERS = new PacketTable<PlayerHandle>()
+            // Storage
+            .on(ServerChunkDataPacket.class, PlayerHandle::onChunkData)
+            .on(ServerUnloadChunkPacket.class, PlayerHandle::onUnloadChunk)
+            .on(ServerMultiBlockChangePacket.class, PlayerHandle::onMultiBlockChange)
+            .on(ServerBlockChangePacket.class, PlayerHandle::onBlockChange)
+            .on(ServerSpawnMobPacket.class, PlayerHandle::onSpawnMob)
+            .on(ServerEntityDestroyPacket.class, PlayerHandle::onEntityDestroy)
+            .on(ServerOpenWindowPacket.class, PlayerHandle::onOpenWindowStorage)
+            .on(ServerCloseWindowPacket.class, PlayerHandle::onCloseWindowStorage)
+            // Synchronisation
+            .on(ServerPlayerPositionRotationPacket.class, PlayerHandle::onPositionRotationResync)
+            .on(ServerOpenWindowPacket.class, PlayerHandle::onOpenWindowResync)
+            .on(ServerWindowItemsPacket.class, PlayerHandle::onWindowItemsResync)
+            .on(ServerWindowPropertyPacket.class, PlayerHandle::onWindowPropertyResync)
+            .on(ServerCloseWindowPacket.class, PlayerHandle::onCloseWindowResync)
+            // Queries
+            .on(ServerBlockChangePacket.class, PlayerHandle::onBlockChangeQuery)
+            .on(ServerOpenWindowPacket.class, PlayerHandle::onOpenWindowQuery)
+            .on(ServerWindowPropertyPacket.class, PlayerHandle::onWindowPropertyQuery)
+            .on(ServerWindowItemsPacket.class, PlayerHandle::onWindowItemsQuery)
+            .on(ServerCloseWindowPacket.class, PlayerHandle::onCloseWindowQuery)
+            .on(ServerPlayerPositionRotationPacket.class, PlayerHandle::onPositionRotationQuery);
+
     private final Logger logger = Logging.getLogger("yescom.core.query.invalidmove");
+    private final YesCom yesCom = YesCom.getInstance();
     private final Random random = new Random();
 
-    private final Map<BlockPosition, BlockStorage> blockStorages = new HashMap<>();
+    private final BlockStorageRegistry blockStorages = new BlockStorageRegistry();
     private final Map<Integer, EntityStorage> entityStorages = new HashMap<>();
 
+    private final QueryQueue<InvalidMoveQuery> local = new QueryQueue<>(); // Queries assigned to us, not yet dispatched
     private final List<InvalidMoveQuery> rescheduled = new ArrayList<>();
     private final Queue<ProcessingQuery> processing = new ArrayDeque<>(); // Queries being processed right now
     private final Queue<Integer> preConfirms = new ArrayDeque<>(); // Teleport IDs that we can confirmed ahead of time
@@ -89,18 +122,52 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
     private boolean windowDesync = false;
 
     private float averageResponseTime = 0.0f;
-    private int ticksProcessing = 0;
+    private float window; // AIMD window, the number of queries we're allowed to have in-flight
+    private float windowThreshold; // Slow start threshold, grow exponentially until we reach this
+    private long lastWindowDecrease = 0;
+    private float efficiency = 1.0f; // Average fraction of dispatched queries that get a response, rather than rescheduled
     private boolean previousLoaded = true; // FIXME: Why, again?
 
     private ProcessingQuery current;
 
-    public PlayerHandle(InvalidMoveHandle handle, Player player) {
+    /**
+     * @param handle The handle for the dimension that the player is in.
+     * @param player The player.
+     * @param previous The player's handle in the dimension they were previously in, null if they've just logged in.
+     *                 The synchronisation state carries over, as teleport and window IDs are per connection, but the
+     *                 storages don't, as they're rebuilt from the chunks we're sent in the new dimension.
+     */
+    public PlayerHandle(InvalidMoveHandle handle, Player player, PlayerHandle previous) {
         logger.fine(String.format("New invalid move handle for %s (dimension %s).", player.getUsername(), handle.getDimension()));
 
         this.handle = handle;
         this.player = player;
 
-        player.packetListeners.add(this);
+        if (previous != null) {
+            synchronized (previous) {
+                estimatedTeleportID = previous.estimatedTeleportID;
+                estimatedWindowID = previous.estimatedWindowID;
+                movementLimit = previous.movementLimit;
+                teleportDesync = previous.teleportDesync;
+                windowDesync = previous.windowDesync;
+                preConfirms.addAll(previous.preConfirms);
+
+                averageResponseTime = previous.averageResponseTime;
+                window = previous.window;
+                windowThreshold = previous.windowThreshold;
+                lastWindowDecrease = previous.lastWindowDecrease;
+                efficiency = previous.efficiency;
+            }
+        } else {
+            window = handle.INITIAL_WINDOW.value.floatValue();
+            windowThreshold = handle.MAX_WINDOW.value.floatValue();
+        }
+
+        player.addPacketListener(this);
+    }
+
+    public PlayerHandle(InvalidMoveHandle handle, Player player) {
+        this(handle, player, null);
     }
 
     @Override
@@ -114,39 +181,29 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
         dispatchedThisTick = 0;
         finalisedThisTick = 0;
 
-        if (!spawned && player.isSpawned()) {
-            spawned = true;
-
-            // Registers for all dimensions when a player logs in, need to wait to find out what dimension the player
-            // is actually in though
-            if (player.getDimension() != handle.getDimension()) {
-                logout();
-                return;
-            }
-        }
+        // Only ever attached to the handle for the dimension we're in (see InvalidMoveRouter), so no need to check that
+        if (!spawned && player.isSpawned()) spawned = true;
 
-        synchronized (this) {
-            tickStorage();
-            tickResync();
-            tickQueries();
+        player.beginBatch();
+        try {
+            synchronized (this) {
+                tickStorage();
+                tickResync();
+                tickQueries();
 
-            ++ticksSinceTeleport;
-            ++ticksSinceStorageUpdate;
-            --movementLimit;
+                ++ticksSinceTeleport;
+                ++ticksSinceStorageUpdate;
+                --movementLimit;
+            }
+        } finally {
+            player.endBatch();
         }
     }
 
     @Override
     public /* synchronized */ void packetIn(Packet packet) {
-        packetInStorage(packet);
-        packetInResync(packet);
-        packetInQuery(packet);
-
-        if (packet instanceof ServerPlayerPositionRotationPacket) {
-            ticksSinceTeleport = 0;
-        } else if (packet instanceof ServerOpenWindowPacket || packet instanceof ServerCloseWindowPacket) {
-            ticksSinceStorageUpdate = 0;
-        }
+        if (current != null && !(packet instanceof ServerChatPacket)) ++current.packetsElapsed; // Only for logging
+        PACKET_HANDLERS.dispatch(this, packet);
     }
 
     @Override
@@ -154,6 +211,13 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
         packetOutResync(packet);
     }
 
+    @Override
+    public Collection<Class<? extends Packet>> getInterests() {
+        // Everything we handle is in the table. With selective decoding, packetsElapsed doesn't count the
+        // skipped packets, but it's only used for logging
+        return PACKET_HANDLERS.getTypes();
+    }
+
     /* ------------------------------ Public API ------------------------------ */
 
     /**
@@ -163,7 +227,20 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
         logger.fine(String.format("%s logout for invalid move handle (dimension %s).", player.getUsername(), handle.getDimension()));
 
         handle.available.remove(player);
-        player.packetListeners.remove(this);
+        player.removePacketListener(this);
+
+        // Give them back so that other players can process them
+        List<InvalidMoveQuery> queries = new ArrayList<>();
+        synchronized (this) {
+            if (current != null) queries.add(current.query);
+            for (ProcessingQuery processingQuery : processing) queries.add(processingQuery.query);
+            current = null;
+            processing.clear();
+            queries.addAll(rescheduled);
+            rescheduled.clear();
+        }
+        queries.addAll(drainLocal());
+        if (!queries.isEmpty()) handle.reschedule(queries);
     }
 
     /* ------------------------------ Storages ------------------------------ */
@@ -217,13 +294,12 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
             }
 
         } else if (!blockStorages.isEmpty()) {
-            for (BlockStorage storage : blockStorages.values()) {
-                if (storage.isValid(eyesPosition)) {
-                    logger.fine(String.format("Player %s is using storage %s.", player.getUsername(), storage));
-                    currentStorage = storage;
-                    justFound = true;
-                    return;
-                }
+            BlockStorage storage = blockStorages.getNearest(eyesPosition, STORAGE_REACH);
+            if (storage != null && storage.isValid(eyesPosition)) {
+                logger.fine(String.format("Player %s is using storage %s.", player.getUsername(), storage));
+                currentStorage = storage;
+                justFound = true;
+                return;
             }
         }
 
@@ -234,153 +310,135 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
         Emitters.ON_REPORT.emit(new NoStorageReport(player));
     }
 
-    /**
-     * Listens for storage related packets and updates the current storages around the player.
-     */
-    private void packetInStorage(Packet packet) {
-        // Block handling stuff
-        if (packet instanceof ServerChunkDataPacket) {
-            ServerChunkDataPacket chunkData = (ServerChunkDataPacket)packet;
+    private void onChunkData(ServerChunkDataPacket chunkData) {
+        synchronized (this) {
+            // if (chunkData.isFullChunk()) {
+            removeBlockStorages(chunkData.getX(), chunkData.getZ());
 
-            synchronized (this) {
-                // if (chunkData.isFullChunk()) {
-                for (BlockStorage storage : new ArrayList<>(blockStorages.values())) {
-                    if (storage.position.getX() >> 4 == chunkData.getX() && storage.position.getZ() >> 4 == chunkData.getZ()) {
-                        if (storage.equals(currentStorage)) {
-                            logger.fine(String.format("%s lost current storage (%s).", player.getUsername(), currentStorage));
-                            currentStorage = null;
-                        }
-                        blockStorages.remove(storage.position);
-                        storageDirty = true;
-                    }
-                }
+            // Only looks at the IDs and positions, so the tile entity tags don't need to be materialised
+            try {
+                chunkData.scanTileEntities(handle.VALID_BLOCK_STORAGES.values(), (blockID, x, y, z) -> {
+                    BlockStorage storage = new BlockStorage(new BlockPosition(x, y, z), blockID);
+                    logger.finest(String.format("%s has storage %s.", player.getUsername(), storage));
 
-                for (CompoundTag tileEntity : chunkData.getTileEntities()) {
-                    Map<String, Tag> values = tileEntity.getValue();
-                    String blockID = (String)values.getOrDefault("id", new StringTag("secret:message:WTF!!")).getValue();
-                    if (handle.VALID_BLOCK_STORAGES.containsValue(blockID)) {
-                        if (values.containsKey("x") && values.containsKey("y") && values.containsKey("z")) {
-                            BlockPosition blockPosition = new BlockPosition(
-                                    (int)values.get("x").getValue(),
-                                    (int)values.get("y").getValue(),
-                                    (int)values.get("z").getValue()
-                            );
-                            BlockStorage storage = new BlockStorage(blockPosition, blockID);
-                            logger.finest(String.format("%s has storage %s.", player.getUsername(), storage));
-
-                            blockStorages.put(blockPosition, storage);
-                            storageDirty = true;
-                        }
-                    }
-                }
-                // }
-
-                // TODO: Fallback to checking for stuff like crafting tables?
-                        /*
-                        for (int index = 0; index < chunkData.getColumn().getChunks().length; ++index) {
-                            Chunk chunk = chunkData.getColumn().getChunks()[index];
-                            if (chunk == null || chunk.isEmpty()) continue;
-                            for (int x = 0; x < 16; ++x) {
-                                for (int y = 0; y < 16; ++y) {
-                                    for (int z = 0; z < 16; ++z) {
-                                        BlockState blockState = chunk.getBlocks().get(x, y, z);
-                                        BlockPosition position = new BlockPosition(
-                                                x + chunkData.getColumn().getX() * 16,
-                                                y + index * 16,
-                                                z + chunkData.getColumn().getZ() * 16
-                                        );
-
-                                        if (bestStorage != null && bestStorage.equals(position)) bestStorage = null;
-                                        confirmedStorages.remove(position); // Clear all previous storages in this chunk, they may have changed
-                                        if (VALID_STORAGES.contains(blockState.getId())) {
-                                            logger.finest("Found storage: " + position);
-                                            confirmedStorages.add(position);
-                                        }
+                    blockStorages.put(storage);
+                    storageDirty = true;
+                });
+            } catch (IOException error) {
+                logger.warning(String.format(
+                        "%s received malformed tile entities at %d, %d: %s", player.getUsername(),
+                        chunkData.getX(), chunkData.getZ(), error.getMessage()
+                ));
+                logger.throwing(getClass().getSimpleName(), "onChunkData", error);
+            }
+            // }
+
+            // TODO: Fallback to checking for stuff like crafting tables?
+                    /*
+                    for (int index = 0; index < chunkData.getColumn().getChunks().length; ++index) {
+                        Chunk chunk = chunkData.getColumn().getChunks()[index];
+                        if (chunk == null || chunk.isEmpty()) continue;
+                        for (int x = 0; x < 16; ++x) {
+                            for (int y = 0; y < 16; ++y) {
+                                for (int z = 0; z < 16; ++z) {
+                                    BlockState blockState = chunk.getBlocks().get(x, y, z);
+                                    BlockPosition position = new BlockPosition(
+                                            x + chunkData.getColumn().getX() * 16,
+                                            y + index * 16,
+                                            z + chunkData.getColumn().getZ() * 16
+                                    );
+
+                                    if (bestStorage != null && bestStorage.equals(position)) bestStorage = null;
+                                    confirmedStorages.remove(position); // Clear all previous storages in this chunk, they may have changed
+                                    if (VALID_STORAGES.contains(blockState.getId())) {
+                                        logger.finest("Found storage: " + position);
+                                        confirmedStorages.add(position);
                                     }
                                 }
                             }
                         }
-                         */
-            }
-
-        } else if (packet instanceof ServerUnloadChunkPacket) {
-            ServerUnloadChunkPacket unloadChunk = (ServerUnloadChunkPacket)packet;
-
-            synchronized (this) {
-                for (BlockStorage storage : new ArrayList<>(blockStorages.values())) {
-                    if (storage.position.getX() >> 4 == unloadChunk.getX() && storage.position.getZ() >> 4 == unloadChunk.getZ()) {
-                        if (storage.equals(currentStorage)) {
-                            logger.fine(String.format("%s lost current storage (%s).", player.getUsername(), currentStorage));
-                            currentStorage = null;
-                        }
-                        blockStorages.remove(storage.position);
-                        storageDirty = true;
                     }
-                }
-            }
-
-        } else if (packet instanceof ServerMultiBlockChangePacket) {
-            ServerMultiBlockChangePacket multiBlockChange = (ServerMultiBlockChangePacket)packet;
-            for (BlockChangeRecord record : multiBlockChange.getRecords()) handleRecord(record);
+                     */
+        }
+    }
 
-        } else if (packet instanceof ServerBlockChangePacket) {
-            ServerBlockChangePacket blockChange = (ServerBlockChangePacket)packet;
-            handleRecord(blockChange.getRecord());
+    private void onUnloadChunk(ServerUnloadChunkPacket unloadChunk) {
+        synchronized (this) {
+            removeBlockStorages(unloadChunk.getX(), unloadChunk.getZ());
+        }
+    }
 
-        // Entity handling stuff
+    private void onMultiBlockChange(ServerMultiBlockChangePacket multiBlockChange) {
+        for (BlockChangeRecord record : multiBlockChange.getRecords()) handleRecord(record);
+    }
 
-        } else if (packet instanceof ServerSpawnMobPacket) { // TODO: All below
-            ServerSpawnMobPacket spawnMob = (ServerSpawnMobPacket)packet;
+    private void onBlockChange(ServerBlockChangePacket blockChange) {
+        handleRecord(blockChange.getRecord());
+    }
 
-            switch (spawnMob.getType()) {
-                case DONKEY:
-                case MULE:
-                case HORSE:
-                case LLAMA: {
-                    break;
-                }
-                case VILLAGER: {
-                    break;
-                }
+    private void onSpawnMob(ServerSpawnMobPacket spawnMob) { // TODO: Entity storages
+        switch (spawnMob.getType()) {
+            case DONKEY:
+            case MULE:
+            case HORSE:
+            case LLAMA: {
+                break;
+            }
+            case VILLAGER: {
+                break;
             }
+        }
+    }
 
-        } else if (packet instanceof ServerEntityDestroyPacket) {
-            ServerEntityDestroyPacket entityDestroy = (ServerEntityDestroyPacket)packet;
+    private void onEntityDestroy(ServerEntityDestroyPacket entityDestroy) {
+        if (entityStorages.isEmpty()) return; // Avoid boxing every entity ID
 
-            // TODO: Synchronise
-            for (int entityID : entityDestroy.getEntityIds()) {
-                EntityStorage storage = entityStorages.get(entityID);
-                if (storage != null) {
-                    if (storage.equals(currentStorage)) {
-                        logger.fine(String.format("%s lost current storage (%s).", player.getUsername(), currentStorage));
-                        currentStorage = null;
-                    }
-                    entityStorages.remove(entityID);
-                    storageDirty = true;
+        // TODO: Synchronise
+        for (int entityID : entityDestroy.getEntityIds()) {
+            EntityStorage storage = entityStorages.get(entityID);
+            if (storage != null) {
+                if (storage.equals(currentStorage)) {
+                    logger.fine(String.format("%s lost current storage (%s).", player.getUsername(), currentStorage));
+                    currentStorage = null;
                 }
+                entityStorages.remove(entityID);
+                storageDirty = true;
             }
+        }
+    }
 
-        } else if (packet instanceof ServerEntityMovementPacket) {
-            ServerEntityMovementPacket entityMovement = (ServerEntityMovementPacket)packet;
-
-        } else if (packet instanceof ServerEntityTeleportPacket) {
-            ServerEntityTeleportPacket entityTeleport = (ServerEntityTeleportPacket)packet;
+    private void onOpenWindowStorage(ServerOpenWindowPacket openWindow) {
+        storageOpen = true;
+        attemptOpen = -1;
+        ticksSinceStorageUpdate = 0;
+    }
 
-        // Other stuff
+    private void onCloseWindowStorage(ServerCloseWindowPacket closeWindow) {
+        storageOpen = false;
+        // We should also say that the current attempt has failed, not sure why this would happen though, as we
+        // should always get the open window first
+        attemptOpen = -1;
+        ticksSinceStorageUpdate = 0;
+    }
 
-        } else if (packet instanceof ServerOpenWindowPacket) {
-            storageOpen = true;
-            attemptOpen = -1;
+    /**
+     * Removes the block storages in the given chunk.
+     */
+    private void removeBlockStorages(int chunkX, int chunkZ) {
+        Map<BlockPosition, BlockStorage> removed = blockStorages.removeChunk(chunkX, chunkZ);
+        if (removed == null) return;
 
-        } else if (packet instanceof ServerCloseWindowPacket) {
-            storageOpen = false;
-            // We should also say that the current attempt has failed, not sure why this would happen though, as we
-            // should always get the open window first
-            attemptOpen = -1;
+        if (currentStorage instanceof BlockStorage && removed.get(((BlockStorage)currentStorage).position) == currentStorage) {
+            logger.fine(String.format("%s lost current storage (%s).", player.getUsername(), currentStorage));
+            currentStorage = null;
         }
+        storageDirty = true;
     }
 
     private void handleRecord(BlockChangeRecord record) {
+        boolean valid = handle.VALID_BLOCK_STORAGES.containsKey(record.getBlock().getId());
+        if (!valid && blockStorages.isEmpty()) return; // Nothing to add or remove
+
         BlockPosition position = new BlockPosition(
                 record.getPosition().getX(),
                 record.getPosition().getY(),
@@ -388,7 +446,6 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
         );
 
         BlockStorage storage = blockStorages.get(position);
-        boolean valid = handle.VALID_BLOCK_STORAGES.containsKey(record.getBlock().getId());
 
         if (storage != null && !valid) {
             synchronized (this) {
@@ -405,7 +462,7 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
             logger.finest(String.format("%s has storage %s.", player.getUsername(), storage));
 
             synchronized (this) {
-                blockStorages.put(position, storage);
+                blockStorages.put(storage);
                 storageDirty = true;
             }
         }
@@ -433,7 +490,7 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
                 movementLimit = 20; // Server should respond within that time, hopefully
                 // Send a packet that we know will get the server to set us back, so that we can get a teleport ID from
                 // it that we can use with certainty
-                player.send(new ClientPlayerPositionPacket(
+                player.send(PacketTemplates.position(
                         false, player.getPosition().getX(), player.getPosition().getY() + 100000, player.getPosition().getZ()
                 ));
             }
@@ -443,7 +500,7 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
             // If we're idling, send movement packets anyway cos if we're tp desynced and don't know about it the server
             // will send us teleport packets every 20 ticks that we can use to resync
             ticksSinceTeleport = 0;
-            player.send(new ClientPlayerPositionPacket(
+            player.send(PacketTemplates.position(
                     false, player.getPosition().getX(), player.getPosition().getY(), player.getPosition().getZ()
             ));
         }
@@ -467,54 +524,49 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
         }
     }
 
-    /**
-     * Listens for packets sent to us that could be used to determine the synchronisation state of the player.
-     */
-    private void packetInResync(Packet packet) {
-        if (packet instanceof ServerPlayerPositionRotationPacket) {
-            ServerPlayerPositionRotationPacket positionRotation = (ServerPlayerPositionRotationPacket)packet;
-
-            // If we haven't pre-confirmed this, or we weren't expecting this to be the next teleport ID (can occur when
-            // we sent excess movement packets while the server is still waiting for a teleport confirm) then handle
-            // accordingly
-            synchronized (this) {
-                Integer expected = preConfirms.poll();
-                if (expected == null || expected != positionRotation.getTeleportId()) {
-                    logger.fine(String.format(
-                            "%s ext teleport: e_tid=%d, tid=%d, preconf=%d, mlimit=%d.",
-                            player.getUsername(), expected, positionRotation.getTeleportId(), preConfirms.size(), movementLimit
-                    ));
+    private void onPositionRotationResync(ServerPlayerPositionRotationPacket positionRotation) {
+        // If we haven't pre-confirmed this, or we weren't expecting this to be the next teleport ID (can occur when
+        // we sent excess movement packets while the server is still waiting for a teleport confirm) then handle
+        // accordingly
+        synchronized (this) {
+            Integer expected = preConfirms.poll();
+            if (expected == null || expected != positionRotation.getTeleportId()) {
+                logger.fine(String.format(
+                        "%s ext teleport: e_tid=%d, tid=%d, preconf=%d, mlimit=%d.",
+                        player.getUsername(), expected, positionRotation.getTeleportId(), preConfirms.size(), movementLimit
+                ));
 
-                    preConfirms.clear(); // Our estimates will be useless now
-                    estimatedTeleportID = positionRotation.getTeleportId();
-                    movementLimit = 10; // Don't send any packets right now, just in case
+                preConfirms.clear(); // Our estimates will be useless now
+                estimatedTeleportID = positionRotation.getTeleportId();
+                movementLimit = 10; // Don't send any packets right now, just in case
 
-                    // Set this as true, will be set as false later once we've confirmed everything is as it should be
-                    teleportDesync = true;
-                    // Confirm the teleport, there's really no harm in doing this as it doesn't change much if this was
-                    // the incorrect ID
-                    player.send(new ClientTeleportConfirmPacket(positionRotation.getTeleportId()));
-                }
+                // Set this as true, will be set as false later once we've confirmed everything is as it should be
+                teleportDesync = true;
+                // Confirm the teleport, there's really no harm in doing this as it doesn't change much if this was
+                // the incorrect ID
+                player.send(new ClientTeleportConfirmPacket(positionRotation.getTeleportId()));
             }
+        }
 
-        } else if (packet instanceof ServerOpenWindowPacket) {
-            ServerOpenWindowPacket openWindow = (ServerOpenWindowPacket)packet;
-            if (windowDesync) estimatedWindowID = openWindow.getWindowId(); // TODO: How does window desync even occur?
+        ticksSinceTeleport = 0;
+    }
+
+    private void onOpenWindowResync(ServerOpenWindowPacket openWindow) {
+        if (windowDesync) estimatedWindowID = openWindow.getWindowId(); // TODO: How does window desync even occur?
+    }
 
-        } else if (packet instanceof ServerWindowItemsPacket) {
-            ServerWindowItemsPacket windowItems = (ServerWindowItemsPacket)packet;
-            if (windowDesync && windowItems.getWindowId() >= 1 && windowItems.getWindowId() <= 100)
-                estimatedWindowID = windowItems.getWindowId();
+    private void onWindowItemsResync(ServerWindowItemsPacket windowItems) {
+        if (windowDesync && windowItems.getWindowId() >= 1 && windowItems.getWindowId() <= 100)
+            estimatedWindowID = windowItems.getWindowId();
+    }
 
-        } else if (packet instanceof ServerWindowPropertyPacket) {
-            ServerWindowPropertyPacket windowProperty = (ServerWindowPropertyPacket)packet;
-            if (windowDesync && windowProperty.getWindowId() >= 1 && windowProperty.getWindowId() <= 100)
-                estimatedWindowID = windowProperty.getWindowId();
+    private void onWindowPropertyResync(ServerWindowPropertyPacket windowProperty) {
+        if (windowDesync && windowProperty.getWindowId() >= 1 && windowProperty.getWindowId() <= 100)
+            estimatedWindowID = windowProperty.getWindowId();
+    }
 
-        } else if (packet instanceof ServerCloseWindowPacket) {
-            ServerCloseWindowPacket closeWindow = (ServerCloseWindowPacket)packet;
-            if (windowDesync) estimatedWindowID = closeWindow.getWindowId();
-        }
+    private void onCloseWindowResync(ServerCloseWindowPacket closeWindow) {
+        if (windowDesync) estimatedWindowID = closeWindow.getWindowId();
     }
 
     /**
@@ -538,85 +590,114 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
      * Ticks the query states.
      */
     private void tickQueries() {
-        int expectedTicks = (int)Math.ceil(Math.max(50.0f, averageResponseTime) / 50.0f);
-        if (!processing.isEmpty()) {
-            // If we're not receiving packets then we don't want to increase this as we'll simply wait for the
-            // server's response. By then, if we do not have any further information about hte state of the queries
-            // we will handle them appropriately.
-            if (player.getTSLP() > expectedTicks * 50) ticksProcessing = 0; // --ticksProcessing;
-            if (++ticksProcessing > 40 + expectedTicks) {
-                logger.warning(String.format(
-                        "%s query timeout: mlimit=%d, preconf=%d, proc=%d, t_p=%d, dt=%dms.",
-                        player.getUsername(), movementLimit, preConfirms.size(), processing.size(),
-                        ticksProcessing, System.currentTimeMillis() - processing.peek().startTime
-                ));
-                ticksProcessing = 0;
-
-                // If we've reached this point, there's probably a bug in other parts of this code, or the server
-                // dropped all our packets after the lag spike, for some reason?
-
-                synchronized (this) {
-                    if (current != null) rescheduled.add(current.query);
-                    movementLimit = 20;
-
-                    for (ProcessingQuery processingQuery : processing) rescheduled.add(processingQuery.query);
-                    processing.clear();
-                    preConfirms.clear();   
-                }
-            }
-
-        } else {
-            ticksProcessing = 0;
-        }
-
         if (!rescheduled.isEmpty()) {
             logger.finer(String.format(
                     "%s %d queries successfully rescheduled.", 
                     player.getUsername(), rescheduled.size()
             ));
 
-            synchronized (handle) {
-                handle.rescheduled.addAll(rescheduled);
-                rescheduled.clear();
-            }
+            for (int index = 0; index < rescheduled.size(); ++index) efficiency *= 0.98f;
+            handle.reschedule(rescheduled);
+            rescheduled.clear();
         }
     }
 
     /**
-     * Listens for packets that indicate a query response from the server.
+     * @return How long we should wait for a response to a query, in milliseconds.
+     */
+    private long getResponseDeadline() {
+        return (40L + getResponseTicks()) * 50L;
+    }
+
+    /**
+     * @return How many ticks the server should respond in.
      */
-    private void packetInQuery(Packet packet) {
-        // Understanding how the loaded chunk detection works (for dispatching explanation, see below):
-        //  - Server receives the place block packet:
-        //    > Sends an open window packet if successful
-        //    > Sends a block update packet regardless
-        //  - Server receives invalid move into the chunk:
-        //    > If unloaded, an internal teleport occurs to our old position, no teleport event is fired
-        //    > If loaded, a teleport event is fired and NCP closes our window, we receive a close window packet
-        //    > We receive a teleport packet regardless
-        //  - Server receives teleport confirm packet
-        // Assuming this all goes to plan, we should have a correct mapping of window ID -> teleport ID, and further
-        // teleport ID -> query.
-        // Ways in which this can go wrong:
-        //  - NCP net flying frequency cancels our movement packet:
-        //    > Detected when we receive an open window packet with no following teleport packet
-        //    > The fix is to re-align the teleport ID to window ID mappings and reschedule the dropped query
-        //  - Anti-cheat stops our place block packet:
-        //    > Detected when we receive a block change packet with no prior open window packet
-        //    > If the previous chunk was unloaded, the storage will still be open, so the detection will have gone
-        //      through correctly.
-        //    > If the previous chunk was loaded, we can't be sure of the state of it.
-        //    > Re-align the teleport ID to window ID mappings, reschedule if required.
-        //  - Paper's packet in limit stops our place block packet (9 every 300ms on constantiam.net):
-        //    > Detected when we receive a teleport packet with no prior block change packet
-        //    > Same as the point above
-
-        if (current == null && processing.isEmpty()) return;
-        if (current != null && !(packet instanceof ServerChatPacket)) ++current.packetsElapsed;
-
-        // Check for if we were expecting a response to a digging packet that we might have sent
-        if (handle.DIGGING_RESYNC.value && packet instanceof ServerBlockChangePacket) {
-            BlockChangeRecord record = ((ServerBlockChangePacket)packet).getRecord();
+    private int getResponseTicks() {
+        return (int)Math.ceil(Math.max(50.0f, averageResponseTime) / 50.0f);
+    }
+
+    /**
+     * Called by the timing wheel when a query hasn't been responded to in time.
+     */
+    private synchronized void onResponseDeadline(ProcessingQuery processingQuery) {
+        if (current != processingQuery && !processing.contains(processingQuery)) return; // Already dealt with
+        // If we're not receiving packets then we'll simply wait for the server's response. By then, if we do not have
+        // any further information about the state of the queries we will handle them appropriately.
+        if (player.getTSLP() > getResponseTicks() * 50) {
+            processingQuery.deadline = yesCom.timingWheel.schedule(
+                    getResponseDeadline(), () -> onResponseDeadline(processingQuery)
+            );
+            return;
+        }
+
+        logger.warning(String.format(
+                "%s query timeout: mlimit=%d, preconf=%d, proc=%d, dt=%dms.",
+                player.getUsername(), movementLimit, preConfirms.size(), processing.size(),
+                System.currentTimeMillis() - processingQuery.startTime
+        ));
+
+        // If we've reached this point, there's probably a bug in other parts of this code, or the server
+        // dropped all our packets after the lag spike, for some reason?
+
+        if (current != null) reschedule(current);
+        current = null;
+        movementLimit = 20;
+        decreaseWindow(true);
+
+        rescheduleProcessing();
+        preConfirms.clear();
+    }
+
+    /**
+     * Gives a query back to the handle to be dispatched again. It won't be completed by us, so its deadline is
+     * cancelled here.
+     */
+    private void reschedule(ProcessingQuery processingQuery) {
+        if (processingQuery.deadline != null) processingQuery.deadline.cancel();
+        rescheduled.add(processingQuery.query);
+    }
+
+    /**
+     * Reschedules all the queries we're processing, other than the current one.
+     */
+    private void rescheduleProcessing() {
+        for (ProcessingQuery processingQuery : processing) reschedule(processingQuery);
+        processing.clear();
+    }
+
+    // Understanding how the loaded chunk detection works (for dispatching explanation, see below):
+    //  - Server receives the place block packet:
+    //    > Sends an open window packet if successful
+    //    > Sends a block update packet regardless
+    //  - Server receives invalid move into the chunk:
+    //    > If unloaded, an internal teleport occurs to our old position, no teleport event is fired
+    //    > If loaded, a teleport event is fired and NCP closes our window, we receive a close window packet
+    //    > We receive a teleport packet regardless
+    //  - Server receives teleport confirm packet
+    // Assuming this all goes to plan, we should have a correct mapping of window ID -> teleport ID, and further
+    // teleport ID -> query.
+    // Ways in which this can go wrong:
+    //  - NCP net flying frequency cancels our movement packet:
+    //    > Detected when we receive an open window packet with no following teleport packet
+    //    > The fix is to re-align the teleport ID to window ID mappings and reschedule the dropped query
+    //  - Anti-cheat stops our place block packet:
+    //    > Detected when we receive a block change packet with no prior open window packet
+    //    > If the previous chunk was unloaded, the storage will still be open, so the detection will have gone
+    //      through correctly.
+    //    > If the previous chunk was loaded, we can't be sure of the state of it.
+    //    > Re-align the teleport ID to window ID mappings, reschedule if required.
+    //  - Paper's packet in limit stops our place block packet (9 every 300ms on constantiam.net):
+    //    > Detected when we receive a teleport packet with no prior block change packet
+    //    > Same as the point above
+
+    /**
+     * Checks for responses to a digging packet or a place block packet that we might have sent.
+     */
+    private void onBlockChangeQuery(ServerBlockChangePacket blockChange) {
+        if (current == null && processing.isEmpty()) return; // Not processing any queries
+
+        if (handle.DIGGING_RESYNC.value) {
+            BlockChangeRecord record = blockChange.getRecord();
 
             BlockPosition diggingPosition = processing.isEmpty() ? null : processing.peek().diggingPosition;
             if (diggingPosition != null && 
@@ -635,12 +716,13 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
                     synchronized (this) {
                         // Haven't finished processing the previous query, need to reschedule it and we'll also limit
                         // the movement packets as this means we flagged the NCP net flying frequency
-                        rescheduled.add(current.query);
+                        reschedule(current);
+                        current = null;
                         movementLimit = 20; // FIXME: Is this too long or too short?
+                        decreaseWindow(false);
 
                         // Actually, let's just reschedule them all because we shouldn't be flagging NFF as it is
-                        for (ProcessingQuery processingQuery : processing) rescheduled.add(processingQuery.query);
-                        processing.clear();
+                        rescheduleProcessing();
                         preConfirms.clear();
 
                         /*
@@ -667,206 +749,286 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
 
                 synchronized (this) {
                     current = processing.poll();
-                    current.unsure = false;
+                    if (current != null) current.unsure = false;
                 }
             }
         }
 
-        if (handle.ARZI_MODE.value && handle.WID_RESYNC.value) {
-            if (packet instanceof ServerOpenWindowPacket) {
-                ServerOpenWindowPacket openWindow = (ServerOpenWindowPacket)packet;
-
-                synchronized (this) {
-                    if (current == null) current = processing.poll();
-                    if (current.openWindowID > 0 || current.gotBlockState || current.closeWindowID > 0) {
-                        logger.warning(String.format(
-                                "%s nff, unmanaged: mlimit=%d, preconf=%d, proc=%d, unsure=%s, e_tid=%d, e_wid=%d, o_wid=%d, c_wid=%d, gbs=%s, p_el=%d, t_el=d, dt=%dms.",
-                                player.getUsername(), movementLimit, preConfirms.size(), processing.size(),
-                                current.unsure, current.teleportID, current.windowID, current.openWindowID,
-                                current.closeWindowID, current.gotBlockState, current.packetsElapsed,
-                                current.ticksElapsed, System.currentTimeMillis() - current.startTime
-                        ));
-
-                        // Could've flagged net flying frequency? If digging resync is not enabled we can't be
-                        // sure how many packets we've actually lost to the check (especially if our storage
-                        // is limited), so a safe bet is just to reschedule all in-flight. Also limit the next
-                        // movement packets.
-                        rescheduled.add(current.query);
-                        movementLimit = 20;
-
-                        for (ProcessingQuery processingQuery : processing) rescheduled.add(processingQuery.query);
-                        processing.clear();
-
-                    } else {
-                        current.openWindowID = openWindow.getWindowId();
-                    }
-                }
+        if (!usingARZI() || !(currentStorage instanceof BlockStorage)) return;
 
-            } else if (packet instanceof ServerWindowPropertyPacket) {
-                ServerWindowPropertyPacket windowProperty = (ServerWindowPropertyPacket)packet;
-                // We won't count this as an elapsed packet as we'll get these after the window opens
-                if (current != null && current.openWindowID == windowProperty.getWindowId()) --current.packetsElapsed;
+        // The server sends the storage's block state back in response to the place block packet, whether or
+        // not the storage was opened
+        BlockPosition storagePosition = ((BlockStorage)currentStorage).position;
+        BlockChangeRecord record = blockChange.getRecord();
+        if (storagePosition.getX() == record.getPosition().getX() &&
+                storagePosition.getY() == record.getPosition().getY() &&
+                storagePosition.getZ() == record.getPosition().getZ()) {
+            synchronized (this) {
+                if (current == null) current = processing.poll();
+                if (current != null) current.gotBlockState = true;
+            }
+        }
+    }
 
-            } else if (packet instanceof ServerWindowItemsPacket) {
-                ServerWindowItemsPacket windowItems = (ServerWindowItemsPacket)packet;
-                if (current != null && current.openWindowID == windowItems.getWindowId()) --current.packetsElapsed;
+    private void onOpenWindowQuery(ServerOpenWindowPacket openWindow) {
+        if (current == null && processing.isEmpty()) return; // Not processing any queries
+        if (!usingARZI()) return;
 
-            } else if (packet instanceof ServerBlockChangePacket) {
-                ServerBlockChangePacket blockChange = (ServerBlockChangePacket)packet;
+        synchronized (this) {
+            if (current == null) current = processing.poll();
+            if (current == null) return; // Not a response to a query
+            if (current.openWindowID > 0 || current.gotBlockState || current.closeWindowID > 0) {
+                logger.warning(String.format(
+                        "%s nff, unmanaged: mlimit=%d, preconf=%d, proc=%d, unsure=%s, e_tid=%d, e_wid=%d, o_wid=%d, c_wid=%d, gbs=%s, p_el=%d, t_el=d, dt=%dms.",
+                        player.getUsername(), movementLimit, preConfirms.size(), processing.size(),
+                        current.unsure, current.teleportID, current.windowID, current.openWindowID,
+                        current.closeWindowID, current.gotBlockState, current.packetsElapsed,
+                        current.ticksElapsed, System.currentTimeMillis() - current.startTime
+                ));
 
-            } else if (packet instanceof ServerCloseWindowPacket) {
-                ServerCloseWindowPacket closeWindow = (ServerCloseWindowPacket)packet;
+                // Could've flagged net flying frequency? If digging resync is not enabled we can't be
+                // sure how many packets we've actually lost to the check (especially if our storage
+                // is limited), so a safe bet is just to reschedule all in-flight. Also limit the next
+                // movement packets.
+                reschedule(current);
+                current = null;
+                movementLimit = 20;
+                decreaseWindow(false);
 
-                synchronized (this) {
-                    if (current == null) current = processing.poll();
-                }
-                // Check for if we already have a close window ID associated, don't need to check the open window
-                // ID as that's performed later, when we get the teleport packet
-                if (/* current.openWindowID < 0 || !current.gotBlockState || */ current.closeWindowID > 0) {
-                    logger.warning(String.format(
-                            "%s ext close window: mlimit=%d, preconf=%d, proc=%d, unsure=%s, e_tid=%d, e_wid=%d, o_wid=%d, c_wid=%d, ac_wid=%d, p_el=%d, t_el=%d, dt=%dms.",
-                            player.getUsername(), movementLimit, preConfirms.size(), processing.size(),
-                            current.unsure, current.teleportID, current.windowID, current.openWindowID,
-                            current.closeWindowID, closeWindow.getWindowId(), current.packetsElapsed,
-                            current.ticksElapsed, System.currentTimeMillis() - current.startTime
-                    ));
+                rescheduleProcessing();
 
-                    // Means that we've gotten more close windows than we expected. This could be due to NCP flags, 
-                    // idk? Wouldn't indicate that we've teleported twice though because we definitely should've
-                    // received the teleport packet (and processed the query).
+            } else {
+                current.openWindowID = openWindow.getWindowId();
+            }
+        }
+    }
 
-                    // FIXME: Could this actually ever happen though, because the storage would need to have been opened
-                    //        twice, maybe 9b's blatant patch could cause this though? <- ig we aren't really coord
-                    //        exploiting on 9b though lol
+    private void onWindowPropertyQuery(ServerWindowPropertyPacket windowProperty) {
+        // We won't count this as an elapsed packet as we'll get these after the window opens
+        if (usingARZI() && current != null && current.openWindowID == windowProperty.getWindowId())
+            --current.packetsElapsed;
+    }
 
-                } else {
-                    current.closeWindowID = closeWindow.getWindowId();
-                }
+    private void onWindowItemsQuery(ServerWindowItemsPacket windowItems) {
+        if (usingARZI() && current != null && current.openWindowID == windowItems.getWindowId())
+            --current.packetsElapsed;
+    }
 
-            } else if (packet instanceof ServerPlayerPositionRotationPacket) {
-                ServerPlayerPositionRotationPacket positionRotation = (ServerPlayerPositionRotationPacket)packet;
+    private void onCloseWindowQuery(ServerCloseWindowPacket closeWindow) {
+        if (current == null && processing.isEmpty()) return; // Not processing any queries
 
-                synchronized (this) {
-                    if (current == null) current = processing.poll();
-                }
-                if (current.teleportID != positionRotation.getTeleportId()) {
-                    // TODO: Something has gone wrong here
+        if (usingARZI()) {
+            synchronized (this) {
+                if (current == null) current = processing.poll();
+            }
+            if (current == null) return;
+            // Check for if we already have a close window ID associated, don't need to check the open window
+            // ID as that's performed later, when we get the teleport packet
+            if (/* current.openWindowID < 0 || !current.gotBlockState || */ current.closeWindowID > 0) {
+                logger.warning(String.format(
+                        "%s ext close window: mlimit=%d, preconf=%d, proc=%d, unsure=%s, e_tid=%d, e_wid=%d, o_wid=%d, c_wid=%d, ac_wid=%d, p_el=%d, t_el=%d, dt=%dms.",
+                        player.getUsername(), movementLimit, preConfirms.size(), processing.size(),
+                        current.unsure, current.teleportID, current.windowID, current.openWindowID,
+                        current.closeWindowID, closeWindow.getWindowId(), current.packetsElapsed,
+                        current.ticksElapsed, System.currentTimeMillis() - current.startTime
+                ));
 
-                } else if (current.windowID < 0 || !current.gotBlockState) {
-                    // TODO: Something has gone wrong here
+                // Means that we've gotten more close windows than we expected. This could be due to NCP flags, 
+                // idk? Wouldn't indicate that we've teleported twice though because we definitely should've
+                // received the teleport packet (and processed the query).
 
-                } else if (current.windowID != current.openWindowID) {
-                    // TODO: Something has gone wrong here
+                // FIXME: Could this actually ever happen though, because the storage would need to have been opened
+                //        twice, maybe 9b's blatant patch could cause this though? <- ig we aren't really coord
+                //        exploiting on 9b though lol
 
-                } else if (current.closeWindowID > 0 && current.windowID != current.closeWindowID) {
-                    // TODO: Something has gone wrong here
+            } else {
+                current.closeWindowID = closeWindow.getWindowId();
+            }
+        } else {
+            // If digging resync is enabled case will fail, so check if unsure
+            if (current != null && current.unsure) {
+                logger.warning(String.format(
+                        "%s ext close window: mlimit=%d, preconf=%d, proc=%d, unsure=true, e_tid=%d, c_wid=%d",
+                        player.getUsername(), movementLimit, preConfirms.size(), processing.size(),
+                        current.teleportID, closeWindow.getWindowId() 
+                ));
 
-                } else {
+                // Extraneous close window packet, not sure exactly why this would happen. Catching this would also
+                // be pretty niche (without ARZI mode). No need to actually do anything here, as we already know
+                // that the storage is closed.
 
+            } else if (current == null) {
+                synchronized (this) {
+                    current = processing.poll();
                 }
-
-                current = null;
             }
 
-        } else {
-            if (packet instanceof ServerCloseWindowPacket) {
-                ServerCloseWindowPacket closeWindow = (ServerCloseWindowPacket)packet;
+            if (current != null) current.closeWindowID = closeWindow.getWindowId();
+        }
+    }
+
+    private void onPositionRotationQuery(ServerPlayerPositionRotationPacket positionRotation) {
+        if (current == null && processing.isEmpty()) return; // Not processing any queries
+
+        if (usingARZI()) {
+            synchronized (this) {
+                if (current == null) current = processing.poll();
+                if (current == null) return; // Not a response to a query
 
-                // If digging resync is enabled case will fail, so check if unsure
-                if (current != null && current.unsure) {
+                if (current.teleportID != positionRotation.getTeleportId()) {
                     logger.warning(String.format(
-                            "%s ext close window: mlimit=%d, preconf=%d, proc=%d, unsure=true, e_tid=%d, c_wid=%d",
-                            player.getUsername(), movementLimit, preConfirms.size(), processing.size(),
-                            current.teleportID, closeWindow.getWindowId() 
+                            "%s unexpected setback: e_tid=%d, tid=%d, e_wid=%d, o_wid=%d, c_wid=%d, dt=%dms.",
+                            player.getUsername(), current.teleportID, positionRotation.getTeleportId(),
+                            current.windowID, current.openWindowID, current.closeWindowID,
+                            System.currentTimeMillis() - current.startTime
                     ));
 
-                    // Extraneous close window packet, not sure exactly why this would happen. Catching this would also
-                    // be pretty niche (without ARZI mode). No need to actually do anything here, as we already know
-                    // that the storage is closed.
+                    // Can't tell which of the queries this belongs to, so give them all back
+                    reschedule(current);
+                    decreaseWindow(false);
+                    rescheduleProcessing();
+                    preConfirms.clear();
+                    player.send(new ClientTeleportConfirmPacket(positionRotation.getTeleportId()));
 
-                } else if (current == null) {
-                    synchronized (this) {
-                        current = processing.poll();
-                    }
+                } else if (current.windowID < 0 || current.openWindowID < 0 || !current.gotBlockState) {
+                    // The place block packet was dropped (anti-cheat or the packet limit), so the storage may not
+                    // have been open when we moved, and the result can't be trusted
+                    logger.finer(String.format(
+                            "%s no storage response, rescheduling current: e_wid=%d, o_wid=%d, gbs=%s, dt=%dms.",
+                            player.getUsername(), current.windowID, current.openWindowID, current.gotBlockState,
+                            System.currentTimeMillis() - current.startTime
+                    ));
+                    reschedule(current);
+
+                } else if (current.windowID != current.openWindowID ||
+                        (current.closeWindowID > 0 && current.windowID != current.closeWindowID)) {
+                    // Our window IDs are out of line with the server's, so the queries after this one can't be
+                    // trusted either. Re-align to the window the server actually opened.
+                    logger.fine(String.format(
+                            "%s window ID mismatch: e_wid=%d, o_wid=%d, c_wid=%d, proc=%d.",
+                            player.getUsername(), current.windowID, current.openWindowID, current.closeWindowID,
+                            processing.size()
+                    ));
+                    reschedule(current);
+                    rescheduleProcessing();
+                    estimatedWindowID = current.openWindowID;
+
+                } else {
+                    // NCP closes the window when the teleport event fires, which only happens if the chunk is loaded
+                    finalise(current.closeWindowID > 0);
                 }
 
-                if (current != null) current.closeWindowID = closeWindow.getWindowId();
+                current = null;
+            }
+        } else {
+            synchronized (this) {
+                if (current == null) current = processing.poll();
+            }
+            if (current == null) return; // Not a response to a query
+            if (current.teleportID != positionRotation.getTeleportId()) {
+                logger.warning(String.format(
+                        "%s unexpected setback: unsure=%s, e_tid=%d, tid=%d, c_wid=%d dt=%dms",
+                        player.getUsername(), current.unsure, current.teleportID, positionRotation.getTeleportId(),
+                        current.closeWindowID, System.currentTimeMillis() - current.startTime
+                ));
 
-            } else if (packet instanceof ServerPlayerPositionRotationPacket) {
-                ServerPlayerPositionRotationPacket positionRotation = (ServerPlayerPositionRotationPacket)packet;
+                // Honestly not too sure what could've happened here, if we flagged the NFF then this wouldn't occur
+                // (since even digging resync would just reschedule all). Perhaps an unconfirmed teleport occurred
+                // and we incremented the ID, or just some extraneous NCP flag.
 
                 synchronized (this) {
-                    if (current == null) current = processing.poll();
+                    // TODO: Is there something more efficient that can be done?
+                    reschedule(current);
+                    decreaseWindow(false);
+                    rescheduleProcessing();
+                    preConfirms.clear();
                 }
-                if (current.teleportID != positionRotation.getTeleportId()) {
+
+                // Confirm it because we're not too sure what could've happened
+                player.send(new ClientTeleportConfirmPacket(positionRotation.getTeleportId()));
+
+            } else {
+                if (current.diggingPosition != null && current.unsure) {
                     logger.warning(String.format(
-                            "%s unexpected setback: unsure=%s, e_tid=%d, tid=%d, c_wid=%d dt=%dms",
-                            player.getUsername(), current.unsure, current.teleportID, positionRotation.getTeleportId(),
+                            "%s no digging response: unsure=true, e_tid=%d, tid=%d, c_wid=%d, dt=%dms.",
+                            player.getUsername(), current.teleportID, positionRotation.getTeleportId(),
                             current.closeWindowID, System.currentTimeMillis() - current.startTime
                     ));
+                }
 
-                    // Honestly not too sure what could've happened here, if we flagged the NFF then this wouldn't occur
-                    // (since even digging resync would just reschedule all). Perhaps an unconfirmed teleport occurred
-                    // and we incremented the ID, or just some extraneous NCP flag.
-
+                // Storage wasn't open by the time we started processing this query, probably
+                if (!storageOpen && current.closeWindowID < 0) {
+                    logger.finer(String.format(
+                            "%s storage is closed, rescheduling current: e_tid=%d, tid=%d, dt=%dms.", 
+                            player.getUsername(), current.teleportID, positionRotation.getTeleportId(),
+                            System.currentTimeMillis() - current.startTime
+                    ));
                     synchronized (this) {
-                        // TODO: Is there something more efficient that can be done?
-                        rescheduled.add(current.query);
-                        for (ProcessingQuery processingQuery : processing) rescheduled.add(processingQuery.query);
-                        processing.clear();
-                        preConfirms.clear();
+                        reschedule(current);
                     }
 
-                    // Confirm it because we're not too sure what could've happened
-                    player.send(new ClientTeleportConfirmPacket(positionRotation.getTeleportId()));
-
                 } else {
-                    if (current.diggingPosition != null && current.unsure) {
-                        logger.warning(String.format(
-                                "%s no digging response: unsure=true, e_tid=%d, tid=%d, c_wid=%d, dt=%dms.",
-                                player.getUsername(), current.teleportID, positionRotation.getTeleportId(),
-                                current.closeWindowID, System.currentTimeMillis() - current.startTime
-                        ));
-                    }
+                    finalise(current.closeWindowID > 0);
+                }
+            }
 
-                    // Storage wasn't open by the time we started processing this query, probably
-                    if (!storageOpen && current.closeWindowID < 0) {
-                        logger.finer(String.format(
-                                "%s storage is closed, rescheduling current: e_tid=%d, tid=%d, dt=%dms.", 
-                                player.getUsername(), current.teleportID, positionRotation.getTeleportId(),
-                                System.currentTimeMillis() - current.startTime
-                        ));
-                        synchronized (this) {
-                            rescheduled.add(current.query);
-                        }
+            synchronized (this) {
+                // Storage isn't open and we don't intend on opening it for the next query?
+                if (!storageOpen && (processing.isEmpty() || processing.peek().windowID < 0)) {
+                    logger.finest(String.format(
+                            "%s storage is closed, rescheduling %d queries.", player.getUsername(), processing.size()
+                    ));
 
-                    } else {
-                        finalise(current.closeWindowID > 0);
-                    }
-                }
+                    rescheduleProcessing();
 
-                synchronized (this) {
-                    // Storage isn't open and we don't intend on opening it for the next query?
-                    if (!storageOpen && (processing.isEmpty() || processing.peek().windowID < 0)) {
-                        logger.finest(String.format(
-                                "%s storage is closed, rescheduling %d queries.", player.getUsername(), processing.size()
-                        ));
-
-                        for (ProcessingQuery processingQuery : processing) rescheduled.add(processingQuery.query);
-                        processing.clear();
-
-                        if (currentStorage != null && attemptOpen < 0) {
-                            logger.finest(String.format("%s is attempting to open storage.", player.getUsername()));
-                            attemptOpen = System.currentTimeMillis();
-                            currentStorage.tryOpen();
-                        }
+                    if (currentStorage != null && attemptOpen < 0) {
+                        logger.finest(String.format("%s is attempting to open storage.", player.getUsername()));
+                        attemptOpen = System.currentTimeMillis();
+                        currentStorage.tryOpen();
                     }
                 }
-
-                current = null;
             }
+
+            current = null;
         }
+    }
 
+    /**
+     * @return Are we using ARZI mode with window ID resync, in which case the storage's responses are tracked too?
+     */
+    private boolean usingARZI() {
+        return handle.ARZI_MODE.value && handle.WID_RESYNC.value;
+    }
+
+    /**
+     * Grows the in-flight window, called when a query is finalised cleanly.
+     */
+    private void increaseWindow() {
+        if (window < windowThreshold) {
+            window += 1.0f; // Slow start, double every window
+        } else {
+            window += handle.WINDOW_INCREASE.value / window;
+        }
+        window = Math.min(handle.MAX_WINDOW.value.floatValue(), window);
+    }
+
+    /**
+     * Shrinks the in-flight window, called when we detect nff, unexpected setbacks or timeouts.
+     * @param timeout Was this a timeout? If so we'll go back to the minimum window, as something has gone badly wrong.
+     */
+    private void decreaseWindow(boolean timeout) {
+        // All in-flight queries get rescheduled on these events, so only count it once per response time
+        long currentTime = System.currentTimeMillis();
+        if (!timeout && currentTime - lastWindowDecrease < Math.max(50.0f, averageResponseTime)) return;
+        lastWindowDecrease = currentTime;
+
+        float minWindow = handle.MIN_WINDOW.value.floatValue();
+        windowThreshold = Math.max(minWindow, window * handle.WINDOW_DECREASE.value.floatValue());
+        window = timeout ? minWindow : windowThreshold;
+
+        logger.finer(String.format(
+                "%s window decreased: window=%.2f, thresh=%.2f.", player.getUsername(), window, windowThreshold
+        ));
     }
 
     /**
@@ -876,11 +1038,13 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
     private void finalise(boolean loaded) {
         previousLoaded = loaded;
         ++finalisedThisTick;
-        ticksProcessing = 0; // Have actually finalised queries
         if (current == null) return;
+        if (current.deadline != null) current.deadline.cancel();
+        efficiency = efficiency * 0.98f + 0.02f;
 
         int responseTime = (int)(System.currentTimeMillis() - current.startTime);
         averageResponseTime = averageResponseTime * 0.95f + responseTime * 0.05f;
+        increaseWindow();
 
         logger.finest(String.format(
                 "%s finalised query: position=(%d, %d), loaded=%s, dt=%dms.",
@@ -888,19 +1052,8 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
                 current.query.position.getX() * 16, current.query.position.getZ() * 16,
                 loaded, responseTime
         ));
-        current.query.setState(loaded ? ChunkState.State.LOADED : ChunkState.State.UNLOADED);
-
-        Consumer<InvalidMoveQuery> callback;
-        synchronized (handle) {
-            callback = handle.callbacks.get(current.query);
-            handle.callbacks.remove(current.query);
-
-            if (handle.cancelled.contains(current.query)) callback = null; // Indicate that it was cancelled
-            handle.cancelled.remove(current.query);
-        }
-
-        // Fire the callback outside of the synchronized block to avoid deadlocking :p
-        if (callback != null) callback.accept(current.query); // FIXME: Different thread perhaps?
+        // Ignored by the handle if the query was cancelled while we were processing it
+        handle.complete(current.query, loaded ? IsLoadedQuery.Status.LOADED : IsLoadedQuery.Status.UNLOADED);
     }
 
     /* ------------------------------ Public API ------------------------------ */
@@ -912,8 +1065,9 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
         // Can't handle queries in other dimensions, might still happen (idk), better safe than sorry though        
         if (query.dimension != player.getDimension()) return false;
         if (dispatchedThisTick >= Math.floor(handle.QUERIES_PER_TICK.value) + overshootDispatching) return false;
-        // How many ticks should we expect the server to respond in?
-        return Math.max(50.0f, averageResponseTime) / 50.0f * handle.QUERIES_PER_TICK.value > processing.size();
+        if (processing.size() >= (int)window) return false;
+        // Make sure the whole bundle fits within the server's packet budget, as dropped packets are expensive to recover from
+        return player.canSend(getBundle());
     }
 
     /**
@@ -924,12 +1078,46 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
                 (storageOpen || handle.ARZI_MODE.value));
     }
 
+    /**
+     * @return The classes of the packets that {@link #dispatch(InvalidMoveQuery)} will send.
+     */
+    private Class<?>[] getBundle() {
+        boolean placing = handle.ARZI_MODE.value && currentStorage instanceof BlockStorage;
+        return BUNDLES[(handle.DIGGING_RESYNC.value ? 1 : 0) | (placing ? 2 : 0) | (placing && handle.SWING_ARM.value ? 4 : 0)];
+    }
+
+    private static Class<?>[][] createBundles() {
+        Class<?>[][] bundles = new Class<?>[8][];
+        for (int flags = 0; flags < bundles.length; ++flags) {
+            List<Class<?>> bundle = new ArrayList<>(5);
+            if ((flags & 1) != 0) bundle.add(ClientPlayerActionPacket.class);
+            if ((flags & 2) != 0) bundle.add(ClientPlayerPlaceBlockPacket.class);
+            if ((flags & 4) != 0) bundle.add(ClientPlayerSwingArmPacket.class);
+            bundle.add(ClientPlayerPositionPacket.class);
+            bundle.add(ClientTeleportConfirmPacket.class);
+            bundles[flags] = bundle.toArray(new Class<?>[0]);
+        }
+        return bundles;
+    }
+
     /**
      * Dispatches a query with this player handle.
      * @param query The {@link InvalidMoveQuery} to dispatch.
      */
     public void dispatch(InvalidMoveQuery query) {
+        if (query.getStatus().isTerminal()) return; // Cancelled since it was assigned to us
+
+        player.beginBatch(); // The packets for a query are only useful together, so send them in one go
+        try {
+            dispatchBundle(query);
+        } finally {
+            player.endBatch();
+        }
+    }
+
+    private void dispatchBundle(InvalidMoveQuery query) {
         logger.finest(String.format("%s dispatching query %s.", player.getUsername(), query));
+        handle.processing(query);
 
         BlockPosition position = query.position.getPosition(8, 100000, 8);
         BlockPosition diggingPosition = null;
@@ -946,21 +1134,19 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
                     Math.floor(player.getPosition().getZ()) + diggingZ
             );
 
-            player.send(new ClientPlayerActionPacket(
-                    PlayerAction.CANCEL_DIGGING,
-                    new com.github.steveice10.mc.protocol.data.game.entity.metadata.Position(
-                            diggingPosition.getX(), diggingPosition.getY(), diggingPosition.getZ()
-                    ),
-                    BlockFace.UP
-            ));
+            player.send(PacketTemplates.cancelDigging(diggingPosition.getX(), diggingPosition.getY(), diggingPosition.getZ()));
         }
 
         // if (processing.isEmpty()) ticksSinceTeleport = 0;
         synchronized (this) {
-            if (handle.ARZI_MODE.value && handle.WID_RESYNC.value) estimatedWindowID = estimatedWindowID + 1 % 100;
-            processing.add(new ProcessingQuery(
+            if (handle.ARZI_MODE.value && handle.WID_RESYNC.value) estimatedWindowID = estimatedWindowID % 100 + 1; // 1 to 100
+            ProcessingQuery processingQuery = new ProcessingQuery(
                     query, diggingPosition, ++estimatedTeleportID, handle.ARZI_MODE.value ? estimatedWindowID : -1
-            ));
+            );
+            processingQuery.deadline = yesCom.timingWheel.schedule(
+                    getResponseDeadline(), () -> onResponseDeadline(processingQuery)
+            );
+            processing.add(processingQuery);
             // preConfirms.add(estimatedTeleportID);
         }
 
@@ -972,12 +1158,135 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
 
         // Sending this after we've opened the storage (with ARZI mode) means that we can guarantee something will
         // have gone wrong if we do not receive the open storage packet before the response
-        player.send(new ClientPlayerPositionPacket(false, positionX, position.getY(), positionZ));
+        player.send(PacketTemplates.position(false, positionX, position.getY(), positionZ));
         player.send(new ClientTeleportConfirmPacket(estimatedTeleportID));
 
         ++dispatchedThisTick;
     }
 
+    /**
+     * Dispatches as many queries from the local queue as we can handle right now.
+     */
+    public void dispatchLocal() {
+        player.beginBatch();
+        try {
+            while (true) {
+                InvalidMoveQuery query;
+                synchronized (local) {
+                    query = local.peek();
+                    if (query == null) return;
+                    if (!query.isExpired() && !canHandle(query)) return;
+                    local.poll();
+                }
+                if (query.isExpired()) {
+                    handle.complete(query, IsLoadedQuery.Status.EXPIRED);
+                } else {
+                    dispatch(query);
+                }
+            }
+        } finally {
+            player.endBatch();
+        }
+    }
+
+    /**
+     * Assigns a query to this player, it will be dispatched when we next can.
+     */
+    public void offer(InvalidMoveQuery query) {
+        synchronized (local) {
+            local.add(query);
+        }
+    }
+
+    /**
+     * Assigns a query to this player, ahead of any other queries of the same priority.
+     */
+    public void offerFirst(InvalidMoveQuery query) {
+        synchronized (local) {
+            local.addFirst(query);
+        }
+    }
+
+    /**
+     * Steals the next query from the local queue, so that another player can process it.
+     * @return The query, null if there are none.
+     */
+    public InvalidMoveQuery steal() {
+        synchronized (local) {
+            return local.poll();
+        }
+    }
+
+    /**
+     * Removes a query from the local queue.
+     * @return Was the query in the local queue?
+     */
+    public boolean removeLocal(InvalidMoveQuery query) {
+        synchronized (local) {
+            return local.remove(query);
+        }
+    }
+
+    /**
+     * Removes all queries from the local queue.
+     * @return The removed queries, in the order they would've been dispatched.
+     */
+    public List<InvalidMoveQuery> drainLocal() {
+        List<InvalidMoveQuery> queries = new ArrayList<>();
+        synchronized (local) {
+            for (InvalidMoveQuery query : local) queries.add(query);
+            local.clear();
+        }
+        return queries;
+    }
+
+    /**
+     * @return The number of queries assigned to this player that haven't been dispatched yet.
+     */
+    public int getLocalSize() {
+        synchronized (local) {
+            return local.size();
+        }
+    }
+
+    /**
+     * @return The number of queries this player has in-flight.
+     */
+    public synchronized int getProcessingSize() {
+        return processing.size();
+    }
+
+    /**
+     * @return The number of ticks we expect the server to take to respond to a query, based on ping and response time.
+     */
+    public float getExpectedResponseTicks() {
+        return Math.max(50.0f, Math.max(player.getServerPing(), averageResponseTime)) / 50.0f;
+    }
+
+    /**
+     * @return The maximum number of queries this player could process per tick, given the current window.
+     */
+    public float getMaxThroughput() {
+        float expectedTicks = Math.max(50.0f, averageResponseTime) / 50.0f; // How many ticks should the server respond in?
+        return Math.min(handle.QUERIES_PER_TICK.value.floatValue(), window / expectedTicks);
+    }
+
+    /**
+     * @return The estimated number of queries this player can actually resolve per tick, this is the maximum
+     *         throughput, less the queries we expect to lose and have to reschedule.
+     */
+    public float getCapacity() {
+        if (!canQuery()) return 0.0f;
+        return getMaxThroughput() * efficiency;
+    }
+
+    /**
+     * @return The number of queries this player is currently allowed to have in-flight.
+     */
+    public float getWindow() {
+        return window;
+    }
+
     /**
      * @return The number of queries that were dispatched this tick.
      */
@@ -992,6 +1301,13 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
         return finalisedThisTick;
     }
 
+    /**
+     * @return The dimension of the handle this player is attached to.
+     */
+    public Dimension getDimension() {
+        return handle.getDimension();
+    }
+
     /* ------------------------------ Classes ------------------------------ */
 
     /**
@@ -1051,7 +1367,8 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
         @Override
         public boolean isValid(Position eyesPosition) {
             Position delta = centerPosition.subtract(eyesPosition);
-            boolean valid = delta.getX() * delta.getX() + delta.getY() * delta.getY() + delta.getZ() * delta.getZ() < 25.0f;
+            boolean valid = delta.getX() * delta.getX() + delta.getY() * delta.getY() + delta.getZ() * delta.getZ() <
+                    STORAGE_REACH * STORAGE_REACH;
             // Only calculate the required angle for valid storages
             if (valid && (requiredAngle == null || !eyesPosition.equals(lastEyesPosition))) {
                 lastEyesPosition = eyesPosition;
@@ -1069,14 +1386,7 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
         public void tryOpen() {
             if (!player.getAngle().equals(requiredAngle)) player.setAngle(requiredAngle);
             
-            player.send(new ClientPlayerPlaceBlockPacket(
-                    new com.github.steveice10.mc.protocol.data.game.entity.metadata.Position(
-                            position.getX(), position.getY(), position.getZ()
-                    ),
-                    BlockFace.UP,
-                    Hand.MAIN_HAND,
-                    0.0f, 0.0f, 0.0f
-            ));
+            player.send(PacketTemplates.placeBlock(position.getX(), position.getY(), position.getZ()));
             if (handle.SWING_ARM.value) player.send(new ClientPlayerSwingArmPacket(Hand.MAIN_HAND));
             
         }
@@ -1137,6 +1447,8 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
         public boolean gotBlockState = false; // FIXME: Very block-storage-centric
         public int closeWindowID = -1;
 
+        public TimingWheel.Timeout deadline; // Fires if we don't get a response in time
+
         public ProcessingQuery(InvalidMoveQuery query, BlockPosition diggingPosition, int teleportID, int windowID) {
             this.query = query;
             this.diggingPosition = diggingPosition;
@@ -1150,4 +1462,90 @@ public class PlayerHandle implements ITickable, Player.IPacketListener {
             this(query, diggingPosition, teleportID, -1);
         }
     }
+
+    /**
+     * The block storages around the player, indexed by the chunk that they're in, so that chunks can be (un)loaded
+     * and the nearby storages found without looking at every storage.
+     */
+    private class BlockStorageRegistry {
+
+        private final Map<Long, Map<BlockPosition, BlockStorage>> chunks = new HashMap<>();
+        private int size = 0;
+
+        public BlockStorage get(BlockPosition position) {
+            Map<BlockPosition, BlockStorage> chunk = chunks.get(getKey(position.getX() >> 4, position.getZ() >> 4));
+            return chunk != null ? chunk.get(position) : null;
+        }
+
+        public void put(BlockStorage storage) {
+            long key = getKey(storage.position.getX() >> 4, storage.position.getZ() >> 4);
+            if (chunks.computeIfAbsent(key, key1 -> new HashMap<>()).put(storage.position, storage) == null) ++size;
+        }
+
+        public BlockStorage remove(BlockPosition position) {
+            long key = getKey(position.getX() >> 4, position.getZ() >> 4);
+            Map<BlockPosition, BlockStorage> chunk = chunks.get(key);
+            if (chunk == null) return null;
+
+            BlockStorage storage = chunk.remove(position);
+            if (storage != null) --size;
+            if (chunk.isEmpty()) chunks.remove(key);
+            return storage;
+        }
+
+        /**
+         * Removes all the storages in a chunk.
+         * @return The storages that were removed, null if there were none.
+         */
+        public Map<BlockPosition, BlockStorage> removeChunk(int chunkX, int chunkZ) {
+            Map<BlockPosition, BlockStorage> chunk = chunks.remove(getKey(chunkX, chunkZ));
+            if (chunk != null) size -= chunk.size();
+            return chunk;
+        }
+
+        /**
+         * @param position The position to search from.
+         * @param radius The maximum distance from the position to the center of the storage.
+         * @return The nearest storage to the position, null if none are within the radius.
+         */
+        public BlockStorage getNearest(Position position, double radius) {
+            int minChunkX = (int)Math.floor(position.getX() - radius) >> 4;
+            int maxChunkX = (int)Math.floor(position.getX() + radius) >> 4;
+            int minChunkZ = (int)Math.floor(position.getZ() - radius) >> 4;
+            int maxChunkZ = (int)Math.floor(position.getZ() + radius) >> 4;
+
+            BlockStorage nearest = null;
+            double nearestDistance = radius * radius;
+            for (int chunkX = minChunkX; chunkX <= maxChunkX; ++chunkX) {
+                for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; ++chunkZ) {
+                    Map<BlockPosition, BlockStorage> chunk = chunks.get(getKey(chunkX, chunkZ));
+                    if (chunk == null) continue;
+
+                    for (BlockStorage storage : chunk.values()) {
+                        double deltaX = storage.centerPosition.getX() - position.getX();
+                        double deltaY = storage.centerPosition.getY() - position.getY();
+                        double deltaZ = storage.centerPosition.getZ() - position.getZ();
+                        double distance = deltaX * deltaX + deltaY * deltaY + deltaZ * deltaZ;
+                        if (distance < nearestDistance) {
+                            nearest = storage;
+                            nearestDistance = distance;
+                        }
+                    }
+                }
+            }
+            return nearest;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        private long getKey(int chunkX, int chunkZ) {
+            return (long)chunkX << 32 | chunkZ & 0xFFFFFFFFL;
+        }
+    }
 }
@@ -1,36 +1,181 @@
 package ez.pogdog.yescom.core.query.loaded;
 
 import ez.pogdog.yescom.YesCom;
+import ez.pogdog.yescom.api.Logging;
 import ez.pogdog.yescom.api.data.ChunkPosition;
 import ez.pogdog.yescom.api.data.ChunkState;
 import ez.pogdog.yescom.api.data.Dimension;
 import ez.pogdog.yescom.core.Emitters;
 import ez.pogdog.yescom.core.ITickable;
+import ez.pogdog.yescom.core.config.IConfig;
+import ez.pogdog.yescom.core.config.Option;
 import ez.pogdog.yescom.core.connection.Server;
 import ez.pogdog.yescom.core.query.IQueryHandle;
+import ez.pogdog.yescom.core.query.Submitter;
 import ez.pogdog.yescom.core.query.invalidmove.InvalidMoveHandle;
 import ez.pogdog.yescom.core.query.invalidmove.InvalidMoveQuery;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.BiConsumer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
+import java.util.logging.Logger;
 
 /**
- * Handles more specific queries about the states of chunks.
+ * Handles more specific queries about the states of chunks. Recently resolved states are cached, and identical
+ * requests that are already in-flight are coalesced onto the same query.
  */
-public class ChunkHandler {
+public class ChunkHandler implements IConfig, ITickable {
 
+    private final Logger logger = Logging.getLogger("yescom.core.query.loaded");
     private final YesCom yesCom = YesCom.getInstance();
 
+    /* ------------------------------ Options ------------------------------ */
+
+    public final Option<Boolean> CACHE_ENABLED = new Option<>(
+            "Cache enabled",
+            "Caches resolved chunk states and coalesces identical in-flight requests.",
+            true
+    );
+    public final Option<Integer> CACHE_TTL = new Option<>(
+            "Cache TTL",
+            "How long a resolved chunk state is cached for, in milliseconds.",
+            5000
+    );
+    public final Option<Integer> CACHE_MAX_SIZE = new Option<>(
+            "Cache max size",
+            "The maximum number of chunk states to cache, per server, per dimension.",
+            65536
+    );
+
+    /* ------------------------------ Other fields ------------------------------ */
+
+    private final Map<Server, Shard[]> shards = new HashMap<>();
+    private final Map<IsLoadedQuery<?>, InFlight> inFlight = new HashMap<>(); // Tickets and dispatched queries
+    private final List<Resolved> resolved = new ArrayList<>(); // Cache hits, delivered on the next tick
+
+    private long cacheHits;
+    private long cacheMisses;
+    private long coalesced;
+
+    public ChunkHandler() {
+        yesCom.tickables.add(this);
+        Emitters.ON_SERVER_REMOVED.connect(this::onServerRemoved);
+    }
+
+    @Override
+    public void tick() {
+        List<Resolved> resolved;
+        synchronized (this) {
+            if (this.resolved.isEmpty()) return;
+            resolved = new ArrayList<>(this.resolved);
+            this.resolved.clear();
+        }
+        for (Resolved entry : resolved) {
+            entry.query.complete(IsLoadedQuery.Status.fromState(entry.state)); // Might have been cancelled already
+            // Same as every other callback, so that slow callbacks don't hold up the tick
+            if (entry.callback != null) yesCom.callbackExecutor.submit(() -> entry.callback.accept(entry.query));
+        }
+    }
+
+    @Override
+    public String getIdentifier() {
+        return "chunk-handler";
+    }
+
+    @Override
+    public IConfig getParent() {
+        return yesCom;
+    }
+
     /* ------------------------------ Events ------------------------------ */
 
     private void queryCallback(Server server, ChunkState state) {
         Emitters.ON_CHUNK_STATE.emit(new Emitters.ServerChunkState(server, state));
     }
 
+    private synchronized void onServerRemoved(Server server) {
+        Shard[] shards = this.shards.remove(server);
+        if (shards == null) return;
+        for (Shard shard : shards) {
+            if (shard == null) continue;
+            // The queries went with the server's handles, so nothing else will clear them up
+            for (InFlight entry : shard.inFlight.values()) {
+                inFlight.remove(entry.query);
+                for (InvalidMoveQuery superseded : entry.superseded) inFlight.remove(superseded);
+                for (InvalidMoveQuery ticket : entry.tickets.keySet()) inFlight.remove(ticket);
+            }
+        }
+    }
+
+    /**
+     * Called when a dispatched query has been completed by its handle, with any terminal status.
+     */
+    private void onResolved(Server server, Shard shard, long key, InvalidMoveQuery query) {
+        IsLoadedQuery.Status status = query.getStatus();
+        ChunkState state = query.getState();
+        InvalidMoveQuery replacement = null;
+        InFlight retry = null;
+        Map<InvalidMoveQuery, Consumer<IsLoadedQuery<?>>> tickets;
+
+        synchronized (this) {
+            if (status.isResolved()) shard.states.put(key, state.getState());
+            InFlight entry = inFlight.remove(query);
+            if (entry == null) return; // Nobody is waiting on it anymore
+            if (entry.query != query) { // Superseded by a query with a tighter expiry
+                entry.superseded.remove(query);
+                if (!status.isResolved()) return;
+                replacement = entry.query; // Resolved anyway, so the replacement isn't needed
+                inFlight.remove(replacement);
+            }
+            for (InvalidMoveQuery superseded : entry.superseded) inFlight.remove(superseded);
+
+            if (shard.inFlight.get(key) == entry) shard.inFlight.remove(key);
+            tickets = new LinkedHashMap<>(entry.tickets);
+            entry.tickets.clear();
+            for (InvalidMoveQuery ticket : tickets.keySet()) inFlight.remove(ticket);
+
+            // The dispatched query only has the tightest expiry out of the tickets, the others can still be resolved
+            if (status == IsLoadedQuery.Status.EXPIRED) {
+                long deadline = Long.MAX_VALUE;
+                for (InvalidMoveQuery ticket : tickets.keySet()) {
+                    if (!ticket.isExpired() && ticket.getExpiry() >= 0) deadline = Math.min(deadline, ticket.getExpiry());
+                }
+                if (deadline != Long.MAX_VALUE) {
+                    retry = new InFlight(shard, key, new InvalidMoveQuery(
+                            query.position, query.dimension, query.expected, query.priority,
+                            Math.max(0, deadline - System.currentTimeMillis()), query.submitter
+                    ));
+                    for (Map.Entry<InvalidMoveQuery, Consumer<IsLoadedQuery<?>>> ticket : tickets.entrySet()) {
+                        if (ticket.getKey().isExpired()) continue;
+                        retry.tickets.put(ticket.getKey(), ticket.getValue());
+                        inFlight.put(ticket.getKey(), retry);
+                    }
+                    tickets.keySet().removeAll(retry.tickets.keySet());
+                    if (!shard.inFlight.containsKey(key)) shard.inFlight.put(key, retry);
+                    inFlight.put(retry.query, retry);
+                }
+            }
+        }
+
+        if (replacement != null) server.cancel(replacement);
+        if (retry != null) dispatch(server, shard, Collections.singletonList(retry.query));
+        if (status.isResolved()) queryCallback(server, state);
+
+        for (Map.Entry<InvalidMoveQuery, Consumer<IsLoadedQuery<?>>> ticket : tickets.entrySet()) {
+            if (status.isResolved()) ticket.getKey().setState(state.getState());
+            if (!ticket.getKey().complete(status)) continue; // Cancelled in the meantime, and already told
+            if (ticket.getValue() != null) ticket.getValue().accept(ticket.getKey());
+        }
+    }
+
     /* ------------------------------ Other methods ------------------------------ */
 
     private IQueryHandle<? extends IsLoadedQuery<?>> getHandle(Server server, Dimension dimension) {
@@ -56,6 +201,18 @@ public class ChunkHandler {
         return null;
     }
 
+    private Shard getShard(Server server, Dimension dimension) {
+        Shard[] shards = this.shards.computeIfAbsent(server, server1 -> new Shard[Dimension.values().length]);
+        Shard shard = shards[dimension.ordinal()];
+        if (shard == null) {
+            shard = new Shard(CACHE_MAX_SIZE.value);
+            shards[dimension.ordinal()] = shard;
+        } else {
+            shard.states.setMaxSize(CACHE_MAX_SIZE.value);
+        }
+        return shard;
+    }
+
     /* ------------------------------ Public API ------------------------------ */
 
     /**
@@ -69,14 +226,30 @@ public class ChunkHandler {
     }
 
     /**
-     * Requests that a {@link ChunkState} be resolved.
+     * @param ahead The number of ticks to look ahead.
+     * @return The number of queries that could be processed in the given amount of ticks, on top of the ones that are
+     *         already queued. Submitters should size their work to this.
+     */
+    public float getThroughputFor(Server server, Dimension dimension, int ahead) {
+        IQueryHandle<? extends IsLoadedQuery<?>> handle = getHandle(server, dimension);
+        if (handle != null) return handle.getThroughputFor(ahead);
+        return 0.0f;
+    }
+
+    /**
+     * Requests that a {@link ChunkState} be resolved. If the state was resolved recently, the cached state is used,
+     * and the callback is called on the callback thread after the next tick. If an identical request is already
+     * in-flight, at the same priority or higher, this request is attached to it instead, and the in-flight request is
+     * replaced if this one has a tighter expiry. Use {@link #cancel(Server, IsLoadedQuery)} to cancel the
+     * returned query, so that attached requests are not affected.
      * @param server The server to resolve it on.
      * @param dimension The dimension to resolve it in.
      * @param position The position of the chunk.
      * @param expected The expected state of the chunk.
      * @param priority The priority to request at.
      * @param expiry The time until expiry, in milliseconds.
-     * @param callback A direct callback for the query result.
+     * @param callback A direct callback for the query result, called exactly once when the query reaches a terminal
+     *                 {@link IsLoadedQuery.Status}, even if it wasn't resolved.
      * @return The created {@link IsLoadedQuery}.
      */
     public IsLoadedQuery<?> requestState(
@@ -88,18 +261,380 @@ public class ChunkHandler {
             long expiry,
             Consumer<IsLoadedQuery<?>> callback
     ) {
-        if (server.INVALID_MOVE_ENABLED.value) {
-            InvalidMoveHandle handle = (InvalidMoveHandle)getHandle(server, dimension);
-            if (handle != null) { // Uh, why would this happen?
-                InvalidMoveQuery query = new InvalidMoveQuery(position, dimension, expected, priority, expiry);
-                handle.dispatch(query, query1 -> {
-                    if (callback != null) callback.accept(query1);
-                    queryCallback(server, query1.getState());
+        List<IsLoadedQuery<?>> queries = requestStates(
+                server, dimension, Collections.singletonList(position), expected, priority, expiry, null, callback, null
+        );
+        return queries.isEmpty() ? null : queries.get(0);
+    }
+
+    /**
+     * Requests that a batch of {@link ChunkState}s be resolved, see
+     * {@link #requestState(Server, Dimension, ChunkPosition, ChunkState.State, IsLoadedQuery.Priority, long, Consumer)}.
+     * This is cheaper than requesting them individually, as the whole batch is queued at once.
+     * @param positions The positions of the chunks.
+     * @param callback A direct callback for the query results, called once per query.
+     * @return The created {@link IsLoadedQuery}s, in the same order as the positions. Empty if the states can't be
+     *         resolved on the server.
+     */
+    public List<IsLoadedQuery<?>> requestStates(
+            Server server,
+            Dimension dimension,
+            Collection<ChunkPosition> positions,
+            ChunkState.State expected,
+            IsLoadedQuery.Priority priority,
+            long expiry,
+            Consumer<IsLoadedQuery<?>> callback
+    ) {
+        return requestStates(server, dimension, positions, expected, priority, expiry, null, callback, null);
+    }
+
+    /**
+     * Same as {@link #requestStates(Server, Dimension, Collection, ChunkState.State, IsLoadedQuery.Priority, long, Consumer)},
+     * but on behalf of a {@link Submitter}, so that the queries are fairly shared with other submitters at the same
+     * priority.
+     * @param submitter The submitter, null for {@link Submitter#DEFAULT}.
+     */
+    public List<IsLoadedQuery<?>> requestStates(
+            Server server,
+            Dimension dimension,
+            Collection<ChunkPosition> positions,
+            ChunkState.State expected,
+            IsLoadedQuery.Priority priority,
+            long expiry,
+            Submitter submitter,
+            Consumer<IsLoadedQuery<?>> callback
+    ) {
+        return requestStates(server, dimension, positions, expected, priority, expiry, submitter, callback, null);
+    }
+
+    /**
+     * Same as {@link #requestState(Server, Dimension, ChunkPosition, ChunkState.State, IsLoadedQuery.Priority, long, Consumer)},
+     * but with a future. The future completes on the callback thread, cancelling it cancels the query.
+     * @return A future for the resolved state.
+     */
+    public CompletableFuture<ChunkState> requestStateFuture(
+            Server server,
+            Dimension dimension,
+            ChunkPosition position,
+            ChunkState.State expected,
+            IsLoadedQuery.Priority priority,
+            long expiry
+    ) {
+        return requestStateFutures(server, dimension, Collections.singletonList(position), expected, priority, expiry).get(0);
+    }
+
+    /**
+     * Same as {@link #requestStates(Server, Dimension, Collection, ChunkState.State, IsLoadedQuery.Priority, long, Consumer)},
+     * but with futures. The futures complete on the callback thread, cancelling one cancels its query.
+     * @return The futures for the resolved states, in the same order as the positions.
+     */
+    public List<CompletableFuture<ChunkState>> requestStateFutures(
+            Server server,
+            Dimension dimension,
+            Collection<ChunkPosition> positions,
+            ChunkState.State expected,
+            IsLoadedQuery.Priority priority,
+            long expiry
+    ) {
+        Map<IsLoadedQuery<?>, CompletableFuture<ChunkState>> futures = new ConcurrentHashMap<>();
+        List<IsLoadedQuery<?>> queries = requestStates(
+                server, dimension, positions, expected, priority, expiry, null,
+                query -> {
+                    CompletableFuture<ChunkState> future = futures.get(query);
+                    if (future == null) return;
+                    IsLoadedQuery.Status status = query.getStatus();
+                    if (status.isResolved()) {
+                        future.complete(query.getState());
+                    } else if (status == IsLoadedQuery.Status.CANCELLED) {
+                        future.cancel(false);
+                    } else {
+                        future.completeExceptionally(new IllegalStateException(String.format(
+                                "Query for %s was not resolved: %s.", query.position, status
+                        )));
+                    }
+                },
+                query -> futures.put(query, new CompletableFuture<>()) // Before dispatching, so they're there in time
+        );
+
+        List<CompletableFuture<ChunkState>> results = new ArrayList<>(positions.size());
+        if (queries.isEmpty()) {
+            for (int index = 0; index < positions.size(); ++index) {
+                CompletableFuture<ChunkState> future = new CompletableFuture<>();
+                future.completeExceptionally(new IllegalStateException(String.format(
+                        "Can't resolve chunk states on %s:%d in %s.", server.hostname, server.port, dimension
+                )));
+                results.add(future);
+            }
+            return results;
+        }
+
+        for (IsLoadedQuery<?> query : queries) {
+            CompletableFuture<ChunkState> future = futures.get(query);
+            future.whenComplete((state, error) -> {
+                if (error instanceof CancellationException) cancel(server, query);
+            });
+            results.add(future);
+        }
+        return results;
+    }
+
+    /**
+     * Same as {@link #requestStateFutures(Server, Dimension, Collection, ChunkState.State, IsLoadedQuery.Priority, long)},
+     * but with a single future for the whole batch. Cancelling it cancels all the queries.
+     * @return A future for all the resolved states, in the same order as the positions.
+     */
+    public CompletableFuture<List<ChunkState>> requestStatesFuture(
+            Server server,
+            Dimension dimension,
+            Collection<ChunkPosition> positions,
+            ChunkState.State expected,
+            IsLoadedQuery.Priority priority,
+            long expiry
+    ) {
+        List<CompletableFuture<ChunkState>> futures = requestStateFutures(server, dimension, positions, expected, priority, expiry);
+        CompletableFuture<List<ChunkState>> future = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> {
+                    List<ChunkState> states = new ArrayList<>(futures.size());
+                    for (CompletableFuture<ChunkState> future1 : futures) states.add(future1.join());
+                    return states;
                 });
-                return query;
+        future.whenComplete((states, error) -> {
+            if (error instanceof CancellationException) futures.forEach(future1 -> future1.cancel(false));
+        });
+        return future;
+    }
+
+    private List<IsLoadedQuery<?>> requestStates(
+            Server server,
+            Dimension dimension,
+            Collection<ChunkPosition> positions,
+            ChunkState.State expected,
+            IsLoadedQuery.Priority priority,
+            long expiry,
+            Submitter submitter,
+            Consumer<IsLoadedQuery<?>> callback,
+            Consumer<IsLoadedQuery<?>> created
+    ) {
+        if (!server.INVALID_MOVE_ENABLED.value) return Collections.emptyList();
+        InvalidMoveHandle handle = (InvalidMoveHandle)getHandle(server, dimension);
+        if (handle == null) return Collections.emptyList(); // Uh, why would this happen?
+
+        List<IsLoadedQuery<?>> queries = new ArrayList<>(positions.size());
+        List<InvalidMoveQuery> toDispatch = new ArrayList<>(positions.size());
+
+        if (!CACHE_ENABLED.value) {
+            for (ChunkPosition position : positions) {
+                InvalidMoveQuery query = new InvalidMoveQuery(position, dimension, expected, priority, expiry, submitter);
+                if (created != null) created.accept(query);
+                queries.add(query);
+                toDispatch.add(query);
             }
+            handle.dispatch(toDispatch, query1 -> {
+                if (callback != null) callback.accept(query1);
+                if (query1.getStatus().isResolved()) queryCallback(server, query1.getState());
+            });
+            return queries;
         }
 
-        return null;
+        Shard shard;
+        List<InvalidMoveQuery> superseded = new ArrayList<>();
+        synchronized (this) {
+            shard = getShard(server, dimension);
+
+            for (ChunkPosition position : positions) {
+                InvalidMoveQuery query = new InvalidMoveQuery(position, dimension, expected, priority, expiry, submitter);
+                if (created != null) created.accept(query);
+                queries.add(query);
+
+                long key = ChunkStateCache.pack(position);
+                ChunkState.State state = shard.states.get(key, CACHE_TTL.value);
+                if (state != null) {
+                    ++cacheHits;
+                    query.setState(state);
+                    resolved.add(new Resolved(query, state, callback));
+                    continue;
+                }
+
+                InFlight entry = shard.inFlight.get(key);
+                if (entry != null && entry.query.priority.compareTo(priority) >= 0) {
+                    ++coalesced;
+                    long deadline = query.getExpiry();
+                    long entryDeadline = entry.query.getExpiry();
+                    if (deadline >= 0 && (entryDeadline < 0 || entryDeadline > deadline)) {
+                        // We need it sooner than the in-flight query would be resolved by, so replace it with one that
+                        // has our expiry, the superseded one is cancelled, unless it happens to be resolved first
+                        InvalidMoveQuery replacement = new InvalidMoveQuery(
+                                position, dimension, expected, entry.query.priority, expiry, submitter
+                        );
+                        entry.superseded.add(entry.query);
+                        superseded.add(entry.query);
+                        entry.query = replacement;
+                        inFlight.put(replacement, entry);
+                        toDispatch.add(replacement);
+                    }
+                    entry.tickets.put(query, callback);
+                    inFlight.put(query, entry);
+                    continue;
+                }
+
+                ++cacheMisses;
+                // The requester's own query is just a ticket for the one that is actually dispatched, so that
+                // cancelling it doesn't affect the other requesters
+                InvalidMoveQuery dispatched = new InvalidMoveQuery(position, dimension, expected, priority, expiry, submitter);
+                entry = new InFlight(shard, key, dispatched);
+                entry.tickets.put(query, callback);
+                shard.inFlight.put(key, entry);
+                inFlight.put(query, entry);
+                inFlight.put(dispatched, entry);
+                toDispatch.add(dispatched);
+            }
+        }
+
+        for (InvalidMoveQuery query : superseded) server.cancel(query);
+        if (!toDispatch.isEmpty()) dispatch(server, shard, toDispatch);
+        return queries;
+    }
+
+    private void dispatch(Server server, Shard shard, List<InvalidMoveQuery> queries) {
+        InvalidMoveHandle handle = (InvalidMoveHandle)getHandle(server, queries.get(0).dimension);
+        if (handle == null) return;
+        // Only need the one callback for the whole batch
+        handle.dispatch(queries, query -> onResolved(server, shard, ChunkStateCache.pack(query.position), query));
+    }
+
+    /**
+     * Cancels a query requested via {@link #requestState(Server, Dimension, ChunkPosition, ChunkState.State, IsLoadedQuery.Priority, long, Consumer)}.
+     * If other requests are attached to the query, it will continue to be processed for them. The callback is still
+     * called, with the {@link IsLoadedQuery.Status#CANCELLED} status.
+     * @param server The server the query was requested on.
+     * @param query The query to cancel.
+     */
+    public void cancel(Server server, IsLoadedQuery<?> query) {
+        if (query.getStatus().isTerminal()) return;
+        IsLoadedQuery<?> toCancel = query;
+        List<InvalidMoveQuery> superseded = Collections.emptyList();
+        Consumer<IsLoadedQuery<?>> callback;
+
+        synchronized (this) {
+            for (Resolved entry : resolved) {
+                if (entry.query == query) { // Was a cache hit, the callback is still called after the next tick
+                    query.complete(IsLoadedQuery.Status.CANCELLED);
+                    return;
+                }
+            }
+
+            InFlight entry = inFlight.get(query);
+            if (entry == null || entry.query == query) {
+                toCancel = query; // Dispatched directly
+                callback = null;
+
+            } else {
+                inFlight.remove(query);
+                callback = entry.tickets.remove(query);
+                if (entry.tickets.isEmpty()) { // Nobody wants the result anymore
+                    if (entry.shard.inFlight.get(entry.key) == entry) entry.shard.inFlight.remove(entry.key);
+                    toCancel = entry.query;
+                    superseded = new ArrayList<>(entry.superseded);
+                } else {
+                    toCancel = null;
+                }
+            }
+        }
+
+        if (toCancel != query && query.complete(IsLoadedQuery.Status.CANCELLED) && callback != null) {
+            yesCom.callbackExecutor.submit(() -> callback.accept(query));
+        }
+        if (toCancel != null) server.cancel(toCancel);
+        for (InvalidMoveQuery query1 : superseded) server.cancel(query1);
+    }
+
+    /**
+     * Clears all cached chunk states. Does not affect in-flight requests.
+     */
+    public synchronized void clearCache() {
+        for (Shard[] shards : this.shards.values()) {
+            for (Shard shard : shards) {
+                if (shard != null) shard.states.clear();
+            }
+        }
+    }
+
+    /* ------------------------------ Setters and getters ------------------------------ */
+
+    /**
+     * @return The number of requests that were resolved using a cached state.
+     */
+    public synchronized long getCacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * @return The number of requests that had to be dispatched.
+     */
+    public synchronized long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * @return The number of requests that were attached to an identical in-flight request.
+     */
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * @return The number of cached chunk states for the given server and dimension.
+     */
+    public synchronized int getCacheSize(Server server, Dimension dimension) {
+        Shard[] shards = this.shards.get(server);
+        if (shards == null || shards[dimension.ordinal()] == null) return 0;
+        return shards[dimension.ordinal()].states.size();
+    }
+
+    /* ------------------------------ Classes ------------------------------ */
+
+    /**
+     * Cached and in-flight states for a single server and dimension.
+     */
+    private static final class Shard {
+
+        private final ChunkStateCache states;
+        private final Map<Long, InFlight> inFlight = new HashMap<>();
+
+        private Shard(int maxSize) {
+            states = new ChunkStateCache(maxSize);
+        }
+    }
+
+    /**
+     * A dispatched query, and the tickets of the requesters that are waiting on it.
+     */
+    private static final class InFlight {
+
+        private final Shard shard;
+        private final long key;
+        private final Map<InvalidMoveQuery, Consumer<IsLoadedQuery<?>>> tickets = new LinkedHashMap<>();
+        private final List<InvalidMoveQuery> superseded = new ArrayList<>(1); // Dispatched, waiting to be cancelled
+
+        private InvalidMoveQuery query; // The query with the tightest expiry out of the tickets
+
+        private InFlight(Shard shard, long key, InvalidMoveQuery query) {
+            this.shard = shard;
+            this.key = key;
+            this.query = query;
+        }
+    }
+
+    private static final class Resolved {
+
+        private final InvalidMoveQuery query;
+        private final ChunkState.State state;
+        private final Consumer<IsLoadedQuery<?>> callback;
+
+        private Resolved(InvalidMoveQuery query, ChunkState.State state, Consumer<IsLoadedQuery<?>> callback) {
+            this.query = query;
+            this.state = state;
+            this.callback = callback;
+        }
     }
 }
@@ -0,0 +1,98 @@
+package ez.pogdog.yescom.core.query.loaded;
+
+import ez.pogdog.yescom.api.data.ChunkPosition;
+import ez.pogdog.yescom.api.data.ChunkState;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least recently used cache of resolved {@link ChunkState.State}s, for a single server and dimension. Not
+ * thread safe, so synchronise externally.
+ */
+public class ChunkStateCache {
+
+    /**
+     * Packs the chunk coordinates into a single long, for cheaper keys.
+     */
+    public static long pack(ChunkPosition position) {
+        return (long)position.getX() << 32 | position.getZ() & 0xffffffffL;
+    }
+
+    private final Map<Long, Entry> entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    private int maxSize;
+
+    public ChunkStateCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param key The packed chunk position.
+     * @param maxAge The maximum age of the cached state, in milliseconds.
+     * @return The cached state, null if not cached or if it is too old.
+     */
+    public ChunkState.State get(long key, long maxAge) {
+        Entry entry = entries.get(key);
+        if (entry == null) return null;
+        if (System.currentTimeMillis() - entry.time > maxAge) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.state;
+    }
+
+    /**
+     * Caches a state, evicting the least recently used state if full.
+     * @param key The packed chunk position.
+     * @param state The state to cache.
+     */
+    public void put(long key, ChunkState.State state) {
+        if (maxSize <= 0 || state == null) return;
+        entries.put(key, new Entry(state, System.currentTimeMillis()));
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum size, evicting the least recently used states if the cache is now too large.
+     */
+    public void setMaxSize(int maxSize) {
+        if (maxSize == this.maxSize) return;
+        this.maxSize = maxSize;
+        Iterator<Long> iterator = entries.keySet().iterator();
+        while (entries.size() > Math.max(0, maxSize) && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /* ------------------------------ Classes ------------------------------ */
+
+    private static final class Entry {
+
+        private final ChunkState.State state;
+        private final long time;
+
+        private Entry(ChunkState.State state, long time) {
+            this.state = state;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package ez.pogdog.yescom.core.query.loaded;
+
+import ez.pogdog.yescom.core.query.Submitter;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link QueryQueue} per {@link Submitter}, served with start-time fair queuing. Higher priorities are always served
+ * first, but within a priority, each submitter gets a share of the queries polled that is proportional to its weight,
+ * regardless of how many queries it has queued. Not thread safe, so synchronise externally.
+ * @param <T> The type of query.
+ */
+public class FairQueryQueue<T extends IsLoadedQuery<?>> {
+
+    private final Map<Submitter, Flow<T>> flows = new LinkedHashMap<>(); // Only the submitters with queued queries
+    private final Map<Submitter, Double> idleTags = new HashMap<>(); // Tags of the emptied flows, while still ahead
+
+    private double virtualTime = 0.0;
+    private int size = 0;
+
+    /**
+     * Adds a query to the back of its submitter's queue, see {@link QueryQueue#add(IsLoadedQuery)}.
+     */
+    public boolean add(T query) {
+        if (!getFlow(query.submitter).queue.add(query)) return false;
+        ++size;
+        return true;
+    }
+
+    /**
+     * Adds a query to the front of its submitter's queue, see {@link QueryQueue#addFirst(IsLoadedQuery)}.
+     */
+    public boolean addFirst(T query) {
+        if (!getFlow(query.submitter).queue.addFirst(query)) return false;
+        ++size;
+        return true;
+    }
+
+    /**
+     * @return The query that would be polled next, null if empty.
+     */
+    public T peek() {
+        Flow<T> flow = select();
+        return flow != null ? flow.queue.peek() : null;
+    }
+
+    /**
+     * Removes and returns the next query, from the submitter with the highest priority query that is furthest behind
+     * its fair share.
+     * @return The query, null if empty.
+     */
+    public T poll() {
+        Flow<T> flow = select();
+        if (flow == null) return null;
+
+        T query = flow.queue.poll();
+        virtualTime = flow.tag;
+        flow.tag += 1.0 / Math.max(0.01, flow.submitter.getWeight());
+        --size;
+        if (flow.queue.isEmpty()) retire(flow);
+        return query;
+    }
+
+    /**
+     * Removes a query from this queue, see {@link QueryQueue#remove(IsLoadedQuery)}.
+     */
+    public boolean remove(T query) {
+        Flow<T> flow = flows.get(query.submitter);
+        if (flow == null || !flow.queue.remove(query)) return false;
+        --size;
+        if (flow.queue.isEmpty()) retire(flow);
+        return true;
+    }
+
+    public boolean contains(T query) {
+        Flow<T> flow = flows.get(query.submitter);
+        return flow != null && flow.queue.contains(query);
+    }
+
+    public void clear() {
+        for (Flow<T> flow : flows.values()) flow.queue.clear();
+        flows.clear();
+        idleTags.clear();
+        size = 0;
+    }
+
+    /**
+     * Ages the queries of every submitter, see {@link QueryQueue#age(long, IsLoadedQuery.Priority)}.
+     */
+    public int age(long interval, IsLoadedQuery.Priority ceiling) {
+        int promoted = 0;
+        for (Flow<T> flow : flows.values()) promoted += flow.queue.age(interval, ceiling);
+        return promoted;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of queries queued by the given submitter.
+     */
+    public int size(Submitter submitter) {
+        Flow<T> flow = flows.get(submitter);
+        return flow != null ? flow.queue.size() : 0;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private Flow<T> getFlow(Submitter submitter) {
+        Flow<T> flow = flows.get(submitter);
+        if (flow == null) {
+            // New flows start at the current virtual time, so that they can't claim the share they missed out on, but
+            // not before where they left off, otherwise a submitter that keeps its queue shallow is never charged
+            Double idleTag = idleTags.remove(submitter);
+            flow = new Flow<>(submitter, idleTag != null ? Math.max(virtualTime, idleTag) : virtualTime);
+            flows.put(submitter, flow);
+        }
+        return flow;
+    }
+
+    private void retire(Flow<T> flow) {
+        flows.remove(flow.submitter);
+        if (flow.tag > virtualTime) idleTags.put(flow.submitter, flow.tag);
+        // Tags that virtual time has caught up with make no difference, so forget them, as submitters come and go
+        if (idleTags.size() > 16 + flows.size() * 2) idleTags.values().removeIf(tag -> tag <= virtualTime);
+    }
+
+    private Flow<T> select() {
+        Flow<T> best = null;
+        IsLoadedQuery.Priority bestPriority = null;
+        for (Flow<T> flow : flows.values()) {
+            IsLoadedQuery.Priority priority = flow.queue.peekPriority();
+            int compare = bestPriority == null ? 1 : priority.compareTo(bestPriority);
+            if (compare > 0 || (compare == 0 && flow.tag < best.tag)) {
+                best = flow;
+                bestPriority = priority;
+            }
+        }
+        return best;
+    }
+
+    /* ------------------------------ Classes ------------------------------ */
+
+    private static final class Flow<T extends IsLoadedQuery<?>> {
+
+        private final Submitter submitter;
+        private final QueryQueue<T> queue = new QueryQueue<>();
+
+        private double tag; // Virtual start time of the next query
+
+        private Flow(Submitter submitter, double tag) {
+            this.submitter = submitter;
+            this.tag = tag;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import ez.pogdog.yescom.api.data.ChunkState;
 import ez.pogdog.yescom.api.data.Dimension;
 import ez.pogdog.yescom.core.query.IQuery;
 import ez.pogdog.yescom.core.query.IQueryHandle;
+import ez.pogdog.yescom.core.query.Submitter;
 
 import java.util.Objects;
 
@@ -21,14 +22,27 @@ public abstract class IsLoadedQuery<T extends IQueryHandle<? extends IsLoadedQue
 
 	public final ChunkState.State expected; // The expected state of this query
 	public final Priority priority; // The priority of this query
+	public final Submitter submitter; // Who submitted this query, for fair queuing
 
 	private final long expiry;
 
-	public IsLoadedQuery(ChunkPosition position, Dimension dimension, ChunkState.State expected, Priority priority, long expiry) {
+	QueryQueue.Node queueNode; // The position of this query in a QueryQueue, if queued
+
+	private volatile Status status = Status.WAITING;
+
+	public IsLoadedQuery(
+			ChunkPosition position,
+			Dimension dimension,
+			ChunkState.State expected,
+			Priority priority,
+			long expiry,
+			Submitter submitter
+	) {
 		this.position = position;
 		this.dimension = dimension;
 		this.expected = expected;
 		this.priority = priority;
+		this.submitter = submitter != null ? submitter : Submitter.DEFAULT;
 
 		if (expiry < 0) {
 			this.expiry = -1;
@@ -59,14 +73,19 @@ public abstract class IsLoadedQuery<T extends IQueryHandle<? extends IsLoadedQue
 				position, dimension, expected, priority);
 	}
 
+	/**
+	 * Higher priorities first, then earliest deadline first, queries that don't expire come last.
+	 */
 	@Override
 	public int compareTo(IsLoadedQuery<?> other) {
-		return -priority.compareTo(other.priority);
+		int result = -priority.compareTo(other.priority);
+		if (result != 0) return result;
+		return Long.compare(expiry < 0 ? Long.MAX_VALUE : expiry, other.expiry < 0 ? Long.MAX_VALUE : other.expiry);
 	}
 
 	@Override
 	public boolean isExpired() {
-		return expiry > 0 && System.currentTimeMillis() <= expiry;
+		return expiry >= 0 && System.currentTimeMillis() > expiry;
 	}
 
 	@Override
@@ -79,6 +98,40 @@ public abstract class IsLoadedQuery<T extends IQueryHandle<? extends IsLoadedQue
 	 */
 	public abstract ChunkState getState();
 
+	/**
+	 * @return The time at which this query expires, in milliseconds since the epoch, -1 if it doesn't.
+	 */
+	public long getExpiry() {
+		return expiry;
+	}
+
+	/**
+	 * @return The current status of this query.
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Moves this query between the non-terminal statuses. ONLY FOR USE WITH {@link IQueryHandle}s.
+	 * @return False if the query has already completed.
+	 */
+	public synchronized boolean setStatus(Status status) {
+		if (this.status.isTerminal() || status.isTerminal()) return false;
+		this.status = status;
+		return true;
+	}
+
+	/**
+	 * Completes this query with a terminal status, this can only happen once. ONLY FOR USE WITH {@link IQueryHandle}s.
+	 * @return True if this call completed the query, false if it was already completed.
+	 */
+	public synchronized boolean complete(Status status) {
+		if (this.status.isTerminal() || !status.isTerminal()) return false;
+		this.status = status;
+		return true;
+	}
+
 	/* ------------------------------ Classes ------------------------------ */
 
 	/**
@@ -87,4 +140,46 @@ public abstract class IsLoadedQuery<T extends IQueryHandle<? extends IsLoadedQue
 	public enum Priority {
 		LOWEST, LOW, MEDIUM, HIGH, HIGHEST;
 	}
+
+	/**
+	 * The lifecycle of a query. Every query ends up in exactly one terminal status, and its callback is called once
+	 * when it does.
+	 */
+	public enum Status {
+		WAITING(false), // Queued, waiting to be dispatched
+		PROCESSING(false), // Dispatched, waiting for a response
+		LOADED(true), UNLOADED(true), // Resolved
+		EXPIRED(true), // Expired before it could be resolved
+		CANCELLED(true),
+		REJECTED(true), // Turned away as there wasn't enough capacity to queue it
+		FAILED(true); // Couldn't be resolved, for whatever reason
+
+		/**
+		 * @return The resolved status for the given chunk state, null if the state is null.
+		 */
+		public static Status fromState(ChunkState.State state) {
+			if (state == null) return null;
+			return state == ChunkState.State.LOADED ? LOADED : UNLOADED;
+		}
+
+		private final boolean terminal;
+
+		Status(boolean terminal) {
+			this.terminal = terminal;
+		}
+
+		/**
+		 * @return Is this a final status?
+		 */
+		public boolean isTerminal() {
+			return terminal;
+		}
+
+		/**
+		 * @return Was the chunk state actually resolved?
+		 */
+		public boolean isResolved() {
+			return this == LOADED || this == UNLOADED;
+		}
+	}
 }
@@ -0,0 +1,355 @@
+package ez.pogdog.yescom.core.query.loaded;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+/**
+ * A queue of {@link IsLoadedQuery}s, bucketed by {@link IsLoadedQuery.Priority}. Within a priority, queries that expire
+ * are served earliest deadline first, ahead of the queries that don't, which are FIFO. Any query can be removed in O(1):
+ * each query keeps a reference to its own node, queries without a deadline are unlinked straight away, and ones with
+ * a deadline are marked as removed and skipped once they reach the front. A query can only be in one queue at a time.
+ * Not thread safe, so synchronise externally.
+ * @param <T> The type of query.
+ */
+public class QueryQueue<T extends IsLoadedQuery<?>> implements Iterable<T> {
+
+    private static final IsLoadedQuery.Priority[] PRIORITIES = IsLoadedQuery.Priority.values();
+    private static final Comparator<Node> DEADLINE_ORDER = Comparator
+            .<Node>comparingLong(node -> node.deadline)
+            .thenComparingLong(node -> node.sequence);
+
+    private final Node[] heads = new Node[PRIORITIES.length];
+    private final Node[] tails = new Node[PRIORITIES.length];
+    private final List<TreeSet<Node>> deadlines = new ArrayList<>(PRIORITIES.length);
+    private final int[] sizes = new int[PRIORITIES.length];
+    private final int[] removed = new int[PRIORITIES.length]; // Removed deadline nodes that haven't been skipped yet
+
+    private int size = 0;
+    private long sequence = 0; // Tiebreak for equal deadlines, negative for queries added to the front
+
+    public QueryQueue() {
+        for (int index = 0; index < PRIORITIES.length; ++index) deadlines.add(new TreeSet<>(DEADLINE_ORDER));
+    }
+
+    /**
+     * Adds a query to the back of its priority bucket.
+     * @param query The query to add.
+     * @return Was the query added? False if it is already queued.
+     */
+    public boolean add(T query) {
+        if (query.queueNode != null) return false;
+
+        int index = query.priority.ordinal();
+        Node node = new Node(this, query, index, ++sequence);
+        if (node.deadline >= 0) return addDeadline(node);
+
+        node.prev = tails[index];
+        if (tails[index] != null) {
+            tails[index].next = node;
+        } else {
+            heads[index] = node;
+        }
+        tails[index] = node;
+
+        query.queueNode = node;
+        ++sizes[index];
+        ++size;
+        return true;
+    }
+
+    /**
+     * Adds a query to the front of its priority bucket, used for rescheduling. Without a deadline, it's the next to be
+     * polled out of the queries with the same priority and no deadline. With one, it's still ordered by its deadline,
+     * but goes ahead of the queries with the same deadline.
+     * @param query The query to add.
+     * @return Was the query added? False if it is already queued.
+     */
+    public boolean addFirst(T query) {
+        if (query.queueNode != null) return false;
+
+        int index = query.priority.ordinal();
+        Node node = new Node(this, query, index, -++sequence);
+        if (node.deadline >= 0) return addDeadline(node);
+
+        node.next = heads[index];
+        if (heads[index] != null) {
+            heads[index].prev = node;
+        } else {
+            tails[index] = node;
+        }
+        heads[index] = node;
+
+        query.queueNode = node;
+        ++sizes[index];
+        ++size;
+        return true;
+    }
+
+    private boolean addDeadline(Node node) {
+        deadlines.get(node.bucket).add(node);
+        node.query.queueNode = node;
+        ++sizes[node.bucket];
+        ++size;
+        return true;
+    }
+
+    /**
+     * @return The query with the highest priority and the earliest deadline, or that has been waiting the longest if
+     *         none have deadlines. Null if empty.
+     */
+    @SuppressWarnings("unchecked")
+    public T peek() {
+        Node node = first();
+        return node != null ? (T)node.query : null;
+    }
+
+    /**
+     * Removes and returns the query with the highest priority and the earliest deadline, or that has been waiting the
+     * longest if none have deadlines.
+     * @return The query, null if empty.
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        Node node = first();
+        if (node == null) return null;
+        unlink(node);
+        return (T)node.query;
+    }
+
+    /**
+     * @return The priority of the query that would be polled next, including aging, null if empty.
+     */
+    public IsLoadedQuery.Priority peekPriority() {
+        Node node = first();
+        return node != null ? PRIORITIES[node.bucket] : null;
+    }
+
+    private Node first() {
+        for (int index = heads.length - 1; index >= 0; --index) {
+            TreeSet<Node> deadlines = this.deadlines.get(index);
+            while (!deadlines.isEmpty() && deadlines.first().removed) {
+                deadlines.pollFirst();
+                --removed[index];
+            }
+            if (!deadlines.isEmpty()) return deadlines.first();
+            if (heads[index] != null) return heads[index];
+        }
+        return null;
+    }
+
+    /**
+     * Promotes queries without deadlines that have been waiting too long to the next priority up, so that low
+     * priority queries still make progress under sustained load.
+     * @param interval How long a query must wait at a priority before being promoted, in milliseconds.
+     * @param ceiling The highest priority that queries can be promoted to.
+     * @return The number of queries promoted.
+     */
+    public int age(long interval, IsLoadedQuery.Priority ceiling) {
+        long currentTime = System.currentTimeMillis();
+        int promoted = 0;
+
+        // Top down, so that nothing is promoted more than once per call
+        for (int index = ceiling.ordinal() - 1; index >= 0; --index) {
+            while (heads[index] != null && currentTime - heads[index].time >= interval) {
+                Node node = heads[index];
+                unlink(node);
+
+                node.bucket = index + 1;
+                node.time = currentTime;
+                node.prev = tails[node.bucket];
+                if (tails[node.bucket] != null) {
+                    tails[node.bucket].next = node;
+                } else {
+                    heads[node.bucket] = node;
+                }
+                tails[node.bucket] = node;
+
+                node.query.queueNode = node;
+                ++sizes[node.bucket];
+                ++size;
+                ++promoted;
+            }
+        }
+        return promoted;
+    }
+
+    /**
+     * Removes a query from this queue, in constant time.
+     * @param query The query to remove.
+     * @return Was the query in this queue?
+     */
+    public boolean remove(T query) {
+        Node node = query.queueNode;
+        if (node == null || node.owner != this) return false;
+        if (node.deadline < 0) {
+            unlink(node);
+            return true;
+        }
+
+        int index = node.bucket;
+        node.removed = true;
+        query.queueNode = null;
+        --sizes[index];
+        --size;
+        // Clear them out once they make up most of the bucket, so that it's still constant time on average
+        TreeSet<Node> deadlines = this.deadlines.get(index);
+        if (++removed[index] > 16 && removed[index] > deadlines.size() / 2) {
+            deadlines.removeIf(node1 -> node1.removed);
+            removed[index] = 0;
+        }
+        return true;
+    }
+
+    /**
+     * @return Is the given query in this queue?
+     */
+    public boolean contains(T query) {
+        return query.queueNode != null && query.queueNode.owner == this;
+    }
+
+    /**
+     * Removes all queries from this queue.
+     */
+    public void clear() {
+        for (int index = 0; index < heads.length; ++index) {
+            for (Node node : deadlines.get(index)) {
+                if (!node.removed) node.query.queueNode = null; // Removed ones might have been queued again since
+            }
+            deadlines.get(index).clear();
+            removed[index] = 0;
+
+            Node node = heads[index];
+            while (node != null) {
+                Node next = node.next;
+                node.query.queueNode = null;
+                node.prev = null;
+                node.next = null;
+                node = next;
+            }
+            heads[index] = null;
+            tails[index] = null;
+            sizes[index] = 0;
+        }
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param priority The priority.
+     * @return The number of queries queued with the given priority, including ones that have been aged into it.
+     */
+    public int size(IsLoadedQuery.Priority priority) {
+        return sizes[priority.ordinal()];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Iterates in the same order that queries would be polled. Do not modify the queue while iterating.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int index = heads.length;
+            private Iterator<Node> withDeadline = null;
+            private Node nextDeadline = null;
+            private Node current = null;
+
+            @Override
+            public boolean hasNext() {
+                while (true) {
+                    while (nextDeadline == null && withDeadline != null && withDeadline.hasNext()) {
+                        Node node = withDeadline.next();
+                        if (!node.removed) nextDeadline = node;
+                    }
+                    if (nextDeadline != null) return true;
+                    if (current != null) return true;
+                    if (index <= 0) return false;
+                    withDeadline = deadlines.get(--index).iterator();
+                    current = heads[index];
+                }
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                if (nextDeadline != null) {
+                    Node node = nextDeadline;
+                    nextDeadline = null;
+                    return (T)node.query;
+                }
+                Node node = current;
+                current = current.next;
+                return (T)node.query;
+            }
+        };
+    }
+
+    private void unlink(Node node) {
+        int index = node.bucket;
+        if (node.deadline >= 0) {
+            deadlines.get(index).remove(node);
+            node.query.queueNode = null;
+            --sizes[index];
+            --size;
+            return;
+        }
+
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            heads[index] = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        } else {
+            tails[index] = node.prev;
+        }
+
+        node.query.queueNode = null;
+        node.prev = null;
+        node.next = null;
+        --sizes[index];
+        --size;
+    }
+
+    /* ------------------------------ Classes ------------------------------ */
+
+    /**
+     * The position of a query in a {@link QueryQueue}.
+     */
+    static final class Node {
+
+        private final QueryQueue<?> owner;
+        private final IsLoadedQuery<?> query;
+        private final long deadline; // -1 if the query doesn't expire
+        private final long sequence;
+
+        private int bucket; // The effective priority, can be higher than the query's if it's been aged
+        private long time; // When the query was added to its current bucket
+        private boolean removed; // Only for deadline nodes, which are left in place until they're skipped
+
+        private Node prev;
+        private Node next;
+
+        private Node(QueryQueue<?> owner, IsLoadedQuery<?> query, int bucket, long sequence) {
+            this.owner = owner;
+            this.query = query;
+            this.bucket = bucket;
+            this.sequence = sequence;
+
+            deadline = query.getExpiry();
+            time = System.currentTimeMillis();
+        }
+    }
+}
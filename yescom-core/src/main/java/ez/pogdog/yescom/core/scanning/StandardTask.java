@@ -8,10 +8,15 @@ import ez.pogdog.yescom.api.data.ChunkState;
 import ez.pogdog.yescom.api.data.Dimension;
 import ez.pogdog.yescom.api.data.player.PlayerInfo;
 import ez.pogdog.yescom.core.connection.Server;
+import ez.pogdog.yescom.core.query.IQueryHandle;
+import ez.pogdog.yescom.core.query.Submitter;
 import ez.pogdog.yescom.core.query.loaded.IsLoadedQuery;
 import ez.pogdog.yescom.core.scanning.tasks.BasicScanTask;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
@@ -21,10 +26,14 @@ import java.util.logging.Logger;
  */
 public abstract class StandardTask implements ITask {
 
+    private static final int MAX_FAILURES = 3; // Times a position can fail before it's given up on
+
     private final Logger logger = Logging.getLogger("yescom.core.scanning");
     private final YesCom yesCom = YesCom.getInstance();
 
     protected final List<IsLoadedQuery<?>> activeQueries = new ArrayList<>();
+    private final Deque<ChunkPosition> retries = new ArrayDeque<>(); // Positions whose queries were rejected or failed
+    private final Map<ChunkPosition, Integer> failures = new HashMap<>();
 
     protected /* final */ ParameterValue<?>[] parameterValues; // For faster reference later
     private /* final */ long startTime;
@@ -35,15 +44,19 @@ public abstract class StandardTask implements ITask {
     protected /* final */ IsLoadedQuery.Priority priority;
     protected /* final */ double maxQueries;
     protected /* final */ boolean stopOnLoaded;
+    protected /* final */ Submitter submitter;
 
     private PlayerInfo target;
     private boolean wasOnline;
+    private volatile boolean targetOffline;
 
     protected /* final */ int maxIndex;
     protected int currentIndex = 0;
 
     private int ticksElapsed = 0;
-    private boolean paused = false;
+    private volatile boolean paused = false;
+    private double lastMaxQueries = 0.0; // The in-flight limit at the last refill
+    private volatile double share = 1.0; // Our share of the spare capacity, by weight, out of the tasks sharing it
 
     @Override
     public boolean apply(Server server, Dimension dimension, Map<String, Object> parameters) {
@@ -56,6 +69,7 @@ public abstract class StandardTask implements ITask {
         priority = StandardParameters.PRIORITY.from(server, parameters);
         maxQueries = StandardParameters.MAX_QUERY_THROUGHPUT.from(server, parameters);
         stopOnLoaded = StandardParameters.STOP_ON_LOADED.from(server, parameters);
+        submitter = new Submitter(getName(), StandardParameters.WEIGHT.from(server, parameters));
 
         // VV moved to the individual subclasses for finer-tuning
         // parameterValues = new ParameterValue<?>[] {
@@ -71,7 +85,7 @@ public abstract class StandardTask implements ITask {
 
     @Override
     public void tick() {
-        boolean targetOffline = target != null && !server.isOnline(target.uuid);
+        targetOffline = target != null && !server.isOnline(target.uuid);
         if (targetOffline && wasOnline) { // Notify if the target just came online / just went offline
             if (target != null && currentIndex < maxIndex) {
                 // TODO: Event?
@@ -86,39 +100,113 @@ public abstract class StandardTask implements ITask {
                 logger.finer(String.format("Resuming task %s as the target (%s) is online.", this, target.username));
             wasOnline = true;
         }
-        if (++ticksElapsed < 5 || paused || currentIndex >= maxIndex || targetOffline) return;
+        updateShare();
+        // Refills are mostly driven by query completions and capacity becoming available, this is just a fallback
+        if (++ticksElapsed < 5) return;
         ticksElapsed = 0;
+        refill();
+    }
+
+    private void updateShare() {
+        double totalWeight = 0.0;
+        synchronized (server) {
+            for (ITask task : server.getTasks()) {
+                if (!(task instanceof StandardTask) || task.getDimension() != dimension) continue;
+                StandardTask standardTask = (StandardTask)task;
+                if (standardTask == this || (!standardTask.isPaused() && !standardTask.isFinished()))
+                    totalWeight += Math.max(0.0, standardTask.submitter.getWeight());
+            }
+        }
+        share = totalWeight > 0.0 ? Math.max(0.0, submitter.getWeight()) / totalWeight : 1.0;
+    }
+
+    /**
+     * Submits as many queries as we're allowed to, given our in-flight limit and our share of the spare capacity.
+     */
+    synchronized void refill() {
+        if (paused || (currentIndex >= maxIndex && retries.isEmpty()) || targetOffline) return;
 
         double maxQueries = yesCom.chunkHandler.getMaxThroughputFor(server, dimension, 5) * this.maxQueries;
-        while (activeQueries.size() < maxQueries) {
-            // Make sure the query doesn't expire, this is because we really don't care about timings when scanning
-            activeQueries.add(yesCom.chunkHandler.requestState(
-                    server,
-                    dimension,
-                    getCurrentPosition(),
-                    // TODO: VVV Improve based on certain factors (especially if repeating)
-                    ChunkState.State.UNLOADED, // Scans should realistically expect most queries to be unloaded
-                    priority,
-                    -1,
-                    query -> {
-                        if (query.getState().getState() == ChunkState.State.LOADED) {
-                            // TODO: Event?
-                            logger.info(String.format(
-                                    "Task %s found loaded chunk at %d, %d (dimension %s).", this,
-                                    query.position.getX() * 16, query.position.getZ() * 16, query.dimension
-                            ));
-
-                            if (stopOnLoaded) {
-                                logger.fine(String.format("Stopping task %s because found a loaded chunk.", this));
-                                cancel();
-                            }
-                        }
-                        synchronized (this) {
-                            activeQueries.remove(query);
-                        }
-                    }
+        lastMaxQueries = maxQueries;
+        // Only submit what the accounts can actually get through, on top of what's already queued. The other tasks get
+        // their share too, otherwise whichever task happened to refill first would take all the spare capacity.
+        double available = yesCom.chunkHandler.getThroughputFor(server, dimension, IQueryHandle.CAPACITY_AHEAD);
+        double spare = available < 1.0 ? 0.0 : Math.ceil(available * share);
+        List<ChunkPosition> positions = new ArrayList<>();
+        while (activeQueries.size() + positions.size() < maxQueries && positions.size() < spare) {
+            if (!retries.isEmpty()) { // Retry the positions we missed before moving on
+                positions.add(retries.poll());
+            } else if (currentIndex < maxIndex) {
+                positions.add(getCurrentPosition());
+                ++currentIndex;
+            } else {
+                break;
+            }
+        }
+        if (positions.isEmpty()) {
+            if (available < 1.0) yesCom.taskHandler.awaitCapacity(this); // Signalled once the spare throughput is back
+            return;
+        }
+
+        // Make sure the queries don't expire, this is because we really don't care about timings when scanning
+        List<IsLoadedQuery<?>> queries = yesCom.chunkHandler.requestStates(
+                server,
+                dimension,
+                positions,
+                // TODO: VVV Improve based on certain factors (especially if repeating)
+                ChunkState.State.UNLOADED, // Scans should realistically expect most queries to be unloaded
+                priority,
+                -1,
+                submitter,
+                this::onQueryResolved
+        );
+        activeQueries.addAll(queries); // Still holding the lock, so no callbacks can be missed
+    }
+
+    /**
+     * Called when one of our queries has been resolved.
+     */
+    private void onQueryResolved(IsLoadedQuery<?> query) {
+        if (query.getState().getState() == ChunkState.State.LOADED) {
+            // TODO: Event?
+            logger.info(String.format(
+                    "Task %s found loaded chunk at %d, %d (dimension %s).", this,
+                    query.position.getX() * 16, query.position.getZ() * 16, query.dimension
             ));
-            ++currentIndex;
+
+            if (stopOnLoaded) {
+                logger.fine(String.format("Stopping task %s because found a loaded chunk.", this));
+                cancel();
+            }
+        }
+        synchronized (this) {
+            if (!activeQueries.remove(query)) return; // Restarted or cancelled in the meantime
+            switch (query.getStatus()) {
+                case REJECTED: { // The server is saturated, so don't resubmit until it has capacity again
+                    retries.add(query.position);
+                    yesCom.taskHandler.awaitCapacity(this);
+                    return;
+                }
+                case FAILED: {
+                    int failed = failures.merge(query.position, 1, Integer::sum);
+                    if (failed < MAX_FAILURES) {
+                        retries.add(query.position);
+                    } else {
+                        failures.remove(query.position);
+                        logger.fine(String.format(
+                                "Task %s dropped chunk %d, %d after it failed %d times.", this,
+                                query.position.getX(), query.position.getZ(), failed
+                        ));
+                    }
+                    break;
+                }
+                default: {
+                    if (!failures.isEmpty()) failures.remove(query.position);
+                    break;
+                }
+            }
+            // Top up straight away, rather than waiting for the next tick, but not for every single query
+            if (lastMaxQueries - activeQueries.size() >= Math.max(1.0, lastMaxQueries * 0.1)) refill();
         }
     }
 
@@ -134,15 +222,20 @@ public abstract class StandardTask implements ITask {
 
     @Override
     public synchronized void restart() {
-        activeQueries.forEach(server::cancel);
+        activeQueries.forEach(query -> yesCom.chunkHandler.cancel(server, query));
         activeQueries.clear();
+        retries.clear();
+        failures.clear();
         currentIndex = 0;
     }
 
     @Override
     public synchronized void cancel() {
-        activeQueries.forEach(server::cancel);
+        yesCom.taskHandler.stopAwaitingCapacity(this);
+        activeQueries.forEach(query -> yesCom.chunkHandler.cancel(server, query));
         activeQueries.clear();
+        retries.clear();
+        failures.clear();
         currentIndex = maxIndex;
     }
 
@@ -173,7 +266,7 @@ public abstract class StandardTask implements ITask {
 
     @Override
     public boolean isFinished() {
-        return currentIndex >= maxIndex && activeQueries.isEmpty();
+        return currentIndex >= maxIndex && activeQueries.isEmpty() && retries.isEmpty();
     }
 
     @Override
@@ -181,6 +274,13 @@ public abstract class StandardTask implements ITask {
         return paused;
     }
 
+    /**
+     * @return The {@link Submitter} that this task's queries are submitted as, this can be used to change the weight.
+     */
+    public Submitter getSubmitter() {
+        return submitter;
+    }
+
     @Override
     public PlayerInfo getTarget() {
         return target;
@@ -220,5 +320,11 @@ public abstract class StandardTask implements ITask {
                 "Stops the task when a loaded chunk is found.",
                 Boolean.class, server -> false
         );
+
+        public static final Parameter<Double> WEIGHT = new Parameter<>(
+                "Weight",
+                "The share of the query throughput this task gets, relative to other tasks at the same priority.",
+                Double.class, server -> 1.0
+        );
     }
 }
@@ -6,9 +6,13 @@ import ez.pogdog.yescom.api.data.Dimension;
 import ez.pogdog.yescom.core.Emitters;
 import ez.pogdog.yescom.core.connection.Server;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -20,6 +24,42 @@ public class TaskHandler {
     private final Logger logger = Logging.getLogger("yescom.core.scanning");
     private final YesCom yesCom = YesCom.getInstance();
 
+    // Tasks that ran out of capacity to submit to, refilled as soon as there's capacity again
+    private final Set<StandardTask> awaitingCapacity = ConcurrentHashMap.newKeySet();
+
+    public TaskHandler() {
+        Emitters.ON_QUERY_CAPACITY_AVAILABLE.connect(this::onCapacityAvailable);
+    }
+
+    /* ------------------------------ Events ------------------------------ */
+
+    private void onCapacityAvailable(Emitters.ServerCapacity capacity) {
+        List<StandardTask> tasks = new ArrayList<>();
+        for (StandardTask task : awaitingCapacity) {
+            if (task.getServer() == capacity.server && task.getDimension() == capacity.dimension &&
+                    awaitingCapacity.remove(task)) tasks.add(task);
+        }
+        // Heaviest first, each task only takes its share of the spare capacity, but the rounding favours the first
+        tasks.sort(Comparator.comparingDouble((StandardTask task) -> task.getSubmitter().getWeight()).reversed());
+        for (StandardTask task : tasks) task.refill();
+    }
+
+    /* ------------------------------ Other methods ------------------------------ */
+
+    /**
+     * Refills the given task when the server it's running on has capacity for more queries.
+     */
+    void awaitCapacity(StandardTask task) {
+        awaitingCapacity.add(task);
+    }
+
+    /**
+     * Stops waiting for capacity for the given task.
+     */
+    void stopAwaitingCapacity(StandardTask task) {
+        awaitingCapacity.remove(task);
+    }
+
     /* ------------------------------ Public API ------------------------------ */
 
     /**
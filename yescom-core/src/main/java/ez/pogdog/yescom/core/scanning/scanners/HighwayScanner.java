@@ -59,6 +59,12 @@ public class HighwayScanner implements IScanner {
             10000
     );
 
+    public final Option<Double> WEIGHT = new Option<>(
+            "Weight",
+            "The share of the query throughput the highway scans get, relative to other tasks at the same priority.",
+            1.0
+    );
+
     /* ------------------------------ Other fields ------------------------------ */
 
     private /* final */ Server server;
@@ -104,6 +110,7 @@ public class HighwayScanner implements IScanner {
             Map<String, Object> parameters = new HashMap<>(); // Default parameters that are the same across all dimensions
             parameters.put("Chunk skip", server.getRenderDistance() - 1);
             parameters.put("Priority", IsLoadedQuery.Priority.LOWEST);
+            parameters.put("Weight", WEIGHT.value);
             //parameters.put("Max query throughput", 0.25); // This is intentionally the highest value of all the scanners
 
             if (overworldScan == null || overworldScan.isFinished()) {
@@ -46,7 +46,8 @@ public class BasicHighwayScanTask extends StandardTask {
                 StandardParameters.CHUNK_SKIP,
                 StandardParameters.PRIORITY,
                 StandardParameters.MAX_QUERY_THROUGHPUT,
-                StandardParameters.STOP_ON_LOADED
+                StandardParameters.STOP_ON_LOADED,
+                StandardParameters.WEIGHT
         };
     }
 
@@ -64,7 +65,8 @@ public class BasicHighwayScanTask extends StandardTask {
                 new ParameterValue<>(StandardParameters.CHUNK_SKIP, chunkSkip),
                 new ParameterValue<>(StandardParameters.PRIORITY, priority),
                 new ParameterValue<>(StandardParameters.MAX_QUERY_THROUGHPUT, maxQueries),
-                new ParameterValue<>(StandardParameters.STOP_ON_LOADED, stopOnLoaded)
+                new ParameterValue<>(StandardParameters.STOP_ON_LOADED, stopOnLoaded),
+                new ParameterValue<>(StandardParameters.WEIGHT, submitter.getWeight())
         };
         return true;
     }
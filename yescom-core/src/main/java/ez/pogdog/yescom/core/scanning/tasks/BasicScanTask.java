@@ -42,7 +42,8 @@ public class BasicScanTask extends StandardTask {
                 StandardParameters.CHUNK_SKIP,
                 StandardParameters.PRIORITY,
                 StandardParameters.MAX_QUERY_THROUGHPUT,
-                StandardParameters.STOP_ON_LOADED
+                StandardParameters.STOP_ON_LOADED,
+                StandardParameters.WEIGHT
         };
     }
 
@@ -71,7 +72,8 @@ public class BasicScanTask extends StandardTask {
                 new ParameterValue<>(StandardParameters.CHUNK_SKIP, chunkSkip),
                 new ParameterValue<>(StandardParameters.PRIORITY, priority),
                 new ParameterValue<>(StandardParameters.MAX_QUERY_THROUGHPUT, maxQueries),
-                new ParameterValue<>(StandardParameters.STOP_ON_LOADED, stopOnLoaded)
+                new ParameterValue<>(StandardParameters.STOP_ON_LOADED, stopOnLoaded),
+                new ParameterValue<>(StandardParameters.WEIGHT, submitter.getWeight())
         };
         return true;
     }
@@ -67,7 +67,8 @@ public class SpiralScanTask extends StandardTask {
                 StandardParameters.CHUNK_SKIP,
                 StandardParameters.PRIORITY,
                 StandardParameters.MAX_QUERY_THROUGHPUT,
-                StandardParameters.STOP_ON_LOADED
+                StandardParameters.STOP_ON_LOADED,
+                StandardParameters.WEIGHT
         };
     }
 
@@ -93,7 +94,8 @@ public class SpiralScanTask extends StandardTask {
                 new ParameterValue<>(StandardParameters.CHUNK_SKIP, chunkSkip),
                 new ParameterValue<>(StandardParameters.PRIORITY, priority),
                 new ParameterValue<>(StandardParameters.MAX_QUERY_THROUGHPUT, maxQueries),
-                new ParameterValue<>(StandardParameters.STOP_ON_LOADED, stopOnLoaded)
+                new ParameterValue<>(StandardParameters.STOP_ON_LOADED, stopOnLoaded),
+                new ParameterValue<>(StandardParameters.WEIGHT, submitter.getWeight())
         };
         return true;
     }
@@ -47,7 +47,8 @@ public class StaticScanTask extends StandardTask {
                 POSITIONS,
                 StandardParameters.PRIORITY,
                 StandardParameters.MAX_QUERY_THROUGHPUT,
-                StandardParameters.STOP_ON_LOADED
+                StandardParameters.STOP_ON_LOADED,
+                StandardParameters.WEIGHT
         };
     }
 
@@ -67,7 +68,8 @@ public class StaticScanTask extends StandardTask {
                 new ParameterValue<>(POSITIONS, positions),
                 new ParameterValue<>(StandardParameters.PRIORITY, priority),
                 new ParameterValue<>(StandardParameters.MAX_QUERY_THROUGHPUT, maxQueries),
-                new ParameterValue<>(StandardParameters.STOP_ON_LOADED, stopOnLoaded)
+                new ParameterValue<>(StandardParameters.STOP_ON_LOADED, stopOnLoaded),
+                new ParameterValue<>(StandardParameters.WEIGHT, submitter.getWeight())
         };
         return true;
     }
@@ -1,16 +1,19 @@
 package ez.pogdog.yescom.core.servers;
 
 import com.github.steveice10.mc.protocol.packet.ingame.server.ServerChatPacket;
+import com.github.steveice10.packetlib.packet.Packet;
 import ez.pogdog.yescom.api.data.ChunkPosition;
 import ez.pogdog.yescom.api.data.Dimension;
 import ez.pogdog.yescom.api.data.chat.ChatMessage;
 import ez.pogdog.yescom.api.data.player.PlayerInfo;
 import ez.pogdog.yescom.api.data.tracking.Highway;
 import ez.pogdog.yescom.core.ITickable;
+import ez.pogdog.yescom.core.connection.PacketShaper;
 import ez.pogdog.yescom.core.connection.Player;
 import ez.pogdog.yescom.core.connection.Server;
 
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -39,6 +42,11 @@ public interface IServerBehaviour extends ITickable {
      */
     Set<Highway> getHighways(); // TODO: Loadable from a file?
 
+    /**
+     * @return The limits the server places on packets we send, by packet class. Packets without a budget are unlimited.
+     */
+    Map<Class<? extends Packet>, PacketShaper.Budget> getPacketBudgets();
+
     /**
      * Ticks this behaviour.
      */
@@ -1,6 +1,8 @@
 package ez.pogdog.yescom.core.servers.behaviours;
 
+import com.github.steveice10.mc.protocol.packet.ingame.client.player.ClientPlayerPlaceBlockPacket;
 import com.github.steveice10.mc.protocol.packet.ingame.server.ServerChatPacket;
+import com.github.steveice10.packetlib.packet.Packet;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -21,6 +23,7 @@ import ez.pogdog.yescom.api.data.player.death.Death;
 import ez.pogdog.yescom.api.data.tracking.Highway;
 import ez.pogdog.yescom.core.config.IConfig;
 import ez.pogdog.yescom.core.config.Option;
+import ez.pogdog.yescom.core.connection.PacketShaper;
 import ez.pogdog.yescom.core.connection.Player;
 import ez.pogdog.yescom.core.connection.Server;
 import ez.pogdog.yescom.core.servers.IServerBehaviour;
@@ -58,6 +61,17 @@ public class ConstantiamBehaviour implements IServerBehaviour, IConfig {
             10
     );
 
+    public final Option<Integer> PLACE_BLOCK_LIMIT = new Option<>(
+            "Place block limit",
+            "The number of place block packets Paper allows per place block interval.",
+            9
+    );
+    public final Option<Integer> PLACE_BLOCK_INTERVAL = new Option<>(
+            "Place block interval",
+            "The Paper place block limit interval, in milliseconds.",
+            300
+    );
+
     /* ------------------------------ Other fields ------------------------------ */
 
     private final Map<Pattern, Death.Type> deathMessages = new HashMap<>();
@@ -196,6 +210,14 @@ public class ConstantiamBehaviour implements IServerBehaviour, IConfig {
         return highways;
     }
 
+    @Override
+    public Map<Class<? extends Packet>, PacketShaper.Budget> getPacketBudgets() {
+        return Collections.singletonMap(
+                ClientPlayerPlaceBlockPacket.class,
+                new PacketShaper.Budget(PLACE_BLOCK_LIMIT.value, PLACE_BLOCK_INTERVAL.value)
+        );
+    }
+
     @Override
     public synchronized void tick() {
         if (!server.isConnected()) {
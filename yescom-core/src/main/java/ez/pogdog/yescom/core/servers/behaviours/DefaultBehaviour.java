@@ -1,17 +1,20 @@
 package ez.pogdog.yescom.core.servers.behaviours;
 
 import com.github.steveice10.mc.protocol.packet.ingame.server.ServerChatPacket;
+import com.github.steveice10.packetlib.packet.Packet;
 import ez.pogdog.yescom.api.data.ChunkPosition;
 import ez.pogdog.yescom.api.data.Dimension;
 import ez.pogdog.yescom.api.data.chat.ChatMessage;
 import ez.pogdog.yescom.api.data.player.PlayerInfo;
 import ez.pogdog.yescom.api.data.tracking.Highway;
+import ez.pogdog.yescom.core.connection.PacketShaper;
 import ez.pogdog.yescom.core.connection.Player;
 import ez.pogdog.yescom.core.connection.Server;
 import ez.pogdog.yescom.core.servers.IServerBehaviour;
 
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -51,6 +54,11 @@ public class DefaultBehaviour implements IServerBehaviour {
         return Collections.emptySet(); // No highway information :(
     }
 
+    @Override
+    public Map<Class<? extends Packet>, PacketShaper.Budget> getPacketBudgets() {
+        return Collections.emptyMap(); // Don't know what the limits are, if there are any
+    }
+
     @Override
     public void tick() {
     }
@@ -0,0 +1,167 @@
+package ez.pogdog.yescom.core.threads;
+
+import ez.pogdog.yescom.YesCom;
+import ez.pogdog.yescom.api.Logging;
+import ez.pogdog.yescom.core.ITickable;
+import ez.pogdog.yescom.core.config.IConfig;
+import ez.pogdog.yescom.core.config.Option;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Runs query callbacks off of the packet threads. Callbacks are queued when submitted, and then handed to the
+ * executor threads in batches, once per tick.
+ */
+public class CallbackExecutor implements IConfig, ITickable {
+
+    private final Logger logger = Logging.getLogger("yescom.core.threads");
+    private final YesCom yesCom = YesCom.getInstance();
+
+    /* ------------------------------ Options ------------------------------ */
+
+    public final Option<Integer> CALLBACK_THREADS = new Option<>(
+            "Callback threads",
+            "The number of threads to run query callbacks on. Callbacks are only run in order if this is 1.",
+            1
+    );
+    public final Option<Integer> CALLBACKS_PER_TICK = new Option<>(
+            "Callbacks per tick",
+            "The maximum number of query callbacks to run per tick.",
+            2000
+    );
+    public final Option<Integer> MAX_PENDING_CALLBACKS = new Option<>(
+            "Max pending callbacks",
+            "The number of pending callbacks at which new queries stop being dispatched, until the callbacks catch up.",
+            20000
+    );
+
+    /* ------------------------------ Other fields ------------------------------ */
+
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingSize = new AtomicInteger();
+    private final AtomicInteger runningSize = new AtomicInteger(); // Submitted to the executor, not finished yet
+    private final AtomicLong completed = new AtomicLong();
+
+    private final WorkerPool pool = new WorkerPool("yescom-callback", CALLBACK_THREADS);
+
+    private int maxPendingSize = 0;
+    private float averageBatchSize = 0.0f;
+
+    public CallbackExecutor() {
+        yesCom.tickables.add(this);
+    }
+
+    @Override
+    public void tick() {
+        int threads = pool.resize(); // Might have been changed
+
+        int size = pendingSize.get();
+        maxPendingSize = Math.max(maxPendingSize, size);
+        if (size == 0) return;
+        // Don't queue up more batches than we have threads, so that the backlog stays visible in the pending size
+        if (pool.getQueuedSize() >= threads) return;
+
+        List<Runnable> batch = new ArrayList<>();
+        while (batch.size() < CALLBACKS_PER_TICK.value) {
+            Runnable callback = pending.poll();
+            if (callback == null) break;
+            batch.add(callback);
+        }
+        pendingSize.addAndGet(-batch.size());
+        runningSize.addAndGet(batch.size());
+        averageBatchSize = averageBatchSize * 0.95f + batch.size() * 0.05f;
+
+        pool.execute(() -> {
+            for (Runnable callback : batch) {
+                try {
+                    callback.run();
+                } catch (Throwable error) { // Even errors, so that the rest of the batch still runs
+                    logger.warning(String.format("Error while running query callback: %s", error.getMessage()));
+                    logger.throwing(getClass().getSimpleName(), "tick", error);
+                } finally {
+                    runningSize.decrementAndGet();
+                    completed.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    @Override
+    public String getIdentifier() {
+        return "callback-executor";
+    }
+
+    @Override
+    public IConfig getParent() {
+        return yesCom;
+    }
+
+    /* ------------------------------ Public API ------------------------------ */
+
+    /**
+     * Submits a callback, it will be run on one of the callback threads, after the next tick. Callbacks are never
+     * rejected, so the pending queue isn't bounded, the handles just stop dispatching new queries while
+     * {@link #isSaturated()}.
+     */
+    public void submit(Runnable callback) {
+        pending.add(callback);
+        pendingSize.incrementAndGet();
+    }
+
+    /**
+     * Stops the callback threads, callbacks that haven't been run yet are dropped.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /* ------------------------------ Setters and getters ------------------------------ */
+
+    /**
+     * @return Are there too many callbacks pending? If so, new queries should not be dispatched.
+     */
+    public boolean isSaturated() {
+        return pendingSize.get() >= MAX_PENDING_CALLBACKS.value;
+    }
+
+    /**
+     * @return The number of callbacks waiting to be handed to the callback threads.
+     */
+    public int getPendingSize() {
+        return pendingSize.get();
+    }
+
+    /**
+     * @return The number of callbacks that have been handed to the callback threads, but haven't been run yet.
+     */
+    public int getRunningSize() {
+        return runningSize.get();
+    }
+
+    /**
+     * @return The highest pending size that has been seen.
+     */
+    public int getMaxPendingSize() {
+        return maxPendingSize;
+    }
+
+    /**
+     * @return The average number of callbacks handed to the callback threads per tick.
+     */
+    public float getAverageBatchSize() {
+        return averageBatchSize;
+    }
+
+    /**
+     * @return The total number of callbacks that have been run.
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+}
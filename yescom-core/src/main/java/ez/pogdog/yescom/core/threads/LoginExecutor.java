@@ -0,0 +1,111 @@
+package ez.pogdog.yescom.core.threads;
+
+import ez.pogdog.yescom.YesCom;
+import ez.pogdog.yescom.api.Logging;
+import ez.pogdog.yescom.core.ITickable;
+import ez.pogdog.yescom.core.config.IConfig;
+import ez.pogdog.yescom.core.config.Option;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Runs account logins and player connects off of the main thread, as the auth requests can take seconds each. Used by
+ * the {@link ez.pogdog.yescom.core.connection.LoginPipeline}s, which decide when logins are started.
+ */
+public class LoginExecutor implements IConfig, ITickable {
+
+    private final Logger logger = Logging.getLogger("yescom.core.threads");
+    private final YesCom yesCom = YesCom.getInstance();
+
+    /* ------------------------------ Options ------------------------------ */
+
+    public final Option<Integer> LOGIN_THREADS = new Option<>(
+            "Login threads",
+            "The number of account logins that can run at the same time.",
+            4
+    );
+
+    /* ------------------------------ Other fields ------------------------------ */
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong loginTime = new AtomicLong();
+
+    private final WorkerPool pool = new WorkerPool("yescom-login", LOGIN_THREADS);
+
+    public LoginExecutor() {
+        pool.allowCoreThreadTimeOut(true); // Logins are rare once everyone is connected
+
+        yesCom.tickables.add(this);
+    }
+
+    @Override
+    public void tick() {
+        pool.resize(); // Might have been changed
+    }
+
+    @Override
+    public String getIdentifier() {
+        return "login-executor";
+    }
+
+    @Override
+    public IConfig getParent() {
+        return yesCom;
+    }
+
+    /* ------------------------------ Public API ------------------------------ */
+
+    /**
+     * Submits a login, it will be run on one of the login threads as soon as one is free.
+     */
+    public void submit(Runnable login) {
+        running.incrementAndGet();
+        pool.execute(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                login.run();
+            } catch (Throwable error) {
+                logger.warning(String.format("Error while running login: %s", error.getMessage()));
+                logger.throwing(getClass().getSimpleName(), "submit", error);
+            } finally {
+                loginTime.addAndGet(System.currentTimeMillis() - start);
+                completed.incrementAndGet();
+                running.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Stops the login threads, logins that haven't started yet are dropped.
+     */
+    public void shutdown() {
+        pool.shutdownNow(); // Interrupts requests in progress too, they're no use now
+    }
+
+    /* ------------------------------ Setters and getters ------------------------------ */
+
+    /**
+     * @return The number of logins that have been submitted, but haven't finished yet.
+     */
+    public int getRunning() {
+        return running.get();
+    }
+
+    /**
+     * @return The total number of logins that have been run.
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * @return The average time a login took, in milliseconds.
+     */
+    public float getAverageLoginTime() {
+        long completed = this.completed.get();
+        return completed == 0 ? 0.0f : (float)loginTime.get() / completed;
+    }
+}
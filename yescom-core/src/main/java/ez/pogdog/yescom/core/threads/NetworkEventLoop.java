@@ -0,0 +1,211 @@
+package ez.pogdog.yescom.core.threads;
+
+import ez.pogdog.yescom.YesCom;
+import ez.pogdog.yescom.api.Logging;
+import ez.pogdog.yescom.core.ITickable;
+import ez.pogdog.yescom.core.config.IConfig;
+import ez.pogdog.yescom.core.config.Option;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * A single Netty event loop group that every account's connection runs on, rather than each connection starting its
+ * own. Uses the native epoll transport where it's available, and falls back to NIO otherwise.
+ */
+public class NetworkEventLoop implements IConfig, ITickable {
+
+    private final Logger logger = Logging.getLogger("yescom.core.threads");
+    private final YesCom yesCom = YesCom.getInstance();
+
+    /* ------------------------------ Options ------------------------------ */
+
+    public final Option<Integer> LOOP_THREADS = new Option<>(
+            "Loop threads",
+            "The number of network event loop threads, 0 to use one per core. Requires a restart.",
+            0
+    );
+    public final Option<Boolean> PREFER_EPOLL = new Option<>(
+            "Prefer epoll",
+            "Use the native epoll transport if it's available. Requires a restart.",
+            true
+    );
+
+    /* ------------------------------ Other fields ------------------------------ */
+
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private final List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+
+    private EventLoopGroup group;
+    private Class<? extends SocketChannel> channelClass;
+    private boolean epoll;
+
+    private long[] lastCPUTimes = new long[0];
+    private float[] utilisation = new float[0];
+    private long lastSampleTime = System.nanoTime();
+
+    public NetworkEventLoop() {
+        yesCom.tickables.add(this);
+    }
+
+    @Override
+    public void tick() {
+        if (group == null || !threadBean.isThreadCpuTimeSupported()) return;
+
+        long current = System.nanoTime();
+        long elapsed = current - lastSampleTime;
+        if (elapsed < TimeUnit.SECONDS.toNanos(1)) return;
+        lastSampleTime = current;
+
+        synchronized (threads) {
+            if (lastCPUTimes.length != threads.size()) { // Netty starts the threads lazily, as channels are registered
+                lastCPUTimes = new long[threads.size()];
+                utilisation = new float[threads.size()];
+                for (int index = 0; index < threads.size(); ++index)
+                    lastCPUTimes[index] = threadBean.getThreadCpuTime(threads.get(index).getId());
+                return;
+            }
+
+            for (int index = 0; index < threads.size(); ++index) {
+                long cpuTime = threadBean.getThreadCpuTime(threads.get(index).getId());
+                if (cpuTime < 0) { // Thread has died
+                    utilisation[index] = 0.0f;
+                    continue;
+                }
+                utilisation[index] = Math.min(1.0f, (cpuTime - lastCPUTimes[index]) / (float)elapsed);
+                lastCPUTimes[index] = cpuTime;
+            }
+        }
+    }
+
+    @Override
+    public String getIdentifier() {
+        return "network-event-loop";
+    }
+
+    @Override
+    public IConfig getParent() {
+        return yesCom;
+    }
+
+    /* ------------------------------ Public API ------------------------------ */
+
+    /**
+     * Stops the event loop threads, this should only be done once all connections have been closed.
+     */
+    public synchronized void shutdown() {
+        if (group != null) group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+    }
+
+    /* ------------------------------ Private methods ------------------------------ */
+
+    /**
+     * Creates the group on first use, so that the options have been loaded by then.
+     */
+    private synchronized void initialise() {
+        if (group != null) return;
+
+        int threadCount = LOOP_THREADS.value > 0 ? LOOP_THREADS.value : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadIndex = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, String.format("yescom-netty-%d", threadIndex.incrementAndGet()));
+            thread.setDaemon(true);
+            threads.add(thread);
+            return thread;
+        };
+
+        if (PREFER_EPOLL.value && isEpollAvailable()) {
+            try {
+                group = new EpollEventLoopGroup(threadCount, factory);
+                channelClass = EpollSocketChannel.class;
+                epoll = true;
+            } catch (Throwable error) { // Native library can still fail to load on some systems
+                logger.warning(String.format("Couldn't start epoll event loop, falling back to NIO: %s", error));
+                threads.clear();
+            }
+        }
+        if (group == null) {
+            group = new NioEventLoopGroup(threadCount, factory);
+            channelClass = NioSocketChannel.class;
+            epoll = false;
+        }
+
+        logger.fine(String.format("Started %d network event loop thread(s) using %s.", threadCount, epoll ? "epoll" : "NIO"));
+    }
+
+    private boolean isEpollAvailable() {
+        try {
+            if (Epoll.isAvailable()) return true;
+            logger.fine(String.format("Epoll is unavailable, using NIO: %s", Epoll.unavailabilityCause()));
+        } catch (Throwable error) { // The native transport might not be on the classpath at all
+            logger.fine(String.format("Epoll is unavailable, using NIO: %s", error));
+        }
+        return false;
+    }
+
+    /* ------------------------------ Setters and getters ------------------------------ */
+
+    /**
+     * @return The shared event loop group, started if it hasn't been already.
+     */
+    public EventLoopGroup getGroup() {
+        initialise();
+        return group;
+    }
+
+    /**
+     * @return The socket channel class that matches the group's transport.
+     */
+    public Class<? extends SocketChannel> getChannelClass() {
+        initialise();
+        return channelClass;
+    }
+
+    /**
+     * @return Is the native epoll transport being used?
+     */
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    /**
+     * @return The number of event loop threads that have been started.
+     */
+    public int getThreadCount() {
+        return threads.size();
+    }
+
+    /**
+     * @return The fraction of the last second that each event loop thread spent on the CPU, between 0 and 1.
+     */
+    public float[] getLoopUtilisation() {
+        synchronized (threads) {
+            return utilisation.clone();
+        }
+    }
+
+    /**
+     * @return The average utilisation across all the event loop threads.
+     */
+    public float getAverageUtilisation() {
+        float[] utilisation = getLoopUtilisation();
+        if (utilisation.length == 0) return 0.0f;
+        float total = 0.0f;
+        for (float value : utilisation) total += value;
+        return total / utilisation.length;
+    }
+}
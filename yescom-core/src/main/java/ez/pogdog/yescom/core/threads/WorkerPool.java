@@ -0,0 +1,81 @@
+package ez.pogdog.yescom.core.threads;
+
+import ez.pogdog.yescom.core.config.Option;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of daemon threads, sized by an {@link Option}. The option is only read when tasks are executed, or when the
+ * pool is resized, rather than when it's created, as options are loaded from the config after their owners have been
+ * constructed.
+ */
+final class WorkerPool {
+
+    private final Option<Integer> threads;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param name The name prefix of the threads, they are numbered from 1.
+     * @param threads The option to take the number of threads from.
+     */
+    WorkerPool(String name, Option<Integer> threads) {
+        this.threads = threads;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(
+                1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), // No threads are started until the first task
+                runnable -> {
+                    Thread thread = new Thread(runnable, String.format("%s-%d", name, threadCount.incrementAndGet()));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+    }
+
+    /**
+     * Resizes the pool to match the option, if it has changed.
+     * @return The number of threads.
+     */
+    int resize() {
+        int threads = Math.max(1, this.threads.value);
+        synchronized (executor) {
+            if (executor.getMaximumPoolSize() != threads) {
+                if (threads > executor.getMaximumPoolSize()) { // The core size can't be above the maximum size
+                    executor.setMaximumPoolSize(threads);
+                    executor.setCorePoolSize(threads);
+                } else {
+                    executor.setCorePoolSize(threads);
+                    executor.setMaximumPoolSize(threads);
+                }
+            }
+        }
+        return threads;
+    }
+
+    void execute(Runnable task) {
+        resize();
+        executor.execute(task);
+    }
+
+    void allowCoreThreadTimeOut(boolean allow) {
+        executor.allowCoreThreadTimeOut(allow);
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    void shutdownNow() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return The number of tasks waiting for a free thread.
+     */
+    int getQueuedSize() {
+        return executor.getQueue().size();
+    }
+}
@@ -0,0 +1,215 @@
+package com.github.steveice10.packetlib.tcp;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compares inflating frames with {@link TcpPacketCompression} (zlib state shared per thread, inflating straight into
+ * pooled direct buffers) against the upstream handler (an {@link Inflater} per session, copying through heap arrays).
+ * There's no recorded traffic to replay, so the frames are synthetic: chunk-sized payloads built from runs of a small
+ * palette, which compress about as well as real block data, and small payloads just over the compression threshold.
+ * Frames are spread over a number of sessions on the same thread, as they would be on a shared event loop.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TcpPacketCompressionBenchmark {
+    private static final int THRESHOLD = 256;
+    private static final int FRAMES = 64;
+
+    @Param({ "chunk", "small" })
+    public String payload;
+
+    @Param({ "1", "64" })
+    public int sessions;
+
+    private byte[][] payloads;
+    private byte[][] frames;
+    private EmbeddedChannel[] shared;
+    private EmbeddedChannel[] upstream;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(1234);
+        this.payloads = new byte[FRAMES][];
+        this.frames = new byte[FRAMES][];
+        for(int index = 0; index < FRAMES; index++) {
+            this.payloads[index] = this.payload.equals("chunk") ? generate(random, 12288 + random.nextInt(8192)) : generate(random, THRESHOLD + random.nextInt(256));
+            this.frames[index] = compress(this.payloads[index]);
+        }
+
+        this.shared = new EmbeddedChannel[this.sessions];
+        this.upstream = new EmbeddedChannel[this.sessions];
+        for(int index = 0; index < this.sessions; index++) {
+            TcpSession session = new TcpSession("localhost", 25565, null) {
+            };
+            session.setCompressionThreshold(THRESHOLD);
+            this.shared[index] = new EmbeddedChannel(new TcpPacketCompression(session));
+            this.upstream[index] = new EmbeddedChannel(new UpstreamDecompression(THRESHOLD));
+        }
+
+        // Both have to inflate to the original payloads for the comparison to mean anything
+        for(int index = 0; index < FRAMES; index++) {
+            check(this.inflate(this.shared[0], index), index);
+            check(this.inflate(this.upstream[0], index), index);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for(int index = 0; index < this.sessions; index++) {
+            this.shared[index].finishAndReleaseAll();
+            this.upstream[index].finishAndReleaseAll();
+        }
+    }
+
+    @Benchmark
+    public int shared() {
+        return this.inflateNext(this.shared);
+    }
+
+    @Benchmark
+    public int upstream() {
+        return this.inflateNext(this.upstream);
+    }
+
+    private int inflateNext(EmbeddedChannel[] channels) {
+        int index = this.next++;
+        ByteBuf inflated = this.inflate(channels[index % channels.length], index % FRAMES);
+        int size = inflated.readableBytes();
+        inflated.release();
+        return size;
+    }
+
+    private ByteBuf inflate(EmbeddedChannel channel, int frame) {
+        // Frames arrive in pooled direct buffers either way, so that copy isn't what's being compared
+        ByteBuf buf = ByteBufAllocator.DEFAULT.directBuffer(this.frames[frame].length);
+        buf.writeBytes(this.frames[frame]);
+        channel.writeInbound(buf);
+        return channel.readInbound();
+    }
+
+    private void check(ByteBuf inflated, int frame) {
+        byte[] bytes = new byte[inflated.readableBytes()];
+        inflated.readBytes(bytes);
+        inflated.release();
+        if(!Arrays.equals(bytes, this.payloads[frame])) {
+            throw new IllegalStateException("Frame " + frame + " inflated differently.");
+        }
+    }
+
+    private static byte[] generate(Random random, int size) {
+        byte[] palette = new byte[8];
+        random.nextBytes(palette);
+
+        byte[] bytes = new byte[size];
+        int index = 0;
+        while(index < size) {
+            byte value = palette[random.nextInt(palette.length)];
+            int run = Math.min(size - index, 1 + random.nextInt(32));
+            Arrays.fill(bytes, index, index + run, value);
+            index += run;
+        }
+
+        return bytes;
+    }
+
+    private static byte[] compress(byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int value = payload.length;
+        while((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+
+        Deflater deflater = new Deflater();
+        deflater.setInput(payload);
+        deflater.finish();
+        byte[] chunk = new byte[8192];
+        while(!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        deflater.end();
+
+        return out.toByteArray();
+    }
+
+    /**
+     * The decoding half of the upstream handler, as it was before {@link TcpPacketCompression} was vendored.
+     */
+    private static final class UpstreamDecompression extends ByteToMessageDecoder {
+        private final int threshold;
+        private final Inflater inflater = new Inflater();
+
+        private UpstreamDecompression(int threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf buf, List<Object> out) throws Exception {
+            if(buf.readableBytes() == 0) {
+                return;
+            }
+
+            int size = readVarInt(buf);
+            if(size == 0) {
+                out.add(buf.readBytes(buf.readableBytes()));
+                return;
+            }
+
+            if(size < this.threshold) {
+                throw new IllegalStateException("Badly compressed packet: size of " + size + " is below threshold of " + this.threshold + ".");
+            }
+
+            byte[] bytes = new byte[buf.readableBytes()];
+            buf.readBytes(bytes);
+            this.inflater.setInput(bytes);
+            byte[] inflated = new byte[size];
+            this.inflater.inflate(inflated);
+            out.add(Unpooled.wrappedBuffer(inflated));
+            this.inflater.reset();
+        }
+
+        private static int readVarInt(ByteBuf buf) {
+            int value = 0;
+            int size = 0;
+            int b;
+            do {
+                b = buf.readByte();
+                value |= (b & 0x7F) << (size++ * 7);
+            } while((b & 0x80) == 0x80);
+
+            return value;
+        }
+    }
+}
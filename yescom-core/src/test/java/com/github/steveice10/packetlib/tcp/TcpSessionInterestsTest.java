@@ -0,0 +1,175 @@
+package com.github.steveice10.packetlib.tcp;
+
+import com.github.steveice10.packetlib.io.NetInput;
+import com.github.steveice10.packetlib.io.NetOutput;
+import com.github.steveice10.packetlib.packet.Packet;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Replaces the interests of a session while another thread reads them, the same way that the main thread and the
+ * network thread do.
+ */
+public class TcpSessionInterestsTest {
+    private static final int UPDATES = 20000;
+    private static final int READS = 200000;
+
+    private static final List<Class<? extends Packet>> FIRST = Arrays.<Class<? extends Packet>>asList(A.class, B.class, C.class);
+    private static final List<Class<? extends Packet>> SECOND = Arrays.<Class<? extends Packet>>asList(D.class, E.class);
+
+    @Test
+    public void readsSeeWholeSnapshots() throws InterruptedException {
+        final TcpSession session = new TcpSession("localhost", 25565, null) {
+        };
+        session.setSelectiveDecoding(true);
+        session.setInterests(FIRST);
+
+        // The version each snapshot was published at, only the writer publishes, so it can read both back consistently
+        final Map<Set<Class<? extends Packet>>, Integer> published = Collections.synchronizedMap(new IdentityHashMap<Set<Class<? extends Packet>>, Integer>());
+        published.put(session.getInterests(), session.getInterestVersion());
+
+        final int[] versions = new int[READS];
+        final List<Set<Class<? extends Packet>>> snapshots = new ArrayList<Set<Class<? extends Packet>>>(READS);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    for(int index = 0; index < UPDATES; index++) {
+                        session.setInterests(index % 2 == 0 ? SECOND : FIRST);
+                        published.put(session.getInterests(), session.getInterestVersion());
+                    }
+                } catch(Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        }, "interests-writer");
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    for(int index = 0; index < READS; index++) {
+                        // Same order as the codec, the version first, then the interests it caches decisions for
+                        versions[index] = session.getInterestVersion();
+                        Set<Class<? extends Packet>> interests = session.getInterests();
+                        snapshots.add(interests);
+
+                        // Iterates whichever snapshot is current, this would throw if it was changed in place
+                        session.isInterested(A.class);
+                        session.isInterested(D.class);
+                    }
+                } catch(Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        }, "interests-reader");
+
+        writer.start();
+        reader.start();
+        start.countDown();
+        writer.join();
+        reader.join();
+
+        assertNull(String.valueOf(failure.get()), failure.get());
+        for(int index = 0; index < READS; index++) {
+            Set<Class<? extends Packet>> snapshot = snapshots.get(index);
+            assertTrue("Snapshot isn't one of the sets set.", snapshot.equals(set(FIRST)) || snapshot.equals(set(SECOND)));
+
+            Integer version = published.get(snapshot);
+            assertNotNull("Snapshot was never published.", version);
+            assertTrue("Snapshot is older than the version read before it.", version >= versions[index]);
+        }
+    }
+
+    @Test
+    public void snapshotsAreUnmodifiable() {
+        TcpSession session = new TcpSession("localhost", 25565, null) {
+        };
+        List<Class<? extends Packet>> interests = new ArrayList<Class<? extends Packet>>(FIRST);
+        session.setInterests(interests);
+        session.setSelectiveDecoding(true);
+
+        interests.clear(); // Changing what was passed in mustn't change what the network thread sees
+        assertEquals(set(FIRST), session.getInterests());
+        assertTrue(session.isInterested(A.class));
+        assertFalse(session.isInterested(D.class));
+
+        try {
+            session.getInterests().add(D.class);
+            fail("Interests can be modified.");
+        } catch(UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void everythingIsInterestingWithoutSelectiveDecoding() {
+        TcpSession session = new TcpSession("localhost", 25565, null) {
+        };
+        session.setInterests(FIRST);
+        assertTrue(session.isInterested(D.class));
+
+        int version = session.getInterestVersion();
+        session.setSelectiveDecoding(true);
+        assertTrue(session.getInterestVersion() > version);
+        assertFalse(session.isInterested(D.class));
+    }
+
+    private static Set<Class<? extends Packet>> set(Collection<Class<? extends Packet>> classes) {
+        return new HashSet<Class<? extends Packet>>(classes);
+    }
+
+    /* ------------------------------ Packets ------------------------------ */
+
+    private static abstract class TestPacket implements Packet {
+        @Override
+        public void read(NetInput in) {
+        }
+
+        @Override
+        public void write(NetOutput out) {
+        }
+
+        @Override
+        public boolean isPriority() {
+            return false;
+        }
+    }
+
+    private static class A extends TestPacket {
+    }
+
+    private static class B extends TestPacket {
+    }
+
+    private static class C extends TestPacket {
+    }
+
+    private static class D extends TestPacket {
+    }
+
+    private static class E extends TestPacket {
+    }
+}
@@ -0,0 +1,184 @@
+package ez.pogdog.yescom.core.account.accounts;
+
+import com.github.steveice10.mc.auth.exception.request.RequestException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import ez.pogdog.yescom.core.account.TokenCache;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the Microsoft auth chain against stand-in endpoints, pointed at with the {@code yescom.auth.*} system properties
+ * (see {@link me.nathan.futureclient.framework.auth.phase.AuthEndpoints}).
+ */
+public class MicrosoftAuthTest {
+
+    private static final String GOOD_REFRESH_TOKEN = "good-refresh";
+    private static final String ROTATED_REFRESH_TOKEN = "rotated-refresh";
+    private static final String USER_HASH = "1234";
+
+    private static final AtomicInteger refreshes = new AtomicInteger();
+    private static final AtomicInteger passwordLogins = new AtomicInteger();
+    private static final AtomicInteger minecraftLogins = new AtomicInteger();
+
+    private static HttpServer server;
+
+    @BeforeClass
+    public static void startEndpoints() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+
+        server.createContext("/oauth20_token.srf", exchange -> {
+            Map<String, String> form = parseForm(readBody(exchange));
+            if (!"refresh_token".equals(form.get("grant_type"))) {
+                respond(exchange, 400, "{\"error\":\"unsupported_grant_type\",\"error_description\":\"Only refreshes are stood in for.\"}");
+                return;
+            }
+            refreshes.incrementAndGet();
+            if (GOOD_REFRESH_TOKEN.equals(form.get("refresh_token"))) {
+                respond(exchange, 200, String.format(
+                        "{\"access_token\":\"ms-access\",\"refresh_token\":\"%s\"}", ROTATED_REFRESH_TOKEN
+                ));
+            } else {
+                respond(exchange, 400, "{\"error\":\"invalid_grant\",\"error_description\":\"The refresh token was revoked.\"}");
+            }
+        });
+        server.createContext("/oauth20_authorize.srf", exchange -> { // Start of the username and password login
+            passwordLogins.incrementAndGet();
+            respond(exchange, 404, "Not here.");
+        });
+        server.createContext("/user/authenticate", exchange -> {
+            assertContains(readBody(exchange), "\"RpsTicket\":\"ms-access\"");
+            respond(exchange, 200, xboxToken("xbl-token"));
+        });
+        server.createContext("/xsts/authorize", exchange -> {
+            assertContains(readBody(exchange), "\"xbl-token\"");
+            respond(exchange, 200, xboxToken("xsts-token"));
+        });
+        server.createContext("/authentication/login_with_xbox", exchange -> {
+            minecraftLogins.incrementAndGet();
+            assertContains(readBody(exchange), "XBL3.0 x=" + USER_HASH + ";xsts-token");
+            respond(exchange, 200, "{\"access_token\":\"mc-access\",\"username\":\"mc-id\",\"expires_in\":3600}");
+        });
+        server.start();
+
+        // Read when the endpoints are first used, so these must be set before then
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        System.setProperty("yescom.auth.live", base);
+        System.setProperty("yescom.auth.xbl", base);
+        System.setProperty("yescom.auth.xsts", base);
+        System.setProperty("yescom.auth.minecraft", base);
+    }
+
+    @AfterClass
+    public static void stopEndpoints() {
+        if (server != null) server.stop(0);
+    }
+
+    @Before
+    public void resetCounts() {
+        refreshes.set(0);
+        passwordLogins.set(0);
+        minecraftLogins.set(0);
+    }
+
+    @Test
+    public void refreshesFromTheCachedRefreshToken() throws RequestException {
+        UUID uuid = UUID.randomUUID();
+        TokenCache.Tokens rejected = new TokenCache.Tokens(GOOD_REFRESH_TOKEN, "rejected-access", "mc-id",
+                System.currentTimeMillis() + 3600000, uuid, "Player");
+
+        long start = System.currentTimeMillis();
+        TokenCache.Tokens tokens = new Microsoft("player@example.com", "password").authenticate(rejected);
+
+        assertEquals("mc-access", tokens.accessToken);
+        assertEquals(ROTATED_REFRESH_TOKEN, tokens.refreshToken);
+        assertEquals(uuid, tokens.uuid); // Profile is reused rather than looked up again
+        assertEquals("Player", tokens.username);
+        assertTrue(tokens.expiry >= start + 3600000 && !tokens.expiresWithin(3500000));
+
+        assertEquals(1, refreshes.get());
+        assertEquals(1, minecraftLogins.get());
+        assertEquals("Shouldn't need the password.", 0, passwordLogins.get());
+    }
+
+    @Test
+    public void fallsBackToThePasswordWhenTheRefreshTokenIsRejected() {
+        TokenCache.Tokens revoked = new TokenCache.Tokens("revoked-refresh", "rejected-access", "mc-id",
+                System.currentTimeMillis() + 3600000, UUID.randomUUID(), "Player");
+
+        try {
+            new Microsoft("player@example.com", "password").authenticate(revoked);
+            fail("Password login can't succeed against the stand-in.");
+        } catch (RequestException expected) {
+        }
+
+        assertEquals(1, refreshes.get());
+        assertEquals(0, minecraftLogins.get());
+        assertEquals(1, passwordLogins.get());
+    }
+
+    @Test
+    public void usesThePasswordWithoutCachedTokens() {
+        try {
+            new Microsoft("player@example.com", "password").authenticate(null);
+            fail("Password login can't succeed against the stand-in.");
+        } catch (RequestException expected) {
+        }
+
+        assertEquals(0, refreshes.get());
+        assertEquals(1, passwordLogins.get());
+    }
+
+    /* ------------------------------ Stand-in helpers ------------------------------ */
+
+    private static String xboxToken(String token) {
+        return String.format("{\"Token\":\"%s\",\"DisplayClaims\":{\"xui\":[{\"uhs\":\"%s\"}]}}", token, USER_HASH);
+    }
+
+    private static void assertContains(String body, String expected) {
+        if (!body.contains(expected)) throw new AssertionError(String.format("Expected %s in %s.", expected, body));
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Map<String, String> parseForm(String body) throws UnsupportedEncodingException {
+        Map<String, String> form = new HashMap<>();
+        for (String pair : body.split("&")) {
+            String[] split = pair.split("=", 2);
+            if (split.length == 2) form.put(URLDecoder.decode(split[0], "UTF-8"), URLDecoder.decode(split[1], "UTF-8"));
+        }
+        return form;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", body.startsWith("{") ? "application/json" : "text/plain");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package ez.pogdog.yescom.core.connection;
+
+import com.github.steveice10.packetlib.io.NetInput;
+import com.github.steveice10.packetlib.io.NetOutput;
+import com.github.steveice10.packetlib.packet.Packet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares dispatching packets through a {@link PacketTable} against the instanceof chain that {@link Player} used
+ * before. There are as many handled packet types as {@link Player} handles, and the rest of the traffic is made up of
+ * packets that nothing handles, which is most of what a real server sends (entity movement, sounds, etc...).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketTableBenchmark {
+
+    private static final int PACKETS = 4096;
+
+    private static final PacketTable<Receiver> TABLE = new PacketTable<Receiver>()
+            .on(Handled0.class, (receiver, packet) -> ++receiver.counts[0])
+            .on(Handled1.class, (receiver, packet) -> ++receiver.counts[1])
+            .on(Handled2.class, (receiver, packet) -> ++receiver.counts[2])
+            .on(Handled3.class, (receiver, packet) -> ++receiver.counts[3])
+            .on(Handled4.class, (receiver, packet) -> ++receiver.counts[4])
+            .on(Handled5.class, (receiver, packet) -> ++receiver.counts[5])
+            .on(Handled6.class, (receiver, packet) -> ++receiver.counts[6])
+            .on(Handled7.class, (receiver, packet) -> ++receiver.counts[7])
+            .on(Handled8.class, (receiver, packet) -> ++receiver.counts[8])
+            .on(Handled9.class, (receiver, packet) -> ++receiver.counts[9])
+            .on(Handled10.class, (receiver, packet) -> ++receiver.counts[10])
+            .on(Handled11.class, (receiver, packet) -> ++receiver.counts[11])
+            .on(Handled12.class, (receiver, packet) -> ++receiver.counts[12])
+            .on(Handled13.class, (receiver, packet) -> ++receiver.counts[13]);
+
+    /**
+     * The fraction of the packets that have a handler.
+     */
+    @Param({ "0.1", "0.5", "1.0" })
+    public double handled;
+
+    private Packet[] packets;
+    private Receiver receiver;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Packet[] handledPackets = {
+                new Handled0(),
+                new Handled1(),
+                new Handled2(),
+                new Handled3(),
+                new Handled4(),
+                new Handled5(),
+                new Handled6(),
+                new Handled7(),
+                new Handled8(),
+                new Handled9(),
+                new Handled10(),
+                new Handled11(),
+                new Handled12(),
+                new Handled13()
+        };
+        Packet[] otherPackets = {
+                new Other0(),
+                new Other1(),
+                new Other2(),
+                new Other3(),
+                new Other4(),
+                new Other5(),
+                new Other6(),
+                new Other7(),
+                new Other8(),
+                new Other9(),
+                new Other10(),
+                new Other11(),
+                new Other12(),
+                new Other13(),
+                new Other14(),
+                new Other15(),
+                new Other16(),
+                new Other17()
+        };
+
+        Random random = new Random(1234);
+        packets = new Packet[PACKETS];
+        for (int index = 0; index < PACKETS; ++index) {
+            if (random.nextDouble() < handled) {
+                packets[index] = handledPackets[random.nextInt(handledPackets.length)];
+            } else {
+                packets[index] = otherPackets[random.nextInt(otherPackets.length)];
+            }
+        }
+        receiver = new Receiver();
+
+        // Both should handle exactly the same packets, otherwise the comparison is meaningless
+        Receiver tableReceiver = new Receiver();
+        Receiver chainReceiver = new Receiver();
+        for (Packet packet : packets) {
+            TABLE.dispatch(tableReceiver, packet);
+            instanceOfChain(chainReceiver, packet);
+        }
+        if (!Arrays.equals(tableReceiver.counts, chainReceiver.counts))
+            throw new IllegalStateException("Table and instanceof chain dispatched differently.");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKETS)
+    public int table() {
+        for (Packet packet : packets) TABLE.dispatch(receiver, packet);
+        return receiver.counts[0];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKETS)
+    public int instanceOfChain() {
+        for (Packet packet : packets) instanceOfChain(receiver, packet);
+        return receiver.counts[0];
+    }
+
+    private static void instanceOfChain(Receiver receiver, Packet packet) {
+        if (packet instanceof Handled0) {
+            ++receiver.counts[0];
+        } else if (packet instanceof Handled1) {
+            ++receiver.counts[1];
+        } else if (packet instanceof Handled2) {
+            ++receiver.counts[2];
+        } else if (packet instanceof Handled3) {
+            ++receiver.counts[3];
+        } else if (packet instanceof Handled4) {
+            ++receiver.counts[4];
+        } else if (packet instanceof Handled5) {
+            ++receiver.counts[5];
+        } else if (packet instanceof Handled6) {
+            ++receiver.counts[6];
+        } else if (packet instanceof Handled7) {
+            ++receiver.counts[7];
+        } else if (packet instanceof Handled8) {
+            ++receiver.counts[8];
+        } else if (packet instanceof Handled9) {
+            ++receiver.counts[9];
+        } else if (packet instanceof Handled10) {
+            ++receiver.counts[10];
+        } else if (packet instanceof Handled11) {
+            ++receiver.counts[11];
+        } else if (packet instanceof Handled12) {
+            ++receiver.counts[12];
+        } else if (packet instanceof Handled13) {
+            ++receiver.counts[13];
+        }
+    }
+
+    /* ------------------------------ Classes ------------------------------ */
+
+    private static final class Receiver {
+        private final int[] counts = new int[14];
+    }
+
+    private static abstract class TestPacket implements Packet {
+
+        @Override
+        public void read(NetInput in) {
+        }
+
+        @Override
+        public void write(NetOutput out) {
+        }
+
+        @Override
+        public boolean isPriority() {
+            return false;
+        }
+    }
+
+    // Not final, like the real packet classes, so the instanceof checks can't be reduced to a class comparison
+
+    private static class Handled0 extends TestPacket {}
+    private static class Handled1 extends TestPacket {}
+    private static class Handled2 extends TestPacket {}
+    private static class Handled3 extends TestPacket {}
+    private static class Handled4 extends TestPacket {}
+    private static class Handled5 extends TestPacket {}
+    private static class Handled6 extends TestPacket {}
+    private static class Handled7 extends TestPacket {}
+    private static class Handled8 extends TestPacket {}
+    private static class Handled9 extends TestPacket {}
+    private static class Handled10 extends TestPacket {}
+    private static class Handled11 extends TestPacket {}
+    private static class Handled12 extends TestPacket {}
+    private static class Handled13 extends TestPacket {}
+    private static class Other0 extends TestPacket {}
+    private static class Other1 extends TestPacket {}
+    private static class Other2 extends TestPacket {}
+    private static class Other3 extends TestPacket {}
+    private static class Other4 extends TestPacket {}
+    private static class Other5 extends TestPacket {}
+    private static class Other6 extends TestPacket {}
+    private static class Other7 extends TestPacket {}
+    private static class Other8 extends TestPacket {}
+    private static class Other9 extends TestPacket {}
+    private static class Other10 extends TestPacket {}
+    private static class Other11 extends TestPacket {}
+    private static class Other12 extends TestPacket {}
+    private static class Other13 extends TestPacket {}
+    private static class Other14 extends TestPacket {}
+    private static class Other15 extends TestPacket {}
+    private static class Other16 extends TestPacket {}
+    private static class Other17 extends TestPacket {}
+}